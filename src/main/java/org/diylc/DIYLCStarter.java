@@ -35,7 +35,11 @@ import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
 import org.diylc.appframework.miscutils.ConfigurationManager;
 import org.diylc.appframework.miscutils.PropertyInjector;
+import org.diylc.common.IBlockProcessor;
+import org.diylc.common.IPlugInPort;
+import org.diylc.common.IVariantProcessor;
 import org.diylc.core.IView;
+import org.diylc.presenter.DefaultVariants;
 import org.diylc.presenter.Presenter;
 import org.diylc.swing.gui.MainFrame;
 import org.diylc.swing.gui.TemplateDialog;
@@ -72,7 +76,11 @@ public class DIYLCStarter {
 	    LOG.error("Could not initialize log4j configuration", e);
 	}
 
-	ConfigurationManager.initialize("diylc");
+	// big items are kept in their own files, so they don't get rewritten
+	// every time a setting changes
+	ConfigurationManager.initialize("diylc", IVariantProcessor.TEMPLATES_KEY,
+					IVariantProcessor.DEFAULT_TEMPLATES_KEY,
+					IBlockProcessor.BLOCKS_KEY, IPlugInPort.RECENT_FILES_KEY);
 
 	Package p = DIYLCStarter.class.getPackage();
 	LOG.debug("DIYLCStarter package name: " + p.getName());
@@ -154,6 +162,8 @@ public class DIYLCStarter {
 	MainFrame mainFrame = new MainFrame();
 	mainFrame.setLocationRelativeTo(null);
 	mainFrame.setVisible(true);
+	// not needed to show the main window, so read them in the background
+	DefaultVariants.preload();
 	if (args.length > 0) {
 	    mainFrame.getPresenter().loadProjectFromFile(args[0]);
 	} else {
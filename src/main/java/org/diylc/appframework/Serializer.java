@@ -25,10 +25,12 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 import java.net.URL;
 
 import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.io.binary.BinaryStreamDriver;
 import com.thoughtworks.xstream.io.xml.DomDriver;
 import com.thoughtworks.xstream.io.json.JettisonMappedXmlDriver;
 
@@ -38,6 +40,7 @@ public class Serializer {
     private static XStream xs = null;
     private static XStream xsd = null;
     private static XStream xsj = null;    
+    private static XStream xsb = null;
 
     private static void initSerializer() {
 	if (xs != null)
@@ -46,12 +49,16 @@ public class Serializer {
 	xs = new XStream();
 	xsd = new XStream(new DomDriver());
 	xsj = new XStream(new JettisonMappedXmlDriver());
+	// same as xsd, but without the XML
+	xsb = new XStream(new BinaryStreamDriver());
 
 	xsd.registerConverter(new IconImageConverter());
+	xsb.registerConverter(new IconImageConverter());
 
 	XStream.setupDefaultSecurity(xs); // to be removed after 1.5
 	XStream.setupDefaultSecurity(xsd); // to be removed after 1.5
 	XStream.setupDefaultSecurity(xsj); // to be removed after 1.5		
+	XStream.setupDefaultSecurity(xsb); // to be removed after 1.5
 	String[] allowTypes = new String[] {
 	    "org.diylc.**",
 	    "com.diyfever.**",
@@ -61,6 +68,7 @@ public class Serializer {
 	xs.allowTypesByWildcard(allowTypes);
 	xsd.allowTypesByWildcard(allowTypes);
 	xsj.allowTypesByWildcard(allowTypes);	
+	xsb.allowTypesByWildcard(allowTypes);
     }
 
     public static Object fromURL(String url)
@@ -85,6 +93,17 @@ public class Serializer {
 	return o;
     }
 
+    public static Object fromBinaryResource(String r)
+	throws IOException {
+
+	initSerializer();
+	BufferedInputStream in =
+	    new BufferedInputStream(Serializer.class.getResourceAsStream(r));
+	Object o = xsb.fromXML(in);
+	in.close();
+	return o;
+    }
+
     public static Object fromFile(String file)
 	throws IOException {
 
@@ -127,6 +146,37 @@ public class Serializer {
 	out.close();
     }	
 
+    public static void toStream(OutputStream out, Object o)
+	throws IOException {
+
+	initSerializer();
+	xsd.toXML(o, out);
+    }
+
+    public static void toBinaryFile(File file, Object o)
+	throws IOException {
+
+	initSerializer();
+	BufferedOutputStream out =
+	    new BufferedOutputStream(new FileOutputStream(file));
+	xsb.toXML(o, out);
+	out.close();
+    }
+
+    public static void toBinaryStream(OutputStream out, Object o)
+	throws IOException {
+
+	initSerializer();
+	xsb.toXML(o, out);
+    }
+
+    public static Object fromBinaryStream(InputStream in)
+	throws IOException {
+
+	initSerializer();
+	return xsb.fromXML(in);
+    }
+
     public static Object fromInputStream(InputStream stream)
 	throws IOException {
 
@@ -0,0 +1,128 @@
+/*
+
+    DIY Layout Creator (DIYLC).
+    Copyright (c) 2009-2018 held jointly by the individual authors.
+
+    This file is part of DIYLC.
+
+    DIYLC is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DIYLC is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with DIYLC.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package org.diylc.appframework.miscutils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Annotation processor that writes names of all top-level classes being compiled to
+ * {@link #INDEX_RESOURCE}. {@link Utils#getClasses(String)} reads the index instead of scanning
+ * the whole classpath. Only plain JDK classes may be used here, as the processor is compiled
+ * before everything else.
+ *
+ * The processor runs whenever DIYLC annotations are present and then sees all the classes being
+ * compiled. When only some of the sources are recompiled, the index already in the output
+ * directory is merged with them, keeping the classes whose class files are still there.
+ */
+@SupportedAnnotationTypes("org.diylc.core.annotations.*")
+public class ClassIndexProcessor extends AbstractProcessor {
+
+  public static final String INDEX_RESOURCE = "META-INF/diylc/classes.idx";
+
+  private Set<String> classNames = new TreeSet<String>();
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    for (Element element : roundEnv.getRootElements()) {
+      if (element instanceof TypeElement) {
+        classNames.add(processingEnv.getElementUtils().getBinaryName((TypeElement) element).toString());
+      }
+    }
+    if (roundEnv.processingOver() && !classNames.isEmpty()) {
+      try {
+        FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+            INDEX_RESOURCE);
+        Set<String> index = readIndex(file);
+        index.addAll(classNames);
+        Writer writer = new OutputStreamWriter(file.openOutputStream(), "UTF-8");
+        try {
+          for (String className : index) {
+            writer.write(className);
+            writer.write('\n');
+          }
+        } finally {
+          writer.close();
+        }
+      } catch (IOException e) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+            "Could not write class index: " + e.getMessage());
+      }
+    }
+    // DIYLC annotations are only read at runtime, no other processor needs them
+    return true;
+  }
+
+  /**
+   * @param file the index about to be written
+   * @return classes listed in the index left in the output directory by the previous build that
+   *         still have their class files, or an empty set if there is no index.
+   * @throws IOException
+   */
+  private Set<String> readIndex(FileObject file) throws IOException {
+    Set<String> index = new TreeSet<String>();
+    if (!"file".equals(file.toUri().getScheme())) {
+      return index;
+    }
+    File indexFile = new File(file.toUri());
+    if (!indexFile.exists()) {
+      return index;
+    }
+    // the index is written to META-INF/diylc in the root of the output directory
+    File root = indexFile.getParentFile().getParentFile().getParentFile();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), "UTF-8"));
+    try {
+      String className;
+      while ((className = reader.readLine()) != null) {
+        className = className.trim();
+        if (!className.isEmpty() && new File(root, className.replace('.', '/') + ".class").exists()) {
+          index.add(className);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return index;
+  }
+}
@@ -11,9 +11,17 @@ import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
@@ -26,6 +34,15 @@ import org.diylc.appframework.Serializer;
  * <code>readXYZ</code> methods where XYZ stands for specific data
  * types.
  * 
+ * Changes are written to disk in the background shortly after they are
+ * made, so several changes in a row end up in a single write. Large
+ * items may be kept in separate files (see
+ * {@link #initialize(String, String...)}), so they are only rewritten
+ * when they change. Changed items are serialized right away, by the
+ * thread that changes them, and only the resulting bytes are written in
+ * the background. Each file is written to a temporary file first and
+ * then renamed, so a crash during writing can't corrupt it.
+ * 
  * @author Branislav Stojkovic
  */
 public class ConfigurationManager {
@@ -35,16 +52,39 @@ public class ConfigurationManager {
     private static ConfigurationManager instance;
     private static String path = Utils.getUserDataDirectory("generic");
     private static final String fileName = "config.xml";
+    private static Set<String> separateKeys = new HashSet<String>();
+    private static final long WRITE_DELAY_MS = 500;
+    // Namespace of all the items that are not kept in separate files.
+    private static final String MAIN_NAMESPACE = "";
 
     private Map<String, Object> configuration;
     private Map<String, List<IConfigListener>> listeners;
   
     private boolean fileWithErrors = false;
 
+    // Namespaces that changed since they were last written.
+    private Set<String> dirtyNamespaces = new HashSet<String>();
+    private boolean writeScheduled = false;
+    private ScheduledExecutorService writeExecutor;
+    private final Object writeLock = new Object();
+
     public static void initialize(String appName) {
 	path = Utils.getUserDataDirectory(appName);
     }
 
+    /**
+     * Same as {@link #initialize(String)}, but keeps each of the specified
+     * items in its own file. Should be called before the first call to
+     * {@link #getInstance()}.
+     * 
+     * @param appName
+     * @param separateKeys
+     */
+    public static void initialize(String appName, String... separateKeys) {
+	initialize(appName);
+	ConfigurationManager.separateKeys = new HashSet<String>(Arrays.asList(separateKeys));
+    }
+
     public static ConfigurationManager getInstance() {
 	if (instance == null) {
 	    instance = new ConfigurationManager();
@@ -54,7 +94,25 @@ public class ConfigurationManager {
 
     public ConfigurationManager() {
 	this.listeners = new HashMap<String, List<IConfigListener>>();
+	this.writeExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+		    Thread thread = new Thread(r, "Configuration writer");
+		    thread.setDaemon(true);
+		    thread.setPriority(Thread.MIN_PRIORITY);
+		    return thread;
+		}
+	    });
 	initializeConfiguration();
+	// make sure that pending changes are not lost on exit
+	Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+		@Override
+		public void run() {
+		    flush();
+		}
+	    }));
     }
 
     public void addConfigListener(String key, IConfigListener listener) {
@@ -102,6 +160,26 @@ public class ConfigurationManager {
 		}        
 	    }
 	}
+	for (String key : separateKeys) {
+	    File file = getFile(key);
+	    if (file.exists()) {
+		try {
+		    configuration.put(key, Serializer.fromFile(file));
+		    continue;
+		} catch (Exception e) {
+		    LOG.error("Could not read configuration from " + file, e);
+		    fileWithErrors = true;
+		}
+	    }
+	    if (configuration.containsKey(key)) {
+		// the item is still in the main file, move it to its own
+		// and rewrite the main file without it
+		synchronized (this) {
+		    markDirty(key);
+		    markDirty(MAIN_NAMESPACE);
+		}
+	    }
+	}
     }
 
     private static void copyFileUsingStream(File source, File dest) throws IOException {
@@ -121,16 +199,76 @@ public class ConfigurationManager {
 	}
     }
 
-    private void saveConfiguration() {
-	LOG.info("Saving configuration");
+    private File getFile(String namespace) {
+	if (MAIN_NAMESPACE.equals(namespace)) {
+	    return new File(path + fileName);
+	}
+	return new File(path + "config-" + namespace + ".xml");
+    }
 
-	String configFile = path + fileName;
-	try {
+    /**
+     * Schedules the namespace to be written. Must be called while
+     * holding the lock on this object.
+     */
+    private void markDirty(String namespace) {
+	dirtyNamespaces.add(namespace);
+	if (!writeScheduled) {
+	    writeScheduled = true;
+	    writeExecutor.schedule(new Runnable() {
+
+		    @Override
+		    public void run() {
+			flush();
+		    }
+		}, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+	}
+    }
+
+    /**
+     * Writes all the changes that have not been written yet. There's
+     * no need to call this method explicitly, changes are written
+     * automatically shortly after they are made and when the
+     * application exits.
+     */
+    public void flush() {
+	synchronized (writeLock) {
+	    // separate items go first, so they are not lost if writing
+	    // the main file succeeds and the rest fails
+	    Map<String, Object> toWrite = new LinkedHashMap<String, Object>();
+	    synchronized (this) {
+		writeScheduled = false;
+		for (String namespace : dirtyNamespaces) {
+		    if (!MAIN_NAMESPACE.equals(namespace)) {
+			toWrite.put(namespace, configuration.get(namespace));
+		    }
+		}
+		if (dirtyNamespaces.contains(MAIN_NAMESPACE)) {
+		    // copied, so it can be serialized without holding the
+		    // lock while other values are written
+		    Map<String, Object> mainConfiguration = new HashMap<String, Object>(configuration);
+		    mainConfiguration.keySet().removeAll(separateKeys);
+		    toWrite.put(MAIN_NAMESPACE, mainConfiguration);
+		}
+		dirtyNamespaces.clear();
+	    }
+	    if (toWrite.isEmpty()) {
+		return;
+	    }
+	    LOG.info("Saving configuration");
 	    new File(path).mkdirs();
-	    // Writer writer = new OutputStreamWriter(out, "UTF-8");
-	    Serializer.toFile(configFile, configuration);
-	} catch (Exception e) {
-	    LOG.error("Could not save configuration: " + e.getMessage());
+	    for (final Map.Entry<String, Object> entry : toWrite.entrySet()) {
+		try {
+		    Utils.writeFile(getFile(entry.getKey()), new IContentWriter() {
+
+			    @Override
+			    public void write(OutputStream out) throws IOException {
+				Serializer.toStream(out, entry.getValue());
+			    }
+			});
+		} catch (Exception e) {
+		    LOG.error("Could not save configuration: " + e.getMessage());
+		}
+	    }
 	}
     }
 
@@ -183,8 +321,10 @@ public class ConfigurationManager {
     }
 
     public void writeValue(String key, Object value) {
-	configuration.put(key, value);
-	saveConfiguration();
+	synchronized (this) {
+	    configuration.put(key, value);
+	    markDirty(separateKeys.contains(key) ? key : MAIN_NAMESPACE);
+	}
 	if (listeners.containsKey(key)) {
 	    for (IConfigListener listener : listeners.get(key)) {
 		listener.valueChanged(key, value);
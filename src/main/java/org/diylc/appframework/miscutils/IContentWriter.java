@@ -0,0 +1,37 @@
+/*
+
+    DIY Layout Creator (DIYLC).
+    Copyright (c) 2009-2018 held jointly by the individual authors.
+
+    This file is part of DIYLC.
+
+    DIYLC is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DIYLC is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with DIYLC.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package org.diylc.appframework.miscutils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the contents of a file passed to {@link Utils#writeFile(java.io.File, IContentWriter)}.
+ */
+public interface IContentWriter {
+
+    /**
+     * @param out stream to write to, closed by the caller
+     * @throws IOException
+     */
+    void write(OutputStream out) throws IOException;
+}
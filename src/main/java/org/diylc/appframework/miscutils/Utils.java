@@ -2,13 +2,22 @@ package org.diylc.appframework.miscutils;
 
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.lang.reflect.Field;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashSet;
@@ -19,8 +28,6 @@ import java.util.jar.JarInputStream;
 
 import org.apache.log4j.Logger;
 
-import com.google.common.reflect.ClassPath;
-
 public class Utils {
 
     private static final Logger LOG = Logger.getLogger(Utils.class);
@@ -110,18 +117,133 @@ public class Utils {
     private static Set<Class<?>> getClasses(ClassLoader loader, String packageName)
 	throws IOException, ClassNotFoundException {
 
+	Set<String> indexedRoots = new HashSet<String>();
+	Set<Class<?>> classes = getIndexedClasses(loader, packageName, indexedRoots);
+	// classpath entries without an index, e.g. plugin jars built
+	// without the annotation processor, are scanned. So are class
+	// directories, as the index misses classes that a partial
+	// recompile added without any DIYLC annotations.
+	String path = packageName.replace('.', '/');
+	Enumeration<URL> packageUrls = loader.getResources(path);
+	while (packageUrls.hasMoreElements()) {
+	    URL url = packageUrls.nextElement();
+	    String root = getRoot(url, path);
+	    if (root == null || (indexedRoots.contains(root) && !"file".equals(url.getProtocol()))) {
+		continue;
+	    }
+	    LOG.info("Scanning " + root + " for " + packageName);
+	    for (String className : listClasses(url, packageName)) {
+		LOG.debug("Found class [" + className + "] in [" + root + "]");
+		classes.add(loader.loadClass(className));
+	    }
+	}
+	return classes;
+    }
+
+    /**
+     * Loads all the classes from the specified package and its sub-packages that are listed in
+     * class indexes created by {@link ClassIndexProcessor}.
+     * 
+     * @param loader
+     * @param packageName
+     * @param indexedRoots receives the roots of all the classpath entries that have an index, as
+     *        returned by {@link #getRoot(URL, String)}
+     * @return set of classes, empty if there are no class indexes on the classpath.
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private static Set<Class<?>> getIndexedClasses(ClassLoader loader, String packageName,
+						   Set<String> indexedRoots)
+	throws IOException, ClassNotFoundException {
+	Enumeration<URL> indexes = loader.getResources(ClassIndexProcessor.INDEX_RESOURCE);
+	String prefix = packageName + ".";
 	Set<Class<?>> classes = new HashSet<Class<?>>();
+	while (indexes.hasMoreElements()) {
+	    URL index = indexes.nextElement();
+	    String root = getRoot(index, ClassIndexProcessor.INDEX_RESOURCE);
+	    if (root != null) {
+		indexedRoots.add(root);
+	    }
+	    BufferedReader reader = new BufferedReader(new InputStreamReader(index.openStream(), "UTF-8"));
+	    try {
+		String className;
+		while ((className = reader.readLine()) != null) {
+		    className = className.trim();
+		    if (className.startsWith(prefix)) {
+			LOG.debug("Found class [" + className + "] in index [" + index + "]");
+			classes.add(loader.loadClass(className));
+		    }
+		}
+	    } finally {
+		reader.close();
+	    }
+	}
+	return classes;
+    }
+
+    /**
+     * @param url URL of a resource
+     * @param path path of the resource within its classpath entry
+     * @return URL of the classpath entry the resource comes from, or
+     *         null if the URL doesn't end with the path.
+     */
+    private static String getRoot(URL url, String path) {
+	String s = url.toString();
+	if (s.endsWith("/")) {
+	    s = s.substring(0, s.length() - 1);
+	}
+	if (!s.endsWith(path)) {
+	    return null;
+	}
+	return s.substring(0, s.length() - path.length());
+    }
 
-	ClassPath cp = ClassPath.from(loader);
-	for (ClassPath.ClassInfo ci : cp.getTopLevelClassesRecursive(packageName)) {
-	    
-	    LOG.debug("Found class [" + ci.getSimpleName()
-		      + "] in package [" + ci.getPackageName()
-		      + "] aka [" + ci.getName() + "]");
-	    classes.add(ci.load());
+    /**
+     * Lists top-level classes from a package directory and its
+     * sub-directories, either on the file system or inside a jar.
+     * 
+     * @param url URL of the package directory
+     * @param packageName
+     * @return fully qualified class names
+     * @throws IOException
+     */
+    private static List<String> listClasses(URL url, String packageName) throws IOException {
+	List<String> classNames = new ArrayList<String>();
+	if ("file".equals(url.getProtocol())) {
+	    listClasses(new File(URLDecoder.decode(url.getPath(), "UTF-8")), packageName, classNames);
+	} else if ("jar".equals(url.getProtocol())) {
+	    String jarUrl = url.getPath().substring(0, url.getPath().indexOf("!/"));
+	    String prefix = packageName.replace('.', '/') + "/";
+	    JarInputStream in = new JarInputStream(new URL(jarUrl).openStream());
+	    try {
+		JarEntry entry;
+		while ((entry = in.getNextJarEntry()) != null) {
+		    String name = entry.getName();
+		    if (name.startsWith(prefix) && name.endsWith(".class") && name.indexOf('$') < 0) {
+			classNames.add(stripFilenameExtension(name).replace('/', '.'));
+		    }
+		}
+	    } finally {
+		in.close();
+	    }
+	} else {
+	    LOG.warn("Don't know how to scan " + url + " for classes");
 	}
+	return classNames;
+    }
 
-	return classes;
+    private static void listClasses(File directory, String packageName, List<String> classNames) {
+	File[] files = directory.listFiles();
+	if (files == null) {
+	    return;
+	}
+	for (File file : files) {
+	    if (file.isDirectory()) {
+		listClasses(file, packageName + "." + file.getName(), classNames);
+	    } else if (file.getName().endsWith(".class") && file.getName().indexOf('$') < 0) {
+		classNames.add(packageName + "." + stripFilenameExtension(file.getName()));
+	    }
+	}
     }
 
     private static String stripFilenameExtension(String file) {
@@ -165,4 +287,39 @@ public class Utils {
 	return System.getProperty("user.home")
 	    + File.separator + "." + appName + File.separator;
     }
+
+    /**
+     * Writes a temporary file next to the target and moves it over the
+     * target once it has been flushed to the disk, so the target is
+     * never left partially written. The temporary file is deleted if
+     * anything goes wrong.
+     * 
+     * @param file
+     * @param writer writes the contents of the file
+     * @throws IOException
+     */
+    public static void writeFile(File file, IContentWriter writer) throws IOException {
+	file = file.getAbsoluteFile();
+	File tempFile = File.createTempFile("." + file.getName() + ".", ".tmp", file.getParentFile());
+	try {
+	    FileOutputStream fos = new FileOutputStream(tempFile);
+	    try {
+		OutputStream out = new BufferedOutputStream(fos, 64 * 1024);
+		writer.write(out);
+		out.flush();
+		fos.getFD().sync();
+	    } finally {
+		fos.close();
+	    }
+	    try {
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+			   StandardCopyOption.ATOMIC_MOVE);
+	    } catch (AtomicMoveNotSupportedException e) {
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	    }
+	} finally {
+	    // only left behind if something went wrong
+	    tempFile.delete();
+	}
+    }
 }
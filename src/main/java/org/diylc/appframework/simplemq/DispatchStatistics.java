@@ -0,0 +1,229 @@
+package org.diylc.appframework.simplemq;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Counts dispatched messages and times how long each listener takes to
+ * process them, per event type. Listeners that take longer than
+ * {@link #SLOW_LISTENER_MS} are logged as they happen.
+ * 
+ * @param <E>
+ *            enum that contains all available event types
+ * 
+ * @see MessageDispatcher#getStatistics()
+ */
+public class DispatchStatistics<E extends Enum<E>> {
+
+	private static final Logger LOG = Logger.getLogger(DispatchStatistics.class);
+
+	public static long SLOW_LISTENER_MS = 100;
+
+	private final ConcurrentMap<E, EventStatistics> eventMap = new ConcurrentHashMap<E, EventStatistics>();
+
+	/**
+	 * Records a dispatched message.
+	 * 
+	 * @param eventType
+	 */
+	void recordDispatch(E eventType) {
+		getEventStatistics(eventType).count.incrementAndGet();
+	}
+
+	/**
+	 * Records the time between dispatching a message and delivering it, for
+	 * messages that are not delivered right away.
+	 * 
+	 * @param eventType
+	 * @param nanos
+	 */
+	void recordLatency(E eventType, long nanos) {
+		getEventStatistics(eventType).latency.record(nanos);
+	}
+
+	/**
+	 * Records the time a listener took to process a message.
+	 * 
+	 * @param eventType
+	 * @param listenerName
+	 * @param nanos
+	 */
+	void recordProcessing(E eventType, String listenerName, long nanos) {
+		EventStatistics statistics = getEventStatistics(eventType);
+		TimingHistogram histogram = statistics.listenerMap.get(listenerName);
+		if (histogram == null) {
+			statistics.listenerMap.putIfAbsent(listenerName, new TimingHistogram());
+			histogram = statistics.listenerMap.get(listenerName);
+		}
+		histogram.record(nanos);
+		if (nanos > SLOW_LISTENER_MS * 1000000) {
+			LOG.warn(String.format("%s took %d ms to process %s on thread %s", listenerName, nanos / 1000000,
+					eventType, Thread.currentThread().getName()));
+		}
+	}
+
+	/**
+	 * Forgets everything recorded so far.
+	 */
+	public void reset() {
+		eventMap.clear();
+	}
+
+	/**
+	 * @return one entry per event type and listener, slowest first by total
+	 *         processing time.
+	 */
+	public List<Entry> getEntries() {
+		List<Entry> entries = new ArrayList<Entry>();
+		for (Map.Entry<E, EventStatistics> event : eventMap.entrySet()) {
+			for (Map.Entry<String, TimingHistogram> listener : event.getValue().listenerMap.entrySet()) {
+				entries.add(new Entry(event.getKey().name(), listener.getKey(), event.getValue().count.get(), listener
+						.getValue()));
+			}
+		}
+		Collections.sort(entries, new Comparator<Entry>() {
+
+			@Override
+			public int compare(Entry o1, Entry o2) {
+				return Long.compare(o2.histogram.getTotalNanos(), o1.histogram.getTotalNanos());
+			}
+		});
+		return entries;
+	}
+
+	/**
+	 * Writes all the statistics, including the histograms, as plain text.
+	 * 
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void writeReport(Writer writer) throws IOException {
+		PrintWriter out = new PrintWriter(writer);
+		out.println(String.format("%-24s %10s", "Event", "Dispatched"));
+		for (Map.Entry<E, EventStatistics> event : eventMap.entrySet()) {
+			out.println(String.format("%-24s %10d", event.getKey().name(), event.getValue().count.get()));
+		}
+		out.println();
+		for (Map.Entry<E, EventStatistics> event : eventMap.entrySet()) {
+			if (event.getValue().latency.getCount() > 0) {
+				writeHistogram(out, event.getKey().name() + " delivery latency", event.getValue().latency);
+			}
+		}
+		for (Entry entry : getEntries()) {
+			writeHistogram(out, entry.getEventType() + " " + entry.getListener(), entry.histogram);
+		}
+		out.flush();
+		if (out.checkError()) {
+			throw new IOException("Could not write the report");
+		}
+	}
+
+	private static void writeHistogram(PrintWriter out, String title, TimingHistogram histogram) {
+		out.println(String.format("%s: count %d, mean %.3f ms, max %.3f ms", title, histogram.getCount(),
+				histogram.getMeanNanos() / 1e6, histogram.getMaxNanos() / 1e6));
+		long lower = 0;
+		for (int i = 0; i < TimingHistogram.BUCKET_COUNT; i++) {
+			long limit = TimingHistogram.getBucketLimitNanos(i);
+			if (histogram.getBucketCount(i) > 0) {
+				out.println(String.format("  %10s - %-10s %10d", formatNanos(lower),
+						limit == Long.MAX_VALUE ? "" : formatNanos(limit), histogram.getBucketCount(i)));
+			}
+			lower = limit;
+		}
+		out.println();
+	}
+
+	private static String formatNanos(long nanos) {
+		if (nanos < 1000000) {
+			return (nanos / 1000) + " us";
+		}
+		return String.format("%.1f ms", nanos / 1e6);
+	}
+
+	private EventStatistics getEventStatistics(E eventType) {
+		EventStatistics statistics = eventMap.get(eventType);
+		if (statistics == null) {
+			eventMap.putIfAbsent(eventType, new EventStatistics());
+			statistics = eventMap.get(eventType);
+		}
+		return statistics;
+	}
+
+	private static class EventStatistics {
+
+		private final AtomicLong count = new AtomicLong();
+		private final TimingHistogram latency = new TimingHistogram();
+		private final ConcurrentMap<String, TimingHistogram> listenerMap = new ConcurrentHashMap<String, TimingHistogram>();
+	}
+
+	/**
+	 * Processing times of a single listener for a single event type.
+	 */
+	public static class Entry {
+
+		private final String eventType;
+		private final String listener;
+		private final long dispatchCount;
+		private final TimingHistogram histogram;
+
+		public Entry(String eventType, String listener, long dispatchCount, TimingHistogram histogram) {
+			this.eventType = eventType;
+			this.listener = listener;
+			this.dispatchCount = dispatchCount;
+			this.histogram = histogram;
+		}
+
+		public String getEventType() {
+			return eventType;
+		}
+
+		public String getListener() {
+			return listener;
+		}
+
+		/**
+		 * @return number of times the event was dispatched.
+		 */
+		public long getDispatched() {
+			return dispatchCount;
+		}
+
+		/**
+		 * @return number of times the listener processed the event.
+		 */
+		public long getProcessed() {
+			return histogram.getCount();
+		}
+
+		public String getTotalMs() {
+			return String.format("%.1f", histogram.getTotalNanos() / 1e6);
+		}
+
+		public String getMeanMs() {
+			return String.format("%.3f", histogram.getMeanNanos() / 1e6);
+		}
+
+		public String getP99Ms() {
+			return String.format("%.3f", histogram.getPercentileNanos(99) / 1e6);
+		}
+
+		public String getMaxMs() {
+			return String.format("%.3f", histogram.getMaxNanos() / 1e6);
+		}
+
+		public TimingHistogram getHistogram() {
+			return histogram;
+		}
+	}
+}
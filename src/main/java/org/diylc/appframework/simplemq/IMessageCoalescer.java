@@ -0,0 +1,21 @@
+package org.diylc.appframework.simplemq;
+
+/**
+ * Interface for merging parameters of messages that are delivered together.
+ * 
+ * @see MessageDispatcher#setCoalescer(Enum, IMessageCoalescer)
+ */
+public interface IMessageCoalescer {
+
+	/**
+	 * Called when a message is dispatched while another one of the same type
+	 * is still waiting to be delivered.
+	 * 
+	 * @param pending
+	 *            parameters of the message that is waiting
+	 * @param params
+	 *            parameters of the new message
+	 * @return parameters of the single message to deliver instead of both
+	 */
+	Object[] merge(Object[] pending, Object[] params);
+}
@@ -28,6 +28,8 @@ public interface IMessageListener<E extends Enum<E>> {
 	 * Called from the background thread when event is received. Use
 	 * {@link SwingUtilities#invokeLater} if event processing needs to take
 	 * place in the EDT.
+	 * Messages are delivered one at a time, in the order they were
+	 * dispatched.
 	 * 
 	 * @param eventType
 	 * @param params
@@ -1,18 +1,39 @@
 package org.diylc.appframework.simplemq;
 
-import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.SwingUtilities;
 
 import org.apache.log4j.Logger;
 
 /**
  * Utility for synchronous or asynchronous message distribution.
  * 
+ * Listeners are looked up in a table indexed by event type ordinal that is
+ * rebuilt each time a listener is registered or unregistered, so dispatching
+ * never locks or allocates.
+ * 
+ * In asynchronous mode messages are delivered by a bounded pool of threads.
+ * Each listener has its own queue and receives messages one at a time, in the
+ * order they were dispatched, though different listeners may run in parallel.
+ * When a listener's queue is full, the dispatching thread waits for it to
+ * drain. Messages of a type that has a coalescer are merged into the last
+ * queued message instead if it has the same type.
+ * 
+ * Dispatch counts and listener processing times are collected in
+ * {@link #getStatistics()}.
+ * 
  * @author Branislav Stojkovic
  * 
  * @param <E>
@@ -24,16 +45,82 @@ public class MessageDispatcher<E extends Enum<E>> {
 
 	private static final Logger LOG = Logger.getLogger(MessageDispatcher.class);
 
+	public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+	/**
+	 * Coalescer that keeps only the parameters of the latest message.
+	 */
+	public static final IMessageCoalescer KEEP_LATEST = new IMessageCoalescer() {
+
+		@Override
+		public Object[] merge(Object[] pending, Object[] params) {
+			return params;
+		}
+	};
+
+	private static final AtomicInteger threadCounter = new AtomicInteger();
+
+	// shared by all the event types nobody listens to
+	@SuppressWarnings("rawtypes")
+	private static final MessageDispatcher.Subscriber[] NO_SUBSCRIBERS = new MessageDispatcher.Subscriber[0];
+
 	private Map<IMessageListener<E>, EnumSet<E>> listenerMap;
 	private Object mutex = new Object();
 	private ExecutorService threadFactory;
 	private final boolean synchronous;
+	private final int queueCapacity;
+
+	// subscribers to each event type, indexed by ordinal. Replaced as a whole
+	// when listeners change, never modified.
+	private volatile Subscriber[][] subscriberTable;
+	// keeps the queue of a listener when it subscribes to other events
+	private Map<IMessageListener<E>, Subscriber> subscriberMap;
+	// coalescers indexed by ordinal, replaced as a whole as well
+	private volatile IMessageCoalescer[] coalescerTable = new IMessageCoalescer[0];
+	// coalesced messages waiting to be delivered, guarded by itself
+	private final Map<E, Message> pendingMap = new HashMap<E, Message>();
+
+	private final DispatchStatistics<E> statistics = new DispatchStatistics<E>();
+
+	// asynchronous mode statistics
+	private final AtomicInteger queuedCount = new AtomicInteger();
+	private final AtomicInteger peakQueuedCount = new AtomicInteger();
+	private final AtomicLong coalescedCount = new AtomicLong();
 
 	public MessageDispatcher(boolean synchronous) {
+		this(synchronous, Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * @param synchronous
+	 * @param threadCount
+	 *            maximum number of threads that deliver messages in
+	 *            asynchronous mode
+	 * @param queueCapacity
+	 *            maximum number of messages waiting for a single listener in
+	 *            asynchronous mode
+	 */
+	@SuppressWarnings("unchecked")
+	public MessageDispatcher(boolean synchronous, int threadCount, int queueCapacity) {
 		this.synchronous = synchronous;
-		listenerMap = new HashMap<IMessageListener<E>, EnumSet<E>>();
+		this.queueCapacity = queueCapacity;
+		listenerMap = new LinkedHashMap<IMessageListener<E>, EnumSet<E>>();
+		subscriberMap = new HashMap<IMessageListener<E>, Subscriber>();
+		subscriberTable = new MessageDispatcher.Subscriber[0][];
 		if (!synchronous) {
-			threadFactory = Executors.newCachedThreadPool();
+			// there's at most one task per listener in the queue
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "Message dispatcher " + threadCounter.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			executor.allowCoreThreadTimeOut(true);
+			threadFactory = executor;
 		}
 	}
 
@@ -41,6 +128,10 @@ public class MessageDispatcher<E extends Enum<E>> {
 		if (listener.getSubscribedEventTypes() != null) {
 			synchronized (mutex) {
 				listenerMap.put(listener, listener.getSubscribedEventTypes());
+				if (!subscriberMap.containsKey(listener)) {
+					subscriberMap.put(listener, new Subscriber(listener));
+				}
+				rebuildSubscriberTable();
 			}
 		}
 	}
@@ -48,6 +139,37 @@ public class MessageDispatcher<E extends Enum<E>> {
 	public void unregisterListener(IMessageListener<E> listener) {
 		synchronized (mutex) {
 			listenerMap.remove(listener);
+			subscriberMap.remove(listener);
+			rebuildSubscriberTable();
+		}
+	}
+
+	/**
+	 * Makes messages of the given type coalesce. In synchronous mode, instead
+	 * of being delivered right away, the message is delivered from the event
+	 * dispatch thread once all the pending events have been processed. Messages
+	 * of the same type dispatched in the meantime are merged into it by the
+	 * coalescer. In asynchronous mode, the message is merged into the last one
+	 * waiting for the listener, if it's of the same type. Useful for messages
+	 * that are dispatched many times per second where only the latest state
+	 * matters, like repaints.
+	 * 
+	 * @param eventType
+	 * @param coalescer
+	 *            coalescer to use, or null to deliver right away again
+	 */
+	public void setCoalescer(E eventType, IMessageCoalescer coalescer) {
+		synchronized (mutex) {
+			IMessageCoalescer[] table = coalescerTable;
+			if (table.length <= eventType.ordinal()) {
+				IMessageCoalescer[] newTable = new IMessageCoalescer[eventType.ordinal() + 1];
+				System.arraycopy(table, 0, newTable, 0, table.length);
+				table = newTable;
+			} else {
+				table = table.clone();
+			}
+			table[eventType.ordinal()] = coalescer;
+			coalescerTable = table;
 		}
 	}
 
@@ -57,60 +179,218 @@ public class MessageDispatcher<E extends Enum<E>> {
 	 * @param eventType
 	 * @param params
 	 */
-	public void dispatchMessage(E eventType, Object... params) {
-		if (synchronous) {
-			List<IMessageListener<E>> listeners = new ArrayList<IMessageListener<E>>();
-			for (Map.Entry<IMessageListener<E>, EnumSet<E>> entry : listenerMap.entrySet()) {
-				if (entry.getValue().contains(eventType)) {
-					listeners.add(entry.getKey());
-				}
+	public void dispatchMessage(final E eventType, Object... params) {
+		statistics.recordDispatch(eventType);
+		Subscriber[] subscribers = getSubscribers(eventType);
+		if (subscribers.length == 0) {
+			return;
+		}
+		IMessageCoalescer coalescer = getCoalescer(eventType);
+		if (!synchronous) {
+			for (Subscriber subscriber : subscribers) {
+				subscriber.enqueue(eventType, params, coalescer);
 			}
-			for (IMessageListener<E> listener : listeners) {
-				try {
-					listener.processMessage(eventType, params);
-				} catch (Exception e) {
-					LOG.error("Listener threw an exception", e);
+		} else if (coalescer != null) {
+			synchronized (pendingMap) {
+				Message pending = pendingMap.get(eventType);
+				if (pending != null) {
+					pending.params = coalescer.merge(pending.params, params);
+					return;
 				}
+				pendingMap.put(eventType, new Message(eventType, params));
 			}
+			SwingUtilities.invokeLater(new Runnable() {
+
+				@Override
+				public void run() {
+					Message pending;
+					synchronized (pendingMap) {
+						pending = pendingMap.remove(eventType);
+					}
+					statistics.recordLatency(eventType, System.nanoTime() - pending.dispatchedAt);
+					for (Subscriber subscriber : getSubscribers(eventType)) {
+						subscriber.deliver(eventType, pending.params);
+					}
+				}
+			});
 		} else {
-			threadFactory.execute(new EventRunnable(eventType, params));
+			for (Subscriber subscriber : subscribers) {
+				subscriber.deliver(eventType, params);
+			}
 		}
 	}
 
 	/**
-	 * {@link Runnable} implementation that loops over <code>listenerMap</code>
-	 * and dispatches the event to listeners that are listening for that
-	 * particular event type.
-	 * 
+	 * @return dispatch counts and listener processing times.
 	 */
-	class EventRunnable implements Runnable {
+	public DispatchStatistics<E> getStatistics() {
+		return statistics;
+	}
 
-		private E eventType;
-		private Object[] params;
+	/**
+	 * @return number of messages waiting to be delivered in asynchronous mode.
+	 */
+	public int getQueuedCount() {
+		return queuedCount.get();
+	}
 
-		public EventRunnable(E eventType, Object[] params) {
-			super();
-			this.eventType = eventType;
-			this.params = params;
+	/**
+	 * @return the highest number of messages that were waiting to be delivered
+	 *         at the same time in asynchronous mode.
+	 */
+	public int getPeakQueuedCount() {
+		return peakQueuedCount.get();
+	}
+
+	/**
+	 * @return number of messages that were merged into a waiting message in
+	 *         asynchronous mode.
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	@SuppressWarnings("unchecked")
+	private Subscriber[] getSubscribers(E eventType) {
+		Subscriber[][] table = subscriberTable;
+		int ordinal = eventType.ordinal();
+		return ordinal < table.length ? table[ordinal] : NO_SUBSCRIBERS;
+	}
+
+	private IMessageCoalescer getCoalescer(E eventType) {
+		IMessageCoalescer[] table = coalescerTable;
+		int ordinal = eventType.ordinal();
+		return ordinal < table.length ? table[ordinal] : null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void rebuildSubscriberTable() {
+		int size = 0;
+		for (EnumSet<E> eventTypes : listenerMap.values()) {
+			for (E eventType : eventTypes) {
+				size = Math.max(size, eventType.ordinal() + 1);
+			}
 		}
+		int[] counts = new int[size];
+		for (EnumSet<E> eventTypes : listenerMap.values()) {
+			for (E eventType : eventTypes) {
+				counts[eventType.ordinal()]++;
+			}
+		}
+		Subscriber[][] table = new MessageDispatcher.Subscriber[size][];
+		for (int i = 0; i < size; i++) {
+			table[i] = counts[i] == 0 ? NO_SUBSCRIBERS : new MessageDispatcher.Subscriber[counts[i]];
+			counts[i] = 0;
+		}
+		for (Map.Entry<IMessageListener<E>, EnumSet<E>> entry : listenerMap.entrySet()) {
+			Subscriber subscriber = subscriberMap.get(entry.getKey());
+			for (E eventType : entry.getValue()) {
+				int ordinal = eventType.ordinal();
+				table[ordinal][counts[ordinal]++] = subscriber;
+			}
+		}
+		subscriberTable = table;
+	}
 
-		@Override
-		public void run() {
-			List<IMessageListener<E>> listeners = new ArrayList<IMessageListener<E>>();
-			synchronized (mutex) {
-				for (Map.Entry<IMessageListener<E>, EnumSet<E>> entry : listenerMap.entrySet()) {
-					if (entry.getValue().contains(eventType)) {
-						listeners.add(entry.getKey());
+	/**
+	 * Listener along with the queue of messages waiting for it in asynchronous
+	 * mode. The queue is drained by one pool thread at a time, one message per
+	 * task, so a busy listener does not hold a thread while others wait.
+	 */
+	class Subscriber implements Runnable {
+
+		private final IMessageListener<E> listener;
+		private final String listenerName;
+		// guarded by itself
+		private final ArrayDeque<Message> queue = new ArrayDeque<Message>();
+		private boolean scheduled;
+		private volatile Thread deliveringThread;
+
+		public Subscriber(IMessageListener<E> listener) {
+			this.listener = listener;
+			this.listenerName = listener.getClass().getName();
+		}
+
+		public void deliver(E eventType, Object[] params) {
+			long start = System.nanoTime();
+			try {
+				listener.processMessage(eventType, params);
+			} catch (Exception e) {
+				LOG.error("Listener threw an exception", e);
+			}
+			statistics.recordProcessing(eventType, listenerName, System.nanoTime() - start);
+		}
+
+		public void enqueue(E eventType, Object[] params, IMessageCoalescer coalescer) {
+			boolean interrupted = false;
+			synchronized (queue) {
+				Message last = queue.peekLast();
+				if (coalescer != null && last != null && last.eventType == eventType) {
+					last.params = coalescer.merge(last.params, params);
+					coalescedCount.incrementAndGet();
+					return;
+				}
+				// a listener that dispatches to itself must not wait for its
+				// own queue
+				while (queue.size() >= queueCapacity && deliveringThread != Thread.currentThread()) {
+					try {
+						queue.wait();
+					} catch (InterruptedException e) {
+						interrupted = true;
 					}
 				}
+				queue.addLast(new Message(eventType, params));
+				int count = queuedCount.incrementAndGet();
+				int peak;
+				while (count > (peak = peakQueuedCount.get()) && !peakQueuedCount.compareAndSet(peak, count)) {
+				}
+				if (!scheduled) {
+					scheduled = true;
+					threadFactory.execute(this);
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public void run() {
+			Message message;
+			synchronized (queue) {
+				message = queue.pollFirst();
+				queuedCount.decrementAndGet();
+				queue.notifyAll();
 			}
-			for (IMessageListener<E> listener : listeners) {
-				try {
-					listener.processMessage(eventType, params);
-				} catch (Exception e) {
-					LOG.error("Listener threw an exception", e);
+			statistics.recordLatency(message.eventType, System.nanoTime() - message.dispatchedAt);
+			deliveringThread = Thread.currentThread();
+			try {
+				deliver(message.eventType, message.params);
+			} finally {
+				deliveringThread = null;
+			}
+			synchronized (queue) {
+				if (queue.isEmpty()) {
+					scheduled = false;
+					return;
 				}
 			}
+			// let other listeners run before taking the next message
+			threadFactory.execute(this);
+		}
+	}
+
+	class Message {
+
+		private final E eventType;
+		private Object[] params;
+		// when the first of the merged messages was dispatched
+		private final long dispatchedAt;
+
+		public Message(E eventType, Object[] params) {
+			this.eventType = eventType;
+			this.params = params;
+			this.dispatchedAt = System.nanoTime();
 		}
 	}
 }
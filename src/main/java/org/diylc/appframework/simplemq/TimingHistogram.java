@@ -0,0 +1,86 @@
+package org.diylc.appframework.simplemq;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe histogram of durations with buckets that double in size, from
+ * under 1 microsecond up to several seconds.
+ * 
+ * @see DispatchStatistics
+ */
+public class TimingHistogram {
+
+	public static final int BUCKET_COUNT = 24;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	public void record(long nanos) {
+		long micros = nanos / 1000;
+		int bucket = micros <= 0 ? 0 : Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+		buckets.incrementAndGet(bucket);
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long max;
+		while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getTotalNanos() {
+		return totalNanos.get();
+	}
+
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	public double getMeanNanos() {
+		long c = count.get();
+		return c == 0 ? 0 : (double) totalNanos.get() / c;
+	}
+
+	/**
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return upper bound of the bucket that contains the given percentile,
+	 *         in nanoseconds.
+	 */
+	public long getPercentileNanos(double percentile) {
+		long c = count.get();
+		if (c == 0) {
+			return 0;
+		}
+		long threshold = (long) Math.ceil(c * percentile / 100);
+		long sum = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			sum += buckets.get(i);
+			if (sum >= threshold) {
+				return Math.min(getBucketLimitNanos(i), maxNanos.get());
+			}
+		}
+		return maxNanos.get();
+	}
+
+	/**
+	 * @param bucket
+	 * @return number of durations recorded in the bucket.
+	 */
+	public long getBucketCount(int bucket) {
+		return buckets.get(bucket);
+	}
+
+	/**
+	 * @param bucket
+	 * @return exclusive upper bound of the bucket in nanoseconds.
+	 */
+	public static long getBucketLimitNanos(int bucket) {
+		return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << bucket) * 1000;
+	}
+}
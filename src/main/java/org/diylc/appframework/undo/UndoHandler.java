@@ -65,7 +65,10 @@ public class UndoHandler<T> {
     }
 
     /**
-     * This method is called when entity change occurs.
+     * This method is called when entity change occurs. States are kept as they are, without making
+     * copies, so the caller should pass states that are not going to be modified afterwards. The
+     * same instance may be passed as the current state of one change and the previous state of the
+     * next one.
      * 
      * @param previousState
      * @param currentState
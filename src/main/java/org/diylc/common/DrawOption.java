@@ -60,5 +60,14 @@ public enum DrawOption {
   /**
    * Include extra space around the layout.
    */
-  EXTRA_SPACE;
+  EXTRA_SPACE,
+  /**
+   * Only regions that have changed since the previous frame are repainted. The target is expected
+   * to still contain the previous frame.
+   */
+  INCREMENTAL,
+  /**
+   * Components that have not changed since the previous frame are drawn from cached images.
+   */
+  SPRITE_CACHE;
 }
@@ -64,6 +64,12 @@ public enum EventType {
    * Called when selection size changes, together with a {@link Point2D} object containing selection
    * size (x = width, y = height). Size is expressed in the default measure (cm for metric, inches
    * for imperial).
+   * 
+   * When an optional {@link Boolean} parameter is set to true, only the components that have been
+   * invalidated since the previous repaint need to be redrawn.
+   * 
+   * Delivered later from the event dispatch thread. Repaints dispatched in the meantime are merged
+   * into one, which is incremental only if all of them were.
    */
   REPAINT,
   /**
@@ -102,5 +108,29 @@ public enum EventType {
   /**
    * Called to update the status message. New status message is passed as a first parameter.
    */
-  STATUS_MESSAGE_CHANGED;
+  STATUS_MESSAGE_CHANGED,
+  /**
+   * Called when building blocks are added or deleted. Sorted list of all the block names is the
+   * only parameter.
+   */
+  BLOCKS_CHANGED,
+  /**
+   * Called when user variants are added or deleted. No parameters are passed.
+   */
+  VARIANTS_CHANGED,
+  /**
+   * Called on the event dispatch thread when a background save of the project starts. The first
+   * parameter is the file name, the second one is a {@link Boolean} flag that is true for backups.
+   */
+  SAVE_STARTED,
+  /**
+   * Called on the event dispatch thread when the project has been saved. Parameters are the same as
+   * with {@link #SAVE_STARTED}.
+   */
+  SAVE_COMPLETED,
+  /**
+   * Called on the event dispatch thread when the project could not be saved. Parameters are the
+   * same as with {@link #SAVE_STARTED}, followed by the {@link Exception} that caused the failure.
+   */
+  SAVE_FAILED;
 }
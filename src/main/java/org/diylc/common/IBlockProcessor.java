@@ -22,6 +22,9 @@
 package org.diylc.common;
 
 import java.io.IOException;
+import java.util.List;
+
+import org.diylc.core.IDIYComponent;
 
 public interface IBlockProcessor {
 
@@ -35,6 +38,18 @@ public interface IBlockProcessor {
   
   int importBlocks(String fileName) throws IOException;
 
+  /**
+   * @return sorted names of all the building blocks.
+   */
+  List<String> getBlockNames();
+
+  /**
+   * @param blockName
+   * @return components of the building block, or null if there's no such block. The returned
+   *         components must not be modified.
+   */
+  List<IDIYComponent<?>> getBlock(String blockName);
+
   public class BlockAlreadyExistsException extends Exception {
 
     private static final long serialVersionUID = 1L;
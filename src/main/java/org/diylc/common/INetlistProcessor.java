@@ -40,6 +40,17 @@ public interface INetlistProcessor {
    */
   List<Netlist> extractNetlists(boolean includeSwitches);
   
+  /**
+   * Same as {@link #extractNetlists(boolean)}, but reports progress after each switch position
+   * combination is processed.
+   * 
+   * @param includeSwitches
+   * @param monitor may be null
+   * @return
+   * @throws java.util.concurrent.CancellationException if the monitor cancels the operation
+   */
+  List<Netlist> extractNetlists(boolean includeSwitches, IProgressMonitor monitor);
+  
   /**
    * Finds all available {@link INetlistAnalyzer} implementations.
    * 
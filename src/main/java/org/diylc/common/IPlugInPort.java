@@ -31,6 +31,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.diylc.appframework.simplemq.DispatchStatistics;
 import org.diylc.appframework.simplemq.IMessageListener;
 import org.diylc.appframework.simplemq.MessageDispatcher;
 import org.diylc.appframework.update.Version;
@@ -57,6 +58,7 @@ public interface IPlugInPort extends ISelectionProcessor, IMouseProcessor, IKeyP
 
   public static final String ANTI_ALIASING_KEY = "antiAliasing";
   public static final String HI_QUALITY_RENDER_KEY = "hiQualityRender";
+  public static final String CACHE_SPRITES_KEY = "cacheSprites";
   public static final String EXPORT_GRID_KEY = "exportGrid";
   public static final String STICKY_POINTS_KEY = "stickyPoints";
   public static final String METRIC_KEY = "metric";
@@ -213,6 +215,13 @@ public interface IPlugInPort extends ISelectionProcessor, IMouseProcessor, IKeyP
    */
   List<Version> getRecentUpdates();
 
+  /**
+   * Returns event dispatch counts and how long each listener took to process them.
+   * 
+   * @return
+   */
+  DispatchStatistics<EventType> getDispatchStatistics();
+
   /**
    * Adds a list of components to the project.
    * 
@@ -0,0 +1,42 @@
+/*
+
+    DIY Layout Creator (DIYLC).
+    Copyright (c) 2009-2018 held jointly by the individual authors.
+
+    This file is part of DIYLC.
+
+    DIYLC is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DIYLC is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with DIYLC.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package org.diylc.common;
+
+/**
+ * Receives progress updates from a long running operation and lets the caller cancel it. Methods
+ * may be called from worker threads.
+ */
+public interface IProgressMonitor {
+
+  /**
+   * Called whenever a unit of work is completed.
+   * 
+   * @param done
+   * @param total
+   */
+  void progressChanged(long done, long total);
+
+  /**
+   * @return true if the operation should stop as soon as possible.
+   */
+  boolean isCanceled();
+}
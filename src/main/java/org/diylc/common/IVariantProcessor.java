@@ -47,6 +47,18 @@ public interface IVariantProcessor {
   
   String getDefaultVariant(ComponentType type);
 
+  /**
+   * @return sorted class names of all the component types that have user variants.
+   */
+  List<String> getUserVariantTypes();
+
+  /**
+   * @param typeName
+   * @return user variants stored under the specified class name, or null if there are none. The
+   *         returned list must not be modified.
+   */
+  List<Template> getUserVariantsFor(String typeName);
+
   public class VariantAlreadyExistsException extends Exception {
 
     private static final long serialVersionUID = 1L;
@@ -26,10 +26,6 @@ import java.awt.Font;
 import java.awt.Point;
 import java.awt.Shape;
 import java.awt.geom.Rectangle2D;
-import java.lang.reflect.Array;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
-import java.util.Arrays;
 
 import org.diylc.core.IDIYComponent;
 import org.diylc.core.annotations.EditableProperty;
@@ -142,46 +138,9 @@ public abstract class AbstractComponent<T> implements IDIYComponent<T> {
 
   @SuppressWarnings("unchecked")
   public IDIYComponent<T> clone() throws CloneNotSupportedException {
-    try {
-      // Instantiate object of the same type
-      AbstractComponent<T> newInstance = (AbstractComponent<T>) this.getClass().getConstructors()[0].newInstance();
-      Class<?> clazz = this.getClass();
-      while (AbstractComponent.class.isAssignableFrom(clazz)) {
-        Field[] fields = clazz.getDeclaredFields();
-        clazz = clazz.getSuperclass();
-        // fields = this.getClass().getDeclaredFields();
-        // Copy over all non-static, non-final fields that are declared
-        // in AbstractComponent or one of it's child classes
-        for (Field field : fields) {
-          if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isFinal(field.getModifiers())) {
-            field.setAccessible(true);
-            Object value = field.get(this);
-
-            // Deep copy point arrays.
-            // TODO: something nicer
-            if (value != null && value.getClass().isArray()
-                && value.getClass().getComponentType().isAssignableFrom(Point.class)) {
-              Object newArray = Array.newInstance(value.getClass().getComponentType(), Array.getLength(value));
-              for (int i = 0; i < Array.getLength(value); i++) {
-                Point p = (Point) Array.get(value, i);
-                Array.set(newArray, i, new Point(p));
-              }
-              value = newArray;
-            }
-            // Deep copy points.
-            // TODO: something nicer
-            if (value != null && value instanceof Point) {
-              value = new Point((Point) value);
-            }
-
-            field.set(newInstance, value);
-          }
-        }
-      }
-      return newInstance;
-    } catch (Exception e) {
-      throw new CloneNotSupportedException("Could not clone the component. Reason: " + e.getMessage());
-    }
+    // Instantiate object of the same type and copy over all non-static, non-final fields that are
+    // declared in AbstractComponent or one of it's child classes
+    return (IDIYComponent<T>) ComponentFieldPlan.of(this.getClass()).copy(this);
   }
 
   @Override
@@ -190,42 +149,7 @@ public abstract class AbstractComponent<T> implements IDIYComponent<T> {
       return false;
     if (!other.getClass().equals(this.getClass()))
       return false;
-    Class<?> clazz = this.getClass();
-    while (AbstractComponent.class.isAssignableFrom(clazz)) {
-      Field[] fields = clazz.getDeclaredFields();
-      clazz = clazz.getSuperclass();
-      // fields = this.getClass().getDeclaredFields();
-      // Copy over all non-static, non-final fields that are declared
-      // in
-      // AbstractComponent or one of it's child classes
-      for (Field field : fields) {
-        if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isFinal(field.getModifiers())) {
-          field.setAccessible(true);
-          try {
-            Object value = field.get(this);
-            Object otherValue = field.get(other);
-            if (!compareObjects(value, otherValue))
-              return false;
-          } catch (Exception e) {
-            throw new RuntimeException(e);
-          }
-        }
-      }
-    }
-    return true;
-  }
-
-  private boolean compareObjects(Object o1, Object o2) {
-    if (o1 == null && o2 == null)
-      return true;
-    if (o1 == null || o2 == null)
-      return false;
-    if (o1.getClass().isArray()) {
-      if (o1.getClass().getComponentType() == byte.class)
-        return Arrays.equals((byte[]) o1, (byte[]) o2);
-      return Arrays.equals((Object[]) o1, (Object[]) o2);
-    }
-    return o1.equals(o2);
+    return ComponentFieldPlan.of(this.getClass()).equals(this, other);
   }
   
   @Override
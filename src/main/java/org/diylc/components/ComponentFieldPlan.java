@@ -0,0 +1,186 @@
+/*
+
+    DIY Layout Creator (DIYLC).
+    Copyright (c) 2009-2018 held jointly by the individual authors.
+
+    This file is part of DIYLC.
+
+    DIYLC is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DIYLC is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with DIYLC.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package org.diylc.components;
+
+import java.awt.Point;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Copies and compares all non-static, non-final fields declared in {@link AbstractComponent} or one
+ * of its child classes. Fields are looked up once per class and accessed through method handles
+ * afterwards, instead of walking the class hierarchy on each call.
+ */
+final class ComponentFieldPlan {
+
+  private static final ClassValue<ComponentFieldPlan> PLANS = new ClassValue<ComponentFieldPlan>() {
+
+    @Override
+    protected ComponentFieldPlan computeValue(Class<?> type) {
+      return new ComponentFieldPlan(type);
+    }
+  };
+
+  private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+  private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+  private final MethodHandle constructor;
+  private final Exception constructorError;
+  private final MethodHandle[] getters;
+  private final MethodHandle[] setters;
+  // True for fields that may hold points, which need to be copied.
+  private final boolean[] mayHoldPoints;
+
+  /**
+   * @param clazz
+   * @return plan for the specified component class, created on first use.
+   */
+  public static ComponentFieldPlan of(Class<?> clazz) {
+    return PLANS.get(clazz);
+  }
+
+  private ComponentFieldPlan(Class<?> type) {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    MethodHandle constructor = null;
+    Exception constructorError = null;
+    try {
+      constructor = lookup.unreflectConstructor(type.getConstructor()).asType(MethodType.methodType(Object.class));
+    } catch (Exception e) {
+      // reported when the component is actually cloned
+      constructorError = e;
+    }
+    this.constructor = constructor;
+    this.constructorError = constructorError;
+
+    List<MethodHandle> getters = new ArrayList<MethodHandle>();
+    List<MethodHandle> setters = new ArrayList<MethodHandle>();
+    List<Boolean> mayHoldPoints = new ArrayList<Boolean>();
+    Class<?> clazz = type;
+    while (AbstractComponent.class.isAssignableFrom(clazz)) {
+      for (Field field : clazz.getDeclaredFields()) {
+        if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isFinal(field.getModifiers())) {
+          field.setAccessible(true);
+          try {
+            getters.add(lookup.unreflectGetter(field).asType(GETTER_TYPE));
+            setters.add(lookup.unreflectSetter(field).asType(SETTER_TYPE));
+          } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+          }
+          Class<?> fieldType = field.getType();
+          mayHoldPoints.add(!fieldType.isPrimitive()
+              && (fieldType.isArray() || fieldType.isAssignableFrom(Point.class) || Point.class
+                  .isAssignableFrom(fieldType)));
+        }
+      }
+      clazz = clazz.getSuperclass();
+    }
+    this.getters = getters.toArray(new MethodHandle[getters.size()]);
+    this.setters = setters.toArray(new MethodHandle[setters.size()]);
+    this.mayHoldPoints = new boolean[mayHoldPoints.size()];
+    for (int i = 0; i < this.mayHoldPoints.length; i++) {
+      this.mayHoldPoints[i] = mayHoldPoints.get(i);
+    }
+  }
+
+  /**
+   * Creates a new instance and copies all the fields into it. Points and point arrays are deep
+   * copied, everything else is expected to be immutable and is shared.
+   *
+   * @param source
+   * @return
+   * @throws CloneNotSupportedException
+   */
+  public Object copy(Object source) throws CloneNotSupportedException {
+    if (constructor == null) {
+      throw new CloneNotSupportedException("Could not clone the component. Reason: " + constructorError.getMessage());
+    }
+    try {
+      Object newInstance = constructor.invokeExact();
+      for (int i = 0; i < getters.length; i++) {
+        Object value = getters[i].invokeExact(source);
+        if (mayHoldPoints[i] && value != null) {
+          value = copyPoints(value);
+        }
+        setters[i].invokeExact(newInstance, value);
+      }
+      return newInstance;
+    } catch (Throwable e) {
+      throw new CloneNotSupportedException("Could not clone the component. Reason: " + e.getMessage());
+    }
+  }
+
+  /**
+   * @param o1
+   * @param o2
+   * @return true if all the fields of the two components are equal.
+   */
+  public boolean equals(Object o1, Object o2) {
+    for (MethodHandle getter : getters) {
+      try {
+        if (!compareObjects(getter.invokeExact(o1), getter.invokeExact(o2)))
+          return false;
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return true;
+  }
+
+  private static Object copyPoints(Object value) {
+    // Deep copy point arrays.
+    if (value.getClass().isArray() && value.getClass().getComponentType().isAssignableFrom(Point.class)) {
+      Object newArray = Array.newInstance(value.getClass().getComponentType(), Array.getLength(value));
+      for (int i = 0; i < Array.getLength(value); i++) {
+        Point p = (Point) Array.get(value, i);
+        Array.set(newArray, i, new Point(p));
+      }
+      return newArray;
+    }
+    // Deep copy points.
+    if (value instanceof Point) {
+      return new Point((Point) value);
+    }
+    return value;
+  }
+
+  private static boolean compareObjects(Object o1, Object o2) {
+    if (o1 == null && o2 == null)
+      return true;
+    if (o1 == null || o2 == null)
+      return false;
+    if (o1.getClass().isArray()) {
+      if (o1.getClass().getComponentType() == byte.class)
+        return Arrays.equals((byte[]) o1, (byte[]) o2);
+      return Arrays.equals((Object[]) o1, (Object[]) o2);
+    }
+    return o1.equals(o2);
+  }
+}
@@ -0,0 +1,753 @@
+/*
+ *
+ * DIY Layout Creator (DIYLC). Copyright (c) 2009-2018 held jointly by the individual authors.
+ *
+ * This file is part of DIYLC.
+ *
+ * DIYLC is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * DIYLC is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DIYLC. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.diylc.presenter;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Point;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+import org.diylc.core.Project;
+import org.diylc.core.measures.AbstractMeasure;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.annotations.XStreamConverter;
+
+/**
+ * Binary alternative to the XML project format. Holds exactly the same fields XStream writes, so
+ * projects can be converted between the two formats without losing anything, but it's several
+ * times smaller and doesn't need to be parsed.
+ *
+ * The file starts with {@link #MAGIC} and the format version. Strings, including class and field
+ * names, are written once and referenced by index afterwards. The first object of each class is
+ * preceded by the list of its fields, so files remain readable after fields are added or removed.
+ * Points are stored as packed integers, measures as value and unit ordinal and colors as ARGB.
+ * Objects of types not covered by the format are embedded as XStream XML, and so are objects with
+ * fields that use their own XStream converter, so the converter is applied to them.
+ */
+public class BinaryProjectFormat {
+
+  public static final String EXTENSION = "diyb";
+
+  public static final int MAGIC = 0x44495942; // "DIYB"
+  // 2: XSTREAM_OBJECT added
+  public static final int FORMAT_VERSION = 2;
+
+  private static final int NULL = 0;
+  private static final int REFERENCE = 1;
+  private static final int STRING = 2;
+  private static final int TRUE = 3;
+  private static final int FALSE = 4;
+  private static final int BYTE = 5;
+  private static final int SHORT = 6;
+  private static final int CHAR = 7;
+  private static final int INT = 8;
+  private static final int LONG = 9;
+  private static final int FLOAT = 10;
+  private static final int DOUBLE = 11;
+  private static final int ENUM = 12;
+  private static final int POINT = 13;
+  private static final int POINT_ARRAY = 14;
+  private static final int COLOR = 15;
+  private static final int FONT = 16;
+  private static final int MEASURE = 17;
+  private static final int BYTE_ARRAY = 18;
+  private static final int ARRAY = 19;
+  private static final int COLLECTION = 20;
+  private static final int MAP = 21;
+  private static final int OBJECT = 22;
+  private static final int XSTREAM = 23;
+  private static final int XSTREAM_OBJECT = 24;
+
+  // Serializable fields of each class, the same ones XStream writes.
+  private static final ClassValue<Field[]> FIELDS = new ClassValue<Field[]>() {
+
+    @Override
+    protected Field[] computeValue(Class<?> type) {
+      List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+      for (Class<?> clazz = type; clazz != Object.class; clazz = clazz.getSuperclass()) {
+        hierarchy.add(0, clazz);
+      }
+      List<Field> fields = new ArrayList<Field>();
+      for (Class<?> clazz : hierarchy) {
+        for (Field field : clazz.getDeclaredFields()) {
+          if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers())) {
+            field.setAccessible(true);
+            fields.add(field);
+          }
+        }
+      }
+      return fields.toArray(new Field[fields.size()]);
+    }
+  };
+
+  // True for classes that have a field annotated with XStreamConverter. XStream serializes such
+  // fields with the converter, which writing them field by field would bypass.
+  private static final ClassValue<Boolean> HAS_FIELD_CONVERTERS = new ClassValue<Boolean>() {
+
+    @Override
+    protected Boolean computeValue(Class<?> type) {
+      for (Field field : FIELDS.get(type)) {
+        if (field.isAnnotationPresent(XStreamConverter.class)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  };
+
+  // Standard collections and maps that are stored as COLLECTION or MAP, everything else is embedded
+  // as XStream XML.
+  private static final Set<String> ALLOWED_COLLECTIONS = new HashSet<String>(Arrays.asList(
+      "java.util.ArrayList", "java.util.LinkedList", "java.util.Vector", "java.util.ArrayDeque",
+      "java.util.HashSet", "java.util.LinkedHashSet", "java.util.TreeSet", "java.util.HashMap",
+      "java.util.LinkedHashMap", "java.util.TreeMap", "java.util.Hashtable"));
+
+  // Classes other than the allowed packages and collections that arrays may hold.
+  private static final Set<String> ALLOWED_ARRAY_ELEMENTS = new HashSet<String>(Arrays.asList(
+      "java.lang.String", "java.lang.Boolean", "java.lang.Byte", "java.lang.Short", "java.lang.Character",
+      "java.lang.Integer", "java.lang.Long", "java.lang.Float", "java.lang.Double"));
+
+  private final XStream xStream;
+
+  /**
+   * @param xStream used for values the binary format does not cover and to create objects the same
+   *        way XStream does
+   */
+  public BinaryProjectFormat(XStream xStream) {
+    this.xStream = xStream;
+  }
+
+  /**
+   * @param in
+   * @return true if the stream starts with {@link #MAGIC}. Reads up to four bytes.
+   * @throws IOException
+   */
+  public static boolean isBinary(InputStream in) throws IOException {
+    int magic = 0;
+    for (int i = 0; i < 4; i++) {
+      int b = in.read();
+      if (b < 0) {
+        return false;
+      }
+      magic = (magic << 8) | b;
+    }
+    return magic == MAGIC;
+  }
+
+  public void write(Project project, OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+    data.writeInt(MAGIC);
+    new Encoder(data).writeVarInt(FORMAT_VERSION).writeValue(project);
+    data.flush();
+  }
+
+  /**
+   * Reads a project from a file. The whole file is read into memory at once, straight from the
+   * channel. It's not memory mapped, as a mapping stays open until it's garbage collected and on
+   * Windows that prevents the file from being replaced when the project is saved again.
+   *
+   * @param file
+   * @param missingFields receives names of stored fields that no longer exist
+   * @return
+   * @throws IOException
+   */
+  public Project read(File file, Set<String> missingFields) throws IOException {
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("File is too large: " + size + " bytes");
+      }
+      ByteBuffer buffer = ByteBuffer.allocate((int) size);
+      while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+        // keep reading until the buffer is full or the file ends
+      }
+      buffer.flip();
+      if (buffer.remaining() < 4 || buffer.getInt() != MAGIC) {
+        throw new IOException("Not a binary DIYLC file");
+      }
+      Decoder decoder = new Decoder(buffer, missingFields);
+      int version = decoder.readVarInt();
+      if (version > FORMAT_VERSION) {
+        throw new IOException("The file is saved in a newer binary format, version " + version);
+      }
+      return (Project) decoder.readValue();
+    } catch (RuntimeException e) {
+      throw new IOException("Could not read binary file: " + e.getMessage(), e);
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * @param type
+   * @return true for classes written field by field, i.e. all classes that belong to DIYLC and do
+   *         not extend anything else.
+   */
+  private static boolean isPlainObject(Class<?> type) {
+    if (type.isEnum() || type.isArray() || type.isInterface()) {
+      return false;
+    }
+    for (Class<?> clazz = type; clazz != Object.class; clazz = clazz.getSuperclass()) {
+      if (!clazz.getName().startsWith("org.diylc.")) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param value
+   * @return true for standard collections and maps that can be recreated with the no-arg
+   *         constructor.
+   */
+  private static boolean isPlainCollection(Object value) {
+    if (!ALLOWED_COLLECTIONS.contains(value.getClass().getName())) {
+      return false;
+    }
+    return !(value instanceof SortedSet && ((SortedSet<?>) value).comparator() != null)
+        && !(value instanceof SortedMap && ((SortedMap<?, ?>) value).comparator() != null);
+  }
+
+  /**
+   * The same classes XStream is allowed to read, i.e. those from DIYLC and AWT, plus the standard
+   * collections and arrays of allowed classes. Checked before a class named in a file is loaded, so
+   * a crafted file can't make the decoder touch anything else. Enums are checked separately.
+   *
+   * @param name binary class name
+   * @return true if the class may be stored in a project file.
+   */
+  private static boolean isAllowedClassName(String name) {
+    if (name.startsWith("[")) {
+      String element = name.substring(name.lastIndexOf('[') + 1);
+      if (element.length() == 1) {
+        // primitive
+        return "ZBCSIJFD".indexOf(element.charAt(0)) >= 0;
+      }
+      if (!element.startsWith("L") || !element.endsWith(";")) {
+        return false;
+      }
+      element = element.substring(1, element.length() - 1);
+      return ALLOWED_ARRAY_ELEMENTS.contains(element) || isAllowedClassName(element);
+    }
+    return name.startsWith("org.diylc.") || name.startsWith("java.awt.") || ALLOWED_COLLECTIONS.contains(name);
+  }
+
+  private class Encoder {
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+    private final Map<Object, Integer> references = new IdentityHashMap<Object, Integer>();
+    private final Set<Class<?>> describedClasses = new HashSet<Class<?>>();
+
+    public Encoder(DataOutputStream out) {
+      this.out = out;
+    }
+
+    public Encoder writeVarInt(int value) throws IOException {
+      while ((value & ~0x7F) != 0) {
+        out.writeByte((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      out.writeByte(value);
+      return this;
+    }
+
+    private void writeSignedVarInt(int value) throws IOException {
+      writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Writes index of the string, followed by the string itself if it's written for the first time.
+     */
+    private void writeString(String value) throws IOException {
+      Integer index = strings.get(value);
+      if (index != null) {
+        writeVarInt(index + 1);
+      } else {
+        strings.put(value, strings.size());
+        writeVarInt(0);
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length);
+        out.write(bytes);
+      }
+    }
+
+    /**
+     * @return true if the value has been written before and only a reference was written now.
+     */
+    private boolean writeReference(Object value) throws IOException {
+      Integer index = references.get(value);
+      if (index != null) {
+        out.writeByte(REFERENCE);
+        writeVarInt(index);
+        return true;
+      }
+      references.put(value, references.size());
+      return false;
+    }
+
+    public void writeValue(Object value) throws IOException {
+      if (value == null) {
+        out.writeByte(NULL);
+        return;
+      }
+      Class<?> type = value.getClass();
+      if (type == String.class) {
+        out.writeByte(STRING);
+        writeString((String) value);
+      } else if (type == Boolean.class) {
+        out.writeByte((Boolean) value ? TRUE : FALSE);
+      } else if (type == Byte.class) {
+        out.writeByte(BYTE);
+        out.writeByte((Byte) value);
+      } else if (type == Short.class) {
+        out.writeByte(SHORT);
+        out.writeShort((Short) value);
+      } else if (type == Character.class) {
+        out.writeByte(CHAR);
+        out.writeChar((Character) value);
+      } else if (type == Integer.class) {
+        out.writeByte(INT);
+        writeSignedVarInt((Integer) value);
+      } else if (type == Long.class) {
+        out.writeByte(LONG);
+        out.writeLong((Long) value);
+      } else if (type == Float.class) {
+        out.writeByte(FLOAT);
+        out.writeFloat((Float) value);
+      } else if (type == Double.class) {
+        out.writeByte(DOUBLE);
+        out.writeDouble((Double) value);
+      } else if (value instanceof Enum) {
+        out.writeByte(ENUM);
+        writeString(((Enum<?>) value).getDeclaringClass().getName());
+        writeString(((Enum<?>) value).name());
+      } else if (type == Point.class) {
+        out.writeByte(POINT);
+        writeSignedVarInt(((Point) value).x);
+        writeSignedVarInt(((Point) value).y);
+      } else if (type == Color.class) {
+        out.writeByte(COLOR);
+        out.writeInt(((Color) value).getRGB());
+      } else if (type == Font.class) {
+        // the same properties FontConverter writes, but with the logical name, which can be used to
+        // recreate the font even if it's not installed
+        Font font = (Font) value;
+        out.writeByte(FONT);
+        writeString(font.getName());
+        writeVarInt(font.getStyle());
+        writeVarInt(font.getSize());
+      } else if (value instanceof AbstractMeasure) {
+        AbstractMeasure<?> measure = (AbstractMeasure<?>) value;
+        out.writeByte(MEASURE);
+        writeString(type.getName());
+        out.writeBoolean(measure.getValue() != null);
+        if (measure.getValue() != null) {
+          out.writeDouble(measure.getValue());
+        }
+        writeVarInt(measure.getUnit() == null ? 0 : ((Enum<?>) measure.getUnit()).ordinal() + 1);
+      } else if (type.isArray() && isAllowedClassName(type.getName())) {
+        writeArray(value);
+      } else if ((value instanceof Collection || value instanceof Map) && isPlainCollection(value)) {
+        writeCollection(value);
+      } else if (isPlainObject(type)) {
+        if (HAS_FIELD_CONVERTERS.get(type)) {
+          writeXStreamObject(value);
+        } else {
+          writeObject(value);
+        }
+      } else {
+        out.writeByte(XSTREAM);
+        writeString(xStream.toXML(value));
+      }
+    }
+
+    private void writeArray(Object value) throws IOException {
+      if (writeReference(value)) {
+        return;
+      }
+      int length = Array.getLength(value);
+      if (value instanceof byte[]) {
+        out.writeByte(BYTE_ARRAY);
+        writeVarInt(length);
+        out.write((byte[]) value);
+        return;
+      }
+      if (value.getClass() == Point[].class && !containsNull((Point[]) value)) {
+        out.writeByte(POINT_ARRAY);
+        writeVarInt(length);
+        for (Point point : (Point[]) value) {
+          writeSignedVarInt(point.x);
+          writeSignedVarInt(point.y);
+        }
+        return;
+      }
+      out.writeByte(ARRAY);
+      writeString(value.getClass().getName());
+      writeVarInt(length);
+      for (int i = 0; i < length; i++) {
+        writeValue(Array.get(value, i));
+      }
+    }
+
+    private boolean containsNull(Object[] array) {
+      for (Object o : array) {
+        if (o == null) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private void writeCollection(Object value) throws IOException {
+      if (writeReference(value)) {
+        return;
+      }
+      if (value instanceof Collection) {
+        Collection<?> collection = (Collection<?>) value;
+        out.writeByte(COLLECTION);
+        writeString(value.getClass().getName());
+        writeVarInt(collection.size());
+        for (Object item : collection) {
+          writeValue(item);
+        }
+      } else {
+        Map<?, ?> map = (Map<?, ?>) value;
+        out.writeByte(MAP);
+        writeString(value.getClass().getName());
+        writeVarInt(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+          writeValue(entry.getKey());
+          writeValue(entry.getValue());
+        }
+      }
+    }
+
+    /**
+     * Embeds the object as XStream XML. Unlike other embedded values, the object can be referenced
+     * from elsewhere in the project, e.g. from groups.
+     */
+    private void writeXStreamObject(Object value) throws IOException {
+      if (writeReference(value)) {
+        return;
+      }
+      out.writeByte(XSTREAM_OBJECT);
+      writeString(xStream.toXML(value));
+    }
+
+    private void writeObject(Object value) throws IOException {
+      if (writeReference(value)) {
+        return;
+      }
+      Class<?> type = value.getClass();
+      Field[] fields = FIELDS.get(type);
+      out.writeByte(OBJECT);
+      writeString(type.getName());
+      if (describedClasses.add(type)) {
+        writeVarInt(fields.length);
+        for (Field field : fields) {
+          writeString(field.getDeclaringClass().getName());
+          writeString(field.getName());
+        }
+      }
+      for (Field field : fields) {
+        try {
+          writeValue(field.get(value));
+        } catch (IllegalAccessException e) {
+          throw new IOException("Could not read field " + field, e);
+        }
+      }
+    }
+  }
+
+  private class Decoder {
+
+    private final ByteBuffer in;
+    private final Set<String> missingFields;
+    private final List<String> strings = new ArrayList<String>();
+    private final List<Object> references = new ArrayList<Object>();
+    // Stored fields of each class, null where the field no longer exists.
+    private final Map<Class<?>, Field[]> schemas = new HashMap<Class<?>, Field[]>();
+
+    public Decoder(ByteBuffer in, Set<String> missingFields) {
+      this.in = in;
+      this.missingFields = missingFields;
+    }
+
+    public int readVarInt() {
+      int value = 0;
+      int shift = 0;
+      int b;
+      do {
+        b = in.get();
+        value |= (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return value;
+    }
+
+    private int readSignedVarInt() {
+      int value = readVarInt();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    private String readString() {
+      int index = readVarInt();
+      if (index > 0) {
+        return strings.get(index - 1);
+      }
+      byte[] bytes = new byte[readVarInt()];
+      in.get(bytes);
+      String value = new String(bytes, StandardCharsets.UTF_8);
+      strings.add(value);
+      return value;
+    }
+
+    /**
+     * Reads a class name and loads the class without initializing it, if it's allowed.
+     *
+     * @param expected type the class must extend or implement
+     */
+    private Class<?> readClass(Class<?> expected) throws IOException {
+      String name = readString();
+      if (!isAllowedClassName(name)) {
+        throw new IOException("Class not allowed in project files: " + name);
+      }
+      Class<?> type = loadClass(name);
+      if (!expected.isAssignableFrom(type)) {
+        throw new IOException("Unexpected class " + name + ", expected " + expected.getName());
+      }
+      return type;
+    }
+
+    private Class<?> readEnumClass() throws IOException {
+      String name = readString();
+      Class<?> type = loadClass(name);
+      if (!type.isEnum()) {
+        throw new IOException("Not an enum: " + name);
+      }
+      return type;
+    }
+
+    private Class<?> loadClass(String name) throws IOException {
+      try {
+        return Class.forName(name, false, BinaryProjectFormat.class.getClassLoader());
+      } catch (ClassNotFoundException e) {
+        throw new IOException("Unknown class " + name, e);
+      }
+    }
+
+    private <T> T reference(T value) {
+      references.add(value);
+      return value;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Object readValue() throws IOException {
+      int tag = in.get();
+      switch (tag) {
+        case NULL:
+          return null;
+        case REFERENCE:
+          return references.get(readVarInt());
+        case STRING:
+          return readString();
+        case TRUE:
+          return Boolean.TRUE;
+        case FALSE:
+          return Boolean.FALSE;
+        case BYTE:
+          return in.get();
+        case SHORT:
+          return in.getShort();
+        case CHAR:
+          return in.getChar();
+        case INT:
+          return readSignedVarInt();
+        case LONG:
+          return in.getLong();
+        case FLOAT:
+          return in.getFloat();
+        case DOUBLE:
+          return in.getDouble();
+        case ENUM:
+          return Enum.valueOf((Class<Enum>) readEnumClass(), readString());
+        case POINT:
+          return new Point(readSignedVarInt(), readSignedVarInt());
+        case COLOR:
+          return new Color(in.getInt(), true);
+        case FONT:
+          return new Font(readString(), readVarInt(), readVarInt());
+        case MEASURE:
+          return readMeasure();
+        case BYTE_ARRAY: {
+          byte[] bytes = reference(new byte[readVarInt()]);
+          in.get(bytes);
+          return bytes;
+        }
+        case POINT_ARRAY: {
+          Point[] points = reference(new Point[readVarInt()]);
+          for (int i = 0; i < points.length; i++) {
+            points[i] = new Point(readSignedVarInt(), readSignedVarInt());
+          }
+          return points;
+        }
+        case ARRAY: {
+          Class<?> type = readClass(Object.class);
+          if (!type.isArray()) {
+            throw new IOException("Not an array: " + type.getName());
+          }
+          Object array = reference(Array.newInstance(type.getComponentType(), readVarInt()));
+          for (int i = 0; i < Array.getLength(array); i++) {
+            Array.set(array, i, readValue());
+          }
+          return array;
+        }
+        case COLLECTION: {
+          Collection collection = (Collection) reference(newInstance(readCollectionClass(Collection.class)));
+          int size = readVarInt();
+          for (int i = 0; i < size; i++) {
+            collection.add(readValue());
+          }
+          return collection;
+        }
+        case MAP: {
+          Map map = (Map) reference(newInstance(readCollectionClass(Map.class)));
+          int size = readVarInt();
+          for (int i = 0; i < size; i++) {
+            Object key = readValue();
+            map.put(key, readValue());
+          }
+          return map;
+        }
+        case OBJECT:
+          return readObject();
+        case XSTREAM:
+          return xStream.fromXML(readString());
+        case XSTREAM_OBJECT:
+          return reference(xStream.fromXML(readString()));
+        default:
+          throw new IOException("Unknown value type " + tag + " at " + (in.position() - 1));
+      }
+    }
+
+    private Class<?> readCollectionClass(Class<?> expected) throws IOException {
+      Class<?> type = readClass(expected);
+      if (!ALLOWED_COLLECTIONS.contains(type.getName())) {
+        throw new IOException("Class not allowed as a collection: " + type.getName());
+      }
+      return type;
+    }
+
+    private Object newInstance(Class<?> type) throws IOException {
+      try {
+        return type.getConstructor().newInstance();
+      } catch (Exception e) {
+        throw new IOException("Could not create " + type.getName(), e);
+      }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object readMeasure() throws IOException {
+      Class<?> type = readClass(AbstractMeasure.class);
+      Double value = in.get() != 0 ? in.getDouble() : null;
+      int unitOrdinal = readVarInt() - 1;
+      // the same constructor MeasureConverter uses
+      for (Constructor<?> constructor : type.getConstructors()) {
+        Class<?>[] parameters = constructor.getParameterTypes();
+        if (parameters.length == 2 && parameters[0] == Double.class && parameters[1].isEnum()) {
+          Object unit = unitOrdinal < 0 ? null : ((Class<Enum>) parameters[1]).getEnumConstants()[unitOrdinal];
+          try {
+            return constructor.newInstance(value, unit);
+          } catch (Exception e) {
+            throw new IOException("Could not create " + type.getName(), e);
+          }
+        }
+      }
+      throw new IOException("No suitable constructor found for " + type.getName());
+    }
+
+    private Object readObject() throws IOException {
+      Class<?> type = readClass(Object.class);
+      if (!isPlainObject(type)) {
+        throw new IOException("Class not allowed as an object: " + type.getName());
+      }
+      Field[] schema = schemas.get(type);
+      if (schema == null) {
+        schema = readSchema(type);
+        schemas.put(type, schema);
+      }
+      Object value = reference(xStream.getReflectionProvider().newInstance(type));
+      for (Field field : schema) {
+        Object fieldValue = readValue();
+        if (field == null) {
+          continue;
+        }
+        try {
+          field.set(value, fieldValue);
+        } catch (Exception e) {
+          // the field type has changed
+          missingFields.add(field.getDeclaringClass().getName() + "." + field.getName());
+        }
+      }
+      return value;
+    }
+
+    private Field[] readSchema(Class<?> type) {
+      Map<String, Field> fieldMap = new HashMap<String, Field>();
+      for (Field field : FIELDS.get(type)) {
+        fieldMap.put(field.getDeclaringClass().getName() + "." + field.getName(), field);
+      }
+      Field[] schema = new Field[readVarInt()];
+      for (int i = 0; i < schema.length; i++) {
+        String name = readString() + "." + readString();
+        schema[i] = fieldMap.get(name);
+        if (schema[i] == null) {
+          missingFields.add(name);
+        }
+      }
+      return schema;
+    }
+  }
+}
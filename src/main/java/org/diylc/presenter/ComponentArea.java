@@ -22,6 +22,7 @@
 package org.diylc.presenter;
 
 import java.awt.geom.Area;
+import java.awt.geom.Rectangle2D;
 import java.util.List;
 
 public class ComponentArea {
@@ -29,12 +30,19 @@ public class ComponentArea {
   private Area outlineArea;
   private List<Area> continuityPositiveAreas;
   private List<Area> continuityNegativeAreas;
+  private Rectangle2D paintedBounds;
 
   public ComponentArea(Area outlineArea, List<Area> continuityPositiveAreas, List<Area> continuityNegativeAreas) {
+    this(outlineArea, continuityPositiveAreas, continuityNegativeAreas, null);
+  }
+
+  public ComponentArea(Area outlineArea, List<Area> continuityPositiveAreas, List<Area> continuityNegativeAreas,
+      Rectangle2D paintedBounds) {
     super();
     this.outlineArea = outlineArea;
     this.continuityPositiveAreas = continuityPositiveAreas;
     this.continuityNegativeAreas = continuityNegativeAreas;
+    this.paintedBounds = paintedBounds;
   }
 
   public Area getOutlineArea() {
@@ -48,4 +56,15 @@ public class ComponentArea {
   public List<Area> getContinuityNegativeAreas() {
     return continuityNegativeAreas;
   }
+
+  /**
+   * @return bounds of everything the component has painted, including parts that are not part of
+   *         the outline area (e.g. labels), or outline bounds if nothing else is known.
+   */
+  public Rectangle2D getPaintedBounds() {
+    if (paintedBounds == null) {
+      return outlineArea.getBounds2D();
+    }
+    return paintedBounds;
+  }
 }
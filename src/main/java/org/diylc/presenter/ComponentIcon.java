@@ -0,0 +1,121 @@
+/*
+ *
+ * DIY Layout Creator (DIYLC). Copyright (c) 2009-2018 held jointly by the individual authors.
+ *
+ * This file is part of DIYLC.
+ *
+ * DIYLC is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * DIYLC is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DIYLC. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.diylc.presenter;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import javax.imageio.ImageIO;
+import javax.swing.Icon;
+
+import org.apache.log4j.Logger;
+import org.diylc.appframework.miscutils.Utils;
+import org.diylc.core.IDIYComponent;
+
+/**
+ * Icon of a component type that is not drawn until it's painted for the first time, e.g. when the
+ * toolbox tab or tree node it belongs to becomes visible. Drawn icons are stored as PNG files in a
+ * cache directory specific to the application version and icon size, so they can be read back on
+ * the next start instead of being drawn again.
+ */
+public class ComponentIcon implements Icon {
+
+  private static final Logger LOG = Logger.getLogger(ComponentIcon.class);
+
+  private static String CACHE_PATH = Utils.getUserDataDirectory("diylc") + "cache" + File.separator + "icons"
+      + File.separator + Presenter.CURRENT_VERSION + "-" + Presenter.ICON_SIZE + File.separator;
+
+  private final Class<? extends IDIYComponent<?>> clazz;
+  private Image image;
+
+  public ComponentIcon(Class<? extends IDIYComponent<?>> clazz) {
+    this.clazz = clazz;
+  }
+
+  /**
+   * @return icon image, read from the cache or drawn on the first call.
+   */
+  public synchronized Image getImage() {
+    if (image == null) {
+      File file = new File(CACHE_PATH + clazz.getName() + ".png");
+      if (file.exists()) {
+        try {
+          image = ImageIO.read(file);
+        } catch (Exception e) {
+          LOG.warn("Could not read cached icon for " + clazz.getName(), e);
+        }
+      }
+      if (image == null) {
+        BufferedImage drawnImage = drawImage();
+        if (drawnImage == null) {
+          // do not cache icons that failed to draw
+          image = new BufferedImage(Presenter.ICON_SIZE, Presenter.ICON_SIZE, BufferedImage.TYPE_INT_ARGB);
+          return image;
+        }
+        image = drawnImage;
+        try {
+          file.getParentFile().mkdirs();
+          ImageIO.write(drawnImage, "png", file);
+        } catch (Exception e) {
+          LOG.warn("Could not cache icon for " + clazz.getName(), e);
+        }
+      }
+    }
+    return image;
+  }
+
+  /**
+   * @return drawn icon, or null if the component could not draw it.
+   */
+  private BufferedImage drawImage() {
+    BufferedImage image = new BufferedImage(Presenter.ICON_SIZE, Presenter.ICON_SIZE, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g2d = image.createGraphics();
+    g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+    try {
+      IDIYComponent<?> componentInstance = (IDIYComponent<?>) clazz.newInstance();
+      componentInstance.drawIcon(g2d, Presenter.ICON_SIZE, Presenter.ICON_SIZE);
+    } catch (Exception e) {
+      LOG.error("Error drawing component icon for " + clazz.getName(), e);
+      return null;
+    } finally {
+      g2d.dispose();
+    }
+    return image;
+  }
+
+  @Override
+  public void paintIcon(Component c, Graphics g, int x, int y) {
+    g.drawImage(getImage(), x, y, c);
+  }
+
+  @Override
+  public int getIconWidth() {
+    return Presenter.ICON_SIZE;
+  }
+
+  @Override
+  public int getIconHeight() {
+    return Presenter.ICON_SIZE;
+  }
+}
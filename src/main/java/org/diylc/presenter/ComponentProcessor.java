@@ -19,10 +19,6 @@
 */
 package org.diylc.presenter;
 
-import java.awt.Graphics2D;
-import java.awt.Image;
-import java.awt.RenderingHints;
-import java.awt.image.BufferedImage;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -32,7 +28,6 @@ import java.util.List;
 import java.util.Map;
 
 import javax.swing.Icon;
-import javax.swing.ImageIcon;
 
 import org.apache.log4j.Logger;
 import org.diylc.common.ComponentType;
@@ -113,26 +108,8 @@ public class ComponentProcessor {
 	} else { // default
 	    return null;
 	}
-	icon = null;
-	// Draw component icon.
-	try {
-	    IDIYComponent<?> componentInstance = (IDIYComponent<?>) clazz.newInstance();
-	    Image image =
-		new BufferedImage(Presenter.ICON_SIZE,
-				  Presenter.ICON_SIZE,
-				  java.awt.image.BufferedImage.TYPE_INT_ARGB);
-	    Graphics2D g2d = (Graphics2D) image.getGraphics();
-	    g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-				 RenderingHints.VALUE_ANTIALIAS_ON);
-	    g2d.setRenderingHint(RenderingHints.KEY_RENDERING,
-				 RenderingHints.VALUE_RENDER_QUALITY);
-	    // g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL,
-	    // RenderingHints.VALUE_STROKE_PURE);
-	    componentInstance.drawIcon(g2d, Presenter.ICON_SIZE, Presenter.ICON_SIZE);
-	    icon = new ImageIcon(image);
-	} catch (Exception e) {
-	    LOG.error("Error drawing component icon for " + clazz.getName(), e);
-	}
+	// Icon is drawn when it's shown for the first time.
+	icon = new ComponentIcon(clazz);
 	ComponentType componentType =
 	    new ComponentType(name, description, creationMethod, category, namePrefix,
 			      author, icon, clazz, zOrder,
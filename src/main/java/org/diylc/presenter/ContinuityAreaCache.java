@@ -0,0 +1,472 @@
+/*
+ *
+ * DIY Layout Creator (DIYLC). Copyright (c) 2009-2018 held jointly by the individual authors.
+ *
+ * This file is part of DIYLC.
+ *
+ * DIYLC is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * DIYLC is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DIYLC. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.diylc.presenter;
+
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.diylc.core.IContinuity;
+import org.diylc.core.IDIYComponent;
+import org.diylc.core.Project;
+import org.diylc.netlist.Node;
+
+/**
+ * Keeps merged continuity areas of a project between calls. Each component contributes pieces,
+ * i.e. its positive continuity areas without the negative areas of components drawn on top of it.
+ * Pieces that overlap or are joined by connections are merged into regions.
+ *
+ * When components change, only their pieces and pieces underneath their negative areas are
+ * recomputed, and only the regions that contain any of those pieces are merged again. Regions that
+ * are not affected are passed to the merge as they are.
+ */
+public class ContinuityAreaCache {
+
+  private final DrawingManager drawingManager;
+  private final double tolerance;
+
+  // Component order at the time of the last update.
+  private List<IDIYComponent<?>> components = new ArrayList<IDIYComponent<?>>();
+  private Map<IDIYComponent<?>, Entry> entryMap = new HashMap<IDIYComponent<?>, Entry>();
+  // Bounds of negative areas of each component.
+  private SpatialIndex<IDIYComponent<?>> negativeIndex =
+      new SpatialIndex<IDIYComponent<?>>(DrawingManager.INDEX_CELL_SIZE);
+  private Set<IDIYComponent<?>> invalidatedComponents = new HashSet<IDIYComponent<?>>();
+  // Null when everything needs to be merged from scratch.
+  private List<Region> regions = null;
+
+  public ContinuityAreaCache(DrawingManager drawingManager, double tolerance) {
+    this.drawingManager = drawingManager;
+    this.tolerance = tolerance;
+  }
+
+  /**
+   * Marks the component as changed, e.g. when its {@link ComponentArea} is replaced.
+   *
+   * @param component
+   */
+  public synchronized void invalidate(IDIYComponent<?> component) {
+    invalidatedComponents.add(component);
+  }
+
+  public synchronized void clear() {
+    components.clear();
+    entryMap.clear();
+    negativeIndex.clear();
+    invalidatedComponents.clear();
+    regions = null;
+  }
+
+  /**
+   * @param project
+   * @return merged continuity areas of all the components in the project.
+   */
+  public synchronized List<Area> getContinuityAreas(Project project) {
+    List<IDIYComponent<?>> current = project.getComponents();
+    Map<IDIYComponent<?>, Integer> indexMap = new HashMap<IDIYComponent<?>, Integer>();
+    for (int i = 0; i < current.size(); i++) {
+      indexMap.put(current.get(i), i);
+    }
+
+    Set<IDIYComponent<?>> changed = new HashSet<IDIYComponent<?>>(invalidatedComponents);
+    invalidatedComponents.clear();
+    Set<IDIYComponent<?>> removed = new HashSet<IDIYComponent<?>>();
+    for (IDIYComponent<?> c : entryMap.keySet()) {
+      if (!indexMap.containsKey(c)) {
+        removed.add(c);
+      }
+    }
+    for (IDIYComponent<?> c : current) {
+      Entry entry = entryMap.get(c);
+      // connections may change without the component being redrawn, e.g. when a switch is flipped
+      if (entry == null || !entry.connections.equals(getConnections(c))) {
+        changed.add(c);
+      }
+    }
+    // invalidated components that are not in the project anymore are treated as removed
+    changed.retainAll(indexMap.keySet());
+    changed.addAll(removed);
+
+    if (regions != null && !isSameOrder(current, indexMap)) {
+      regions = null;
+    }
+    components = new ArrayList<IDIYComponent<?>>(current);
+
+    if (regions == null) {
+      rebuild(indexMap);
+    } else if (!changed.isEmpty()) {
+      update(changed, removed, indexMap);
+    }
+
+    List<Area> areas = new ArrayList<Area>(regions.size());
+    for (Region region : regions) {
+      areas.add(region.area);
+    }
+    return areas;
+  }
+
+  /**
+   * @param current
+   * @param indexMap
+   * @return true if components that are still in the project kept their relative order.
+   */
+  private boolean isSameOrder(List<IDIYComponent<?>> current, Map<IDIYComponent<?>, Integer> indexMap) {
+    int last = -1;
+    for (IDIYComponent<?> c : components) {
+      Integer index = indexMap.get(c);
+      if (index != null) {
+        if (index < last) {
+          return false;
+        }
+        last = index;
+      }
+    }
+    return true;
+  }
+
+  private void rebuild(Map<IDIYComponent<?>, Integer> indexMap) {
+    entryMap.clear();
+    negativeIndex.clear();
+    for (IDIYComponent<?> c : components) {
+      putEntry(c);
+    }
+    List<Area> inputs = new ArrayList<Area>();
+    List<Set<IDIYComponent<?>>> contributors = new ArrayList<Set<IDIYComponent<?>>>();
+    for (IDIYComponent<?> c : components) {
+      Entry entry = entryMap.get(c);
+      entry.pieces = computePieces(c, indexMap);
+      for (Area piece : entry.pieces) {
+        inputs.add(piece);
+        contributors.add(Collections.<IDIYComponent<?>> singleton(c));
+      }
+    }
+    regions = merge(inputs, new boolean[inputs.size()], contributors);
+  }
+
+  private void update(Set<IDIYComponent<?>> changed, Set<IDIYComponent<?>> removed,
+      Map<IDIYComponent<?>, Integer> indexMap) {
+    // components below the old or new negative areas of changed components need new pieces
+    List<Rectangle2D> negativeBounds = new ArrayList<Rectangle2D>();
+    List<Connection> oldConnections = new ArrayList<Connection>();
+    for (IDIYComponent<?> c : changed) {
+      Entry entry = entryMap.remove(c);
+      negativeIndex.remove(c);
+      if (entry != null) {
+        if (entry.negativeBounds != null) {
+          negativeBounds.add(entry.negativeBounds);
+        }
+        oldConnections.addAll(entry.connections);
+      }
+      if (!removed.contains(c)) {
+        entry = putEntry(c);
+        if (entry.negativeBounds != null) {
+          negativeBounds.add(entry.negativeBounds);
+        }
+      }
+    }
+    Set<IDIYComponent<?>> affected = new HashSet<IDIYComponent<?>>(changed);
+    if (!negativeBounds.isEmpty()) {
+      for (Map.Entry<IDIYComponent<?>, Entry> e : entryMap.entrySet()) {
+        Rectangle2D positiveBounds = e.getValue().positiveBounds;
+        if (positiveBounds != null) {
+          for (Rectangle2D bounds : negativeBounds) {
+            if (positiveBounds.intersects(bounds)) {
+              affected.add(e.getKey());
+              break;
+            }
+          }
+        }
+      }
+    }
+    for (IDIYComponent<?> c : affected) {
+      Entry entry = entryMap.get(c);
+      if (entry != null) {
+        entry.pieces = computePieces(c, indexMap);
+      }
+    }
+
+    // regions that contain affected pieces or that may have been joined by a connection that is
+    // now gone need to be merged again
+    List<Area> inputs = new ArrayList<Area>();
+    List<Set<IDIYComponent<?>>> contributors = new ArrayList<Set<IDIYComponent<?>>>();
+    Set<IDIYComponent<?>> toMerge = new HashSet<IDIYComponent<?>>(affected);
+    for (Region region : regions) {
+      if (isAffected(region, affected, oldConnections)) {
+        toMerge.addAll(region.components);
+      } else {
+        inputs.add(region.area);
+        contributors.add(region.components);
+      }
+    }
+    int cleanCount = inputs.size();
+    for (IDIYComponent<?> c : components) {
+      Entry entry = entryMap.get(c);
+      if (entry != null && toMerge.contains(c)) {
+        for (Area piece : entry.pieces) {
+          inputs.add(piece);
+          contributors.add(Collections.<IDIYComponent<?>> singleton(c));
+        }
+      }
+    }
+    boolean[] cleanInputs = new boolean[inputs.size()];
+    for (int i = 0; i < cleanCount; i++) {
+      cleanInputs[i] = true;
+    }
+    regions = merge(inputs, cleanInputs, contributors);
+  }
+
+  private boolean isAffected(Region region, Set<IDIYComponent<?>> affected, List<Connection> oldConnections) {
+    for (IDIYComponent<?> c : region.components) {
+      if (affected.contains(c)) {
+        return true;
+      }
+    }
+    Rectangle2D bounds = region.area.getBounds2D();
+    for (Connection connection : oldConnections) {
+      if ((bounds.contains(connection.getP1()) && region.area.contains(connection.getP1()))
+          || (bounds.contains(connection.getP2()) && region.area.contains(connection.getP2()))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Entry putEntry(IDIYComponent<?> c) {
+    Entry entry = new Entry();
+    entry.connections = getConnections(c);
+    ComponentArea area = drawingManager.getComponentArea(c);
+    if (area != null && area.getOutlineArea() != null) {
+      entry.positiveAreas = area.getContinuityPositiveAreas();
+      entry.negativeAreas = area.getContinuityNegativeAreas();
+      entry.positiveBounds = getBounds(entry.positiveAreas);
+      entry.negativeBounds = getBounds(entry.negativeAreas);
+      if (entry.negativeBounds != null) {
+        negativeIndex.put(c, entry.negativeBounds);
+      }
+    }
+    entryMap.put(c, entry);
+    return entry;
+  }
+
+  /**
+   * Subtracts negative areas of the component itself and all the components above it from its
+   * positive areas and breaks them into continuous pieces.
+   *
+   * @param component
+   * @param indexMap
+   * @return
+   */
+  private List<Area> computePieces(IDIYComponent<?> component, Map<IDIYComponent<?>, Integer> indexMap) {
+    Entry entry = entryMap.get(component);
+    List<Area> pieces = new ArrayList<Area>();
+    if (entry.positiveAreas == null) {
+      return pieces;
+    }
+    int index = indexMap.get(component);
+    for (Area positive : entry.positiveAreas) {
+      Area a = new Area(positive);
+      List<IDIYComponent<?>> above = new ArrayList<IDIYComponent<?>>();
+      for (IDIYComponent<?> c : negativeIndex.query(a.getBounds2D())) {
+        if (indexMap.get(c) >= index) {
+          above.add(c);
+        }
+      }
+      for (IDIYComponent<?> c : above) {
+        for (Area na : entryMap.get(c).negativeAreas) {
+          if (a.intersects(na.getBounds2D())) {
+            a.subtract(na);
+          }
+        }
+      }
+      pieces.addAll(tryBreakout(a));
+    }
+    return pieces;
+  }
+
+  /**
+   * Merges all areas that either overlap or are joined by connections, directly or through a
+   * chain of connections. Candidate pairs for the overlap check are found by sweeping over the
+   * areas sorted by their left edge, so only areas whose bounds overlap are tested precisely. Two
+   * clean areas are never tested against each other, as they are known not to overlap.
+   */
+  private List<Region> merge(final List<Area> areas, boolean[] clean,
+      List<Set<IDIYComponent<?>>> contributors) {
+    NetlistBuilder builder = new NetlistBuilder(Collections.<Node> emptyList(), tolerance);
+    for (Entry entry : entryMap.values()) {
+      for (Connection c : entry.connections) {
+        builder.addConnection(c);
+      }
+    }
+    final int[] elements = new int[areas.size()];
+    final Rectangle2D[] bounds = new Rectangle2D[areas.size()];
+    List<Integer> order = new ArrayList<Integer>();
+    for (int i = 0; i < areas.size(); i++) {
+      elements[i] = builder.addContinuityArea(areas.get(i));
+      bounds[i] = areas.get(i).getBounds2D();
+      order.add(i);
+    }
+
+    Collections.sort(order, new Comparator<Integer>() {
+
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        return Double.compare(bounds[o1].getMinX(), bounds[o2].getMinX());
+      }
+    });
+    List<Integer> active = new ArrayList<Integer>();
+    for (Integer i : order) {
+      double minX = bounds[i].getMinX();
+      for (int k = active.size() - 1; k >= 0; k--) {
+        if (bounds[active.get(k)].getMaxX() < minX)
+          active.remove(k);
+      }
+      for (Integer j : active) {
+        // use bounds to avoid getting into complex math if not needed
+        if ((clean[i] && clean[j]) || builder.isConnected(elements[i], elements[j])
+            || !bounds[i].intersects(bounds[j]))
+          continue;
+        Area intersection = new Area(areas.get(i));
+        intersection.intersect(areas.get(j));
+        if (!intersection.isEmpty())
+          builder.connect(elements[i], elements[j]);
+      }
+      active.add(i);
+    }
+
+    // merge each set into a new area, keeping the original order. Areas are never modified in
+    // place as they may have been handed out already.
+    Map<Integer, List<Integer>> groupMap = new HashMap<Integer, List<Integer>>();
+    List<List<Integer>> groups = new ArrayList<List<Integer>>();
+    for (int i = 0; i < areas.size(); i++) {
+      int root = builder.find(elements[i]);
+      List<Integer> group = groupMap.get(root);
+      if (group == null) {
+        group = new ArrayList<Integer>();
+        groupMap.put(root, group);
+        groups.add(group);
+      }
+      group.add(i);
+    }
+    List<Region> newRegions = new ArrayList<Region>(groups.size());
+    for (List<Integer> group : groups) {
+      Region region = new Region();
+      if (group.size() == 1) {
+        region.area = areas.get(group.get(0));
+        region.components = contributors.get(group.get(0));
+      } else {
+        region.area = new Area();
+        region.components = new HashSet<IDIYComponent<?>>();
+        for (Integer i : group) {
+          region.area.add(areas.get(i));
+          region.components.addAll(contributors.get(i));
+        }
+      }
+      newRegions.add(region);
+    }
+    return newRegions;
+  }
+
+  private static Set<Connection> getConnections(IDIYComponent<?> c) {
+    if (!(c instanceof IContinuity)) {
+      return Collections.emptySet();
+    }
+    Set<Connection> connections = new HashSet<Connection>();
+    for (int i = 0; i < c.getControlPointCount() - 1; i++)
+      for (int j = i + 1; j < c.getControlPointCount(); j++)
+        if (((IContinuity) c).arePointsConnected(i, j))
+          connections.add(new Connection(c.getControlPoint(i), c.getControlPoint(j)));
+    return connections;
+  }
+
+  private static Rectangle2D getBounds(Collection<Area> areas) {
+    if (areas == null) {
+      return null;
+    }
+    Rectangle2D bounds = null;
+    for (Area a : areas) {
+      if (bounds == null) {
+        bounds = a.getBounds2D();
+      } else {
+        bounds.add(a.getBounds2D());
+      }
+    }
+    return bounds;
+  }
+
+  private static List<Area> tryBreakout(Area a) {
+    List<Area> toReturn = new ArrayList<Area>();
+    Path2D p = null;
+    PathIterator pathIterator = a.getPathIterator(null);
+    while (!pathIterator.isDone()) {
+      double[] coord = new double[6];
+      int type = pathIterator.currentSegment(coord);
+      switch (type) {
+        case PathIterator.SEG_MOVETO:
+          if (p != null) {
+            Area partArea = new Area(p);
+            toReturn.add(partArea);
+          }
+          p = new Path2D.Double();
+          p.moveTo(coord[0], coord[1]);
+          break;
+        case PathIterator.SEG_LINETO:
+          p.lineTo(coord[0], coord[1]);
+          break;
+        case PathIterator.SEG_CUBICTO:
+          p.curveTo(coord[0], coord[1], coord[2], coord[3], coord[4], coord[5]);
+          break;
+        case PathIterator.SEG_QUADTO:
+          p.quadTo(coord[0], coord[1], coord[2], coord[3]);
+          break;
+      }
+      pathIterator.next();
+    }
+    if (p != null) {
+      Area partArea = new Area(p);
+      toReturn.add(partArea);
+    }
+
+    return toReturn;
+  }
+
+  private static class Entry {
+
+    Set<Connection> connections;
+    List<Area> positiveAreas;
+    List<Area> negativeAreas;
+    Rectangle2D positiveBounds;
+    Rectangle2D negativeBounds;
+    List<Area> pieces = Collections.emptyList();
+  }
+
+  private static class Region {
+
+    Area area;
+    Set<IDIYComponent<?>> components;
+  }
+}
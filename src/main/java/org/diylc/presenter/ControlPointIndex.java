@@ -0,0 +1,172 @@
+/*
+ *
+ * DIY Layout Creator (DIYLC). Copyright (c) 2009-2018 held jointly by the individual authors.
+ *
+ * This file is part of DIYLC.
+ *
+ * DIYLC is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * DIYLC is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DIYLC. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.diylc.presenter;
+
+import java.awt.Point;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.diylc.core.IDIYComponent;
+import org.diylc.core.Project;
+
+/**
+ * Control points of all the components in a project, indexed by location so the points near a given
+ * point can be found without going through every component.
+ *
+ * The index is built the first time it's queried and kept until {@link #invalidate()} is called,
+ * which should happen whenever the project changes. Components whose points move in the meantime,
+ * e.g. while dragging, are brought up to date with {@link #update(IDIYComponent)}. Query results
+ * are checked against the current location of the points, so a stale entry may cause a point to be
+ * missed but never reports one that is not there.
+ */
+public class ControlPointIndex {
+
+  private static final Logger LOG = Logger.getLogger(ControlPointIndex.class);
+
+  private SpatialIndex<ControlPoint> index = new SpatialIndex<ControlPoint>(DrawingManager.INDEX_CELL_SIZE);
+  private Map<IDIYComponent<?>, ControlPoint[]> pointMap = new IdentityHashMap<IDIYComponent<?>, ControlPoint[]>();
+  // Project the index was built for, null when it needs to be built again.
+  private Project project;
+
+  /**
+   * Marks the index as out of date. It will be built again on the next query.
+   */
+  public void invalidate() {
+    project = null;
+  }
+
+  /**
+   * Re-indexes control points of a component that has been changed, if the index is built.
+   *
+   * @param component
+   */
+  public void update(IDIYComponent<?> component) {
+    if (project == null) {
+      return;
+    }
+    ControlPoint[] points = pointMap.get(component);
+    if (points == null || points.length != component.getControlPointCount()) {
+      remove(component);
+      add(component);
+      return;
+    }
+    for (ControlPoint point : points) {
+      if (point != null) {
+        index.put(point, getBounds(component.getControlPoint(point.index)));
+      }
+    }
+  }
+
+  /**
+   * Finds control points that are closer than {@link DrawingManager#CONTROL_POINT_SIZE} to the
+   * specified point.
+   *
+   * @param project
+   * @param point
+   * @return matching points, in no particular order
+   */
+  public List<ControlPoint> findPointsNear(Project project, Point point) {
+    if (this.project != project) {
+      build(project);
+    }
+    List<ControlPoint> result = new ArrayList<ControlPoint>();
+    for (ControlPoint controlPoint : index.query(point)) {
+      try {
+        if (point.distance(controlPoint.component.getControlPoint(controlPoint.index)) < DrawingManager.CONTROL_POINT_SIZE) {
+          result.add(controlPoint);
+        }
+      } catch (Exception e) {
+        LOG.warn("Error reading control point for component of type: " + controlPoint.component.getClass().getName());
+      }
+    }
+    return result;
+  }
+
+  private void build(Project project) {
+    index.clear();
+    pointMap.clear();
+    for (IDIYComponent<?> component : project.getComponents()) {
+      add(component);
+    }
+    this.project = project;
+  }
+
+  private void add(IDIYComponent<?> component) {
+    ControlPoint[] points = new ControlPoint[component.getControlPointCount()];
+    for (int i = 0; i < points.length; i++) {
+      try {
+        points[i] = new ControlPoint(component, i, component.isControlPointSticky(i));
+        index.put(points[i], getBounds(component.getControlPoint(i)));
+      } catch (Exception e) {
+        LOG.warn("Error reading control point for component of type: " + component.getClass().getName());
+      }
+    }
+    pointMap.put(component, points);
+  }
+
+  private void remove(IDIYComponent<?> component) {
+    ControlPoint[] points = pointMap.remove(component);
+    if (points != null) {
+      for (ControlPoint point : points) {
+        if (point != null) {
+          index.remove(point);
+        }
+      }
+    }
+  }
+
+  private static Rectangle2D getBounds(Point point) {
+    // any point that is close enough falls inside
+    return new Rectangle2D.Double(point.x - DrawingManager.CONTROL_POINT_SIZE, point.y
+        - DrawingManager.CONTROL_POINT_SIZE, 2 * DrawingManager.CONTROL_POINT_SIZE,
+        2 * DrawingManager.CONTROL_POINT_SIZE);
+  }
+
+  /**
+   * A single control point of a component. Compared by identity, there's only one instance per point
+   * in the index.
+   */
+  public static class ControlPoint {
+
+    private final IDIYComponent<?> component;
+    private final int index;
+    private final boolean sticky;
+
+    public ControlPoint(IDIYComponent<?> component, int index, boolean sticky) {
+      this.component = component;
+      this.index = index;
+      this.sticky = sticky;
+    }
+
+    public IDIYComponent<?> getComponent() {
+      return component;
+    }
+
+    public int getIndex() {
+      return index;
+    }
+
+    public boolean isSticky() {
+      return sticky;
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ *
+ * DIY Layout Creator (DIYLC). Copyright (c) 2009-2018 held jointly by the individual authors.
+ *
+ * This file is part of DIYLC.
+ *
+ * DIYLC is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * DIYLC is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DIYLC. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.diylc.presenter;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.log4j.Logger;
+import org.diylc.appframework.Serializer;
+import org.diylc.core.Template;
+
+/**
+ * Variants that ship with the application. They are read on a background thread the first time
+ * they are needed, or earlier if {@link #preload()} is called.
+ *
+ * The build converts <code>variants.xml</code> into {@link #BINARY_RESOURCE}, which holds the same
+ * data in XStream's binary format and can be read without parsing XML. The XML file is used when
+ * the binary one is missing, e.g. when running from an IDE.
+ */
+public class DefaultVariants {
+
+  private static final Logger LOG = Logger.getLogger(DefaultVariants.class);
+
+  public static final String XML_RESOURCE = "/org/diylc/variants.xml";
+  public static final String BINARY_RESOURCE = "/org/diylc/variants.bin";
+
+  private static FutureTask<Map<String, List<Template>>> task = null;
+
+  private DefaultVariants() {}
+
+  /**
+   * Starts reading default variants in the background, if not already started.
+   */
+  public static synchronized void preload() {
+    if (task == null) {
+      task = new FutureTask<Map<String, List<Template>>>(new Callable<Map<String, List<Template>>>() {
+
+        @Override
+        public Map<String, List<Template>> call() throws Exception {
+          return load();
+        }
+      });
+      Thread thread = new Thread(task, "Default variant loader");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * @return default variants mapped by component class name or legacy category.type name, ignoring
+   *         case. Waits for the variants to be read if needed.
+   */
+  public static Map<String, List<Template>> get() {
+    preload();
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return task.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } catch (ExecutionException e) {
+      // not expected, load() handles its own errors
+      LOG.error("Could not load default variants", e.getCause());
+      return new TreeMap<String, List<Template>>(String.CASE_INSENSITIVE_ORDER);
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, List<Template>> load() {
+    long start = System.nanoTime();
+    Map<String, List<Template>> defaultVariantMap =
+        new TreeMap<String, List<Template>>(String.CASE_INSENSITIVE_ORDER);
+    try {
+      Map<String, List<Template>> map;
+      if (DefaultVariants.class.getResource(BINARY_RESOURCE) != null) {
+        map = (Map<String, List<Template>>) Serializer.fromBinaryResource(BINARY_RESOURCE);
+      } else {
+        LOG.info("Pre-parsed default variants not found, reading " + XML_RESOURCE);
+        map = (Map<String, List<Template>>) Serializer.fromResource(XML_RESOURCE);
+      }
+      defaultVariantMap.putAll(map);
+      LOG.info(String.format("Loaded default variants for %d components in %d ms", defaultVariantMap.size(),
+          (System.nanoTime() - start) / 1000000));
+    } catch (Exception e) {
+      LOG.error("Could not load default variants", e);
+    }
+    return defaultVariantMap;
+  }
+
+  /**
+   * Converts default variants from XML to the binary format. Used by the build.
+   *
+   * @param args path to <code>variants.xml</code> and path of the binary file to write
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      System.err.println("Usage: DefaultVariants <variants.xml> <variants.bin>");
+      System.exit(1);
+    }
+    Object variants = Serializer.fromFile(args[0]);
+    Serializer.toBinaryFile(new File(args[1]), variants);
+  }
+}
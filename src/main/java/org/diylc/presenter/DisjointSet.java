@@ -0,0 +1,114 @@
+/*
+ *
+ * DIY Layout Creator (DIYLC). Copyright (c) 2009-2018 held jointly by the individual authors.
+ *
+ * This file is part of DIYLC.
+ *
+ * DIYLC is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * DIYLC is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DIYLC. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.diylc.presenter;
+
+import java.util.Arrays;
+
+/**
+ * Union-find structure over integer elements with path compression and union by rank. Elements are
+ * numbered from 0 and the set grows as new elements are added.
+ */
+public class DisjointSet {
+
+  private int[] parent;
+  private byte[] rank;
+  private int size = 0;
+
+  public DisjointSet() {
+    this(16);
+  }
+
+  public DisjointSet(int capacity) {
+    parent = new int[Math.max(capacity, 1)];
+    rank = new byte[parent.length];
+  }
+
+  /**
+   * Adds a new element that is in a set of its own.
+   *
+   * @return index of the new element
+   */
+  public int add() {
+    if (size == parent.length) {
+      parent = Arrays.copyOf(parent, size * 2);
+      rank = Arrays.copyOf(rank, size * 2);
+    }
+    parent[size] = size;
+    rank[size] = 0;
+    return size++;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param element
+   * @return representative element of the set the specified element belongs to.
+   */
+  public int find(int element) {
+    int root = element;
+    while (parent[root] != root) {
+      root = parent[root];
+    }
+    // compress the path
+    while (parent[element] != root) {
+      int next = parent[element];
+      parent[element] = root;
+      element = next;
+    }
+    return root;
+  }
+
+  /**
+   * Merges sets that the two elements belong to.
+   *
+   * @param element1
+   * @param element2
+   * @return true if the elements were in different sets.
+   */
+  public boolean union(int element1, int element2) {
+    int root1 = find(element1);
+    int root2 = find(element2);
+    if (root1 == root2) {
+      return false;
+    }
+    if (rank[root1] < rank[root2]) {
+      parent[root1] = root2;
+    } else if (rank[root1] > rank[root2]) {
+      parent[root2] = root1;
+    } else {
+      parent[root2] = root1;
+      rank[root1]++;
+    }
+    return true;
+  }
+
+  public boolean connected(int element1, int element2) {
+    return find(element1) == find(element2);
+  }
+
+  @Override
+  public DisjointSet clone() {
+    DisjointSet copy = new DisjointSet(0);
+    copy.parent = Arrays.copyOf(parent, parent.length);
+    copy.rank = Arrays.copyOf(rank, rank.length);
+    copy.size = size;
+    return copy;
+  }
+}
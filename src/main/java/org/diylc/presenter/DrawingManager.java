@@ -29,9 +29,8 @@ import java.awt.RenderingHints;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
 import java.awt.geom.Line2D;
-import java.awt.geom.Path2D;
-import java.awt.geom.PathIterator;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -50,7 +49,6 @@ import org.diylc.common.IComponentFiler;
 import org.diylc.common.IPlugInPort;
 import org.diylc.common.ObjectCache;
 import org.diylc.core.ComponentState;
-import org.diylc.core.IContinuity;
 import org.diylc.core.IDIYComponent;
 import org.diylc.core.Project;
 import org.diylc.core.Theme;
@@ -69,6 +67,7 @@ public class DrawingManager {
 
   public static int CONTROL_POINT_SIZE = 7;
   public static double EXTRA_SPACE = 0.25;
+  public static double INDEX_CELL_SIZE = 100;
 
   public static final String ZOOM_KEY = "zoom";
 
@@ -88,9 +87,24 @@ public class DrawingManager {
   // Maps components to the last state they are drawn in. Also, used to
   // determine which components are invalidated when they are not in the map.
   private Map<IDIYComponent<?>, ComponentState> lastDrawnStateMap;
+  // Outline bounds of each drawn component, used to narrow down hit testing.
+  private SpatialIndex<IDIYComponent<?>> componentIndex;
+  // Pre-rendered images of unchanged components, used with DrawOption.SPRITE_CACHE.
+  private SpriteCache spriteCache;
+  private RenderingHints spriteHints;
+  // Merged continuity areas, updated only where components have changed.
+  private ContinuityAreaCache continuityAreaCache;
 
   private Area continuityArea;
 
+  // Bounds of everything that has been invalidated since the last incremental repaint, in project
+  // coordinates.
+  private Rectangle2D damagedBounds;
+  // True if the previous frame contained anything that is not tied to a single component, e.g.
+  // selection rectangle or component slot.
+  private boolean overlaysDrawn;
+  private boolean lastDragInProgress;
+
   private Composite slotComposite = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.3f);
   private Composite lockedComposite = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.3f);
   private List<IDIYComponent<?>> failedComponents = new ArrayList<IDIYComponent<?>>();
@@ -108,6 +122,9 @@ public class DrawingManager {
     this.messageDispatcher = messageDispatcher;
     componentAreaMap = new HashMap<IDIYComponent<?>, ComponentArea>();
     lastDrawnStateMap = new HashMap<IDIYComponent<?>, ComponentState>();
+    componentIndex = new SpatialIndex<IDIYComponent<?>>(INDEX_CELL_SIZE);
+    spriteCache = new SpriteCache(SpriteCache.DEFAULT_MAX_BYTES);
+    continuityAreaCache = new ContinuityAreaCache(this, CONTROL_POINT_SIZE);
     String debugComponentAreasStr = System.getProperty(DEBUG_COMPONENT_AREAS);
     debugComponentAreas = debugComponentAreasStr != null && debugComponentAreasStr.equalsIgnoreCase("true");
 
@@ -179,6 +196,31 @@ public class DrawingManager {
     // AffineTransform initialTx = g2d.getTransform();
     Dimension d = getCanvasDimensions(project, zoom, drawOptions.contains(DrawOption.EXTRA_SPACE));
 
+    // When the target still holds the previous frame, repaint only what has changed since then.
+    Rectangle2D damage = null;
+    boolean hasOverlays =
+        (drawOptions.contains(DrawOption.SELECTION) && selectionRect != null) || componentSlot != null
+            || hasAnyPoint(controlPointSlot) || continuityArea != null || debugComponentAreas
+            || debugContinuityAreas;
+    // Overlays and control points shown while dragging span over many components, so they require
+    // a full repaint whenever they appear, change or disappear.
+    boolean incremental =
+        drawOptions.contains(DrawOption.INCREMENTAL) && !hasOverlays && !overlaysDrawn
+            && dragInProgress == lastDragInProgress;
+    overlaysDrawn = hasOverlays;
+    lastDragInProgress = dragInProgress;
+    if (!incremental) {
+      damagedBounds = null;
+    } else {
+      damage = collectDamage(project, drawOptions, filter, selectedComponents, dragInProgress, zoom);
+      if (damage == null) {
+        return failedComponents;
+      }
+      double offset = drawOptions.contains(DrawOption.EXTRA_SPACE) ? getExtraSpace(project) * zoom : 0;
+      g2d.clip(new Rectangle2D.Double(damage.getX() * zoom + offset - 2, damage.getY() * zoom + offset - 2,
+          damage.getWidth() * zoom + 4, damage.getHeight() * zoom + 4));
+    }
+
     g2dWrapper.setColor(theme.getBgColor());
     g2dWrapper.fillRect(0, 0, d.width, d.height);
     g2d.clip(new Rectangle(new Point(0, 0), d));
@@ -236,24 +278,35 @@ public class DrawingManager {
     // g2dWrapper.resetTx();
 
     // componentAreaMap.clear();
+    if (drawOptions.contains(DrawOption.SPRITE_CACHE)) {
+      // sprites rendered with different quality settings cannot be reused
+      RenderingHints hints = g2d.getRenderingHints();
+      if (!hints.equals(spriteHints)) {
+        spriteCache.clear();
+        spriteHints = hints;
+      }
+    }
     for (IDIYComponent<?> component : project.getComponents()) {
       // Do not draw the component if it's filtered out.
       if (filter != null && !filter.testComponent(component)) {
         continue;
       }
-      ComponentState state = ComponentState.NORMAL;
-      if (drawOptions.contains(DrawOption.SELECTION) && selectedComponents.contains(component)) {
-        if (dragInProgress) {
-          state = ComponentState.DRAGGING;
-        } else {
-          state = ComponentState.SELECTED;
-        }
-      }
+      ComponentState state = getComponentState(component, drawOptions, selectedComponents, dragInProgress);
       // Do not track the area if component is not invalidated and was
       // drawn in the same state.
       boolean trackArea = lastDrawnStateMap.get(component) != state;
+      // Skip components that are entirely outside of the damaged region.
+      if (damage != null && !trackArea && !componentAreaMap.get(component).getPaintedBounds().intersects(damage)) {
+        continue;
+      }
 
       synchronized (g2d) {
+        // Unchanged components may be blitted from the cache instead. Locked components are drawn
+        // with a translucent composite that does not look the same when applied to an image.
+        if (drawOptions.contains(DrawOption.SPRITE_CACHE) && !trackArea && !lockedComponents.contains(component)
+            && drawSprite(g2d, component, state, drawOptions.contains(DrawOption.OUTLINE_MODE), project, zoom)) {
+          continue;
+        }
         g2dWrapper.startedDrawingComponent();
         if (!trackArea) {
           g2dWrapper.stopTracking();
@@ -275,7 +328,7 @@ public class DrawingManager {
         }
         ComponentArea area = g2dWrapper.finishedDrawingComponent();
         if (trackArea && area != null && !area.getOutlineArea().isEmpty()) {
-          componentAreaMap.put(component, area);
+          putComponentArea(component, area);
           lastDrawnStateMap.put(component, state);
         }
       }
@@ -425,9 +478,192 @@ public class DrawingManager {
     // ConfigurationManager.getInstance().writeValue(ZOOM_KEY, zoomLevel);
   }
 
+  /**
+   * Draws the component from the sprite cache, rendering the sprite first if needed. Components
+   * that are not visible at all are skipped.
+   * 
+   * @param g2d
+   * @param component
+   * @param state
+   * @param outlineMode
+   * @param project
+   * @param zoom
+   * @return true if the component has been taken care of, false if it needs to be drawn directly.
+   */
+  private boolean drawSprite(Graphics2D g2d, IDIYComponent<?> component, ComponentState state, boolean outlineMode,
+      Project project, double zoom) {
+    AffineTransform tx = g2d.getTransform();
+    if (tx.getShearX() != 0 || tx.getShearY() != 0) {
+      return false;
+    }
+    Rectangle2D bounds = componentAreaMap.get(component).getPaintedBounds();
+    Rectangle clip = g2d.getClipBounds();
+    if (clip != null && !clip.intersects(bounds)) {
+      return true;
+    }
+    // Sprites are aligned to whole device pixels, so they stay valid when the canvas is scrolled.
+    double translateX = Math.floor(tx.getTranslateX());
+    double translateY = Math.floor(tx.getTranslateY());
+    SpriteCache.SpriteKey key =
+        new SpriteCache.SpriteKey(state, outlineMode, theme, project.getFont(), project.getGridSpacing(),
+            tx.getScaleX(), tx.getScaleY(), tx.getTranslateX() - translateX, tx.getTranslateY() - translateY);
+    SpriteCache.Sprite sprite = spriteCache.get(component, key);
+    if (sprite == null) {
+      Rectangle2D deviceBounds = tx.createTransformedShape(bounds).getBounds2D();
+      int x = (int) Math.floor(deviceBounds.getMinX()) - 1;
+      int y = (int) Math.floor(deviceBounds.getMinY()) - 1;
+      int width = (int) Math.ceil(deviceBounds.getMaxX()) + 1 - x;
+      int height = (int) Math.ceil(deviceBounds.getMaxY()) + 1 - y;
+      if (!spriteCache.accepts(width, height)) {
+        return false;
+      }
+      BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+      Graphics2D spriteGraphics = image.createGraphics();
+      spriteGraphics.setRenderingHints(g2d.getRenderingHints());
+      spriteGraphics.setClip(0, 0, width, height);
+      spriteGraphics.translate(-x, -y);
+      spriteGraphics.transform(tx);
+      G2DWrapper spriteWrapper = new G2DWrapper(spriteGraphics, zoom);
+      spriteWrapper.startedDrawingComponent();
+      spriteWrapper.stopTracking();
+      try {
+        component.draw(spriteWrapper, state, outlineMode, project, spriteWrapper);
+      } catch (Exception e) {
+        // let the regular drawing code deal with it
+        return false;
+      } finally {
+        spriteWrapper.finishedDrawingComponent();
+        spriteGraphics.dispose();
+      }
+      sprite = new SpriteCache.Sprite(key, image, x - (int) translateX, y - (int) translateY);
+      spriteCache.put(component, sprite);
+    }
+    g2d.setTransform(AffineTransform.getTranslateInstance(translateX, translateY));
+    g2d.drawImage(sprite.getImage(), sprite.getOffsetX(), sprite.getOffsetY(), null);
+    g2d.setTransform(tx);
+    return true;
+  }
+
+  public SpriteCache getSpriteCache() {
+    return spriteCache;
+  }
+
+  /**
+   * Figures out the state a component should be drawn in.
+   * 
+   * @param component
+   * @param drawOptions
+   * @param selectedComponents
+   * @param dragInProgress
+   * @return
+   */
+  private ComponentState getComponentState(IDIYComponent<?> component, Set<DrawOption> drawOptions,
+      Collection<IDIYComponent<?>> selectedComponents, boolean dragInProgress) {
+    if (drawOptions.contains(DrawOption.SELECTION) && selectedComponents.contains(component)) {
+      return dragInProgress ? ComponentState.DRAGGING : ComponentState.SELECTED;
+    }
+    return ComponentState.NORMAL;
+  }
+
+  /**
+   * Returns the region that needs to be repainted since the last incremental repaint, in project
+   * coordinates, or null if nothing has changed. Components that have been invalidated or changed
+   * state are drawn off-screen to find out where they will end up, so their new bounds are covered
+   * too. Resets the accumulated damage.
+   * 
+   * @param project
+   * @param drawOptions
+   * @param filter
+   * @param selectedComponents
+   * @param dragInProgress
+   * @param zoom
+   * @return
+   */
+  private Rectangle2D collectDamage(Project project, Set<DrawOption> drawOptions, IComponentFiler filter,
+      Collection<IDIYComponent<?>> selectedComponents, boolean dragInProgress, double zoom) {
+    Rectangle2D damage = damagedBounds;
+    damagedBounds = null;
+    Graphics2D scratchGraphics = null;
+    G2DWrapper scratchWrapper = null;
+    for (IDIYComponent<?> component : project.getComponents()) {
+      if (filter != null && !filter.testComponent(component)) {
+        continue;
+      }
+      ComponentState state = getComponentState(component, drawOptions, selectedComponents, dragInProgress);
+      if (lastDrawnStateMap.get(component) == state) {
+        continue;
+      }
+      ComponentArea oldArea = componentAreaMap.get(component);
+      if (oldArea != null) {
+        damage = addBounds(damage, oldArea.getPaintedBounds());
+      }
+      if (scratchWrapper == null) {
+        // components check their control points against the clip, so make it large enough
+        scratchGraphics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        scratchGraphics.setClip(-Integer.MAX_VALUE / 2, -Integer.MAX_VALUE / 2, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        scratchWrapper = new G2DWrapper(scratchGraphics, zoom);
+      }
+      scratchWrapper.startedDrawingComponent();
+      try {
+        component.draw(scratchWrapper, state, drawOptions.contains(DrawOption.OUTLINE_MODE), project, scratchWrapper);
+        if (scratchWrapper.isTrackingContinuityArea()) {
+          scratchWrapper.stopTrackingContinuityArea();
+        }
+      } catch (Exception e) {
+        // will be logged when the component is actually drawn
+      }
+      ComponentArea area = scratchWrapper.finishedDrawingComponent();
+      if (area != null && !area.getOutlineArea().isEmpty()) {
+        putComponentArea(component, area);
+        lastDrawnStateMap.put(component, state);
+        damage = addBounds(damage, area.getPaintedBounds());
+      }
+    }
+    if (scratchGraphics != null) {
+      scratchGraphics.dispose();
+    }
+    if (damage != null) {
+      // leave room for control points drawn around the components
+      damage.setRect(damage.getX() - CONTROL_POINT_SIZE, damage.getY() - CONTROL_POINT_SIZE, damage.getWidth() + 2
+          * CONTROL_POINT_SIZE, damage.getHeight() + 2 * CONTROL_POINT_SIZE);
+    }
+    return damage;
+  }
+
+  private boolean hasAnyPoint(List<Point> points) {
+    if (points != null) {
+      for (Point point : points) {
+        if (point != null) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private Rectangle2D addBounds(Rectangle2D damage, Rectangle2D bounds) {
+    if (damage == null) {
+      return new Rectangle2D.Double(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight());
+    }
+    damage.add(bounds);
+    return damage;
+  }
+
+  private void putComponentArea(IDIYComponent<?> component, ComponentArea area) {
+    componentAreaMap.put(component, area);
+    componentIndex.put(component, area.getOutlineArea().getBounds2D());
+    continuityAreaCache.invalidate(component);
+  }
+
   public void invalidateComponent(IDIYComponent<?> component) {
-    componentAreaMap.remove(component);
+    ComponentArea area = componentAreaMap.remove(component);
+    componentIndex.remove(component);
+    spriteCache.remove(component);
+    continuityAreaCache.invalidate(component);
     lastDrawnStateMap.remove(component);
+    if (area != null) {
+      damagedBounds = addBounds(damagedBounds, area.getPaintedBounds());
+    }
   }
 
   public ComponentArea getComponentArea(IDIYComponent<?> component) {
@@ -437,18 +673,42 @@ public class DrawingManager {
   public void clearComponentAreaMap() {
     componentAreaMap.clear();
     lastDrawnStateMap.clear();
+    componentIndex.clear();
+    spriteCache.clear();
+    continuityAreaCache.clear();
+    damagedBounds = null;
   }
 
   public void clearContinuityArea() {
     this.continuityArea = null;
   }
 
+  /**
+   * Finds all components whose outline contains the specified point, topmost component first.
+   * 
+   * @param point
+   * @param project
+   * @return
+   */
   public List<IDIYComponent<?>> findComponentsAt(Point point, Project project) {
-    List<IDIYComponent<?>> components = new ArrayList<IDIYComponent<?>>();
-    for (int i = 0; i < project.getComponents().size(); i++) {
-      ComponentArea area = componentAreaMap.get(project.getComponents().get(i));
+    Set<IDIYComponent<?>> hits = new HashSet<IDIYComponent<?>>();
+    // Bounding boxes narrow down the candidates, then do the exact test only on those.
+    for (IDIYComponent<?> component : componentIndex.query(point)) {
+      ComponentArea area = componentAreaMap.get(component);
       if (area != null && area.getOutlineArea().contains(point)) {
-        components.add(0, project.getComponents().get(i));
+        hits.add(component);
+      }
+    }
+    List<IDIYComponent<?>> components = new ArrayList<IDIYComponent<?>>(hits.size());
+    if (hits.isEmpty()) {
+      return components;
+    }
+    // topmost first; components that have been deleted from the project may still be indexed and
+    // are left out
+    List<IDIYComponent<?>> allComponents = project.getComponents();
+    for (int i = allComponents.size() - 1; i >= 0 && components.size() < hits.size(); i--) {
+      if (hits.contains(allComponents.get(i))) {
+        components.add(allComponents.get(i));
       }
     }
     return components;
@@ -506,165 +766,6 @@ public class DrawingManager {
   }
   
   public List<Area> getContinuityAreas(Project project) {
-    // Find all individual continuity areas for all components
-    List<Area> preliminaryAreas = new ArrayList<Area>();
-    List<Boolean> checkBreakout = new ArrayList<Boolean>();
-    Set<Connection> connections = new HashSet<Connection>();
-    for (IDIYComponent<?> c : project.getComponents()) {
-      ComponentArea a = getComponentArea(c);
-      
-      if (c instanceof IContinuity) {
-        for (int i = 0; i < c.getControlPointCount() - 1; i++)
-          for (int j = i + 1; j < c.getControlPointCount(); j++)
-            if (((IContinuity)c).arePointsConnected(i, j))
-              connections.add(new Connection(c.getControlPoint(i), c.getControlPoint(j)));
-      }
-
-      if (a == null || a.getOutlineArea() == null)
-        continue;
-      if (a.getContinuityPositiveAreas() != null)
-        for (Area a1 : a.getContinuityPositiveAreas()) {
-          preliminaryAreas.add(a1);
-          checkBreakout.add(false);
-        }
-      if (a.getContinuityNegativeAreas() != null) {
-        for (Area na : a.getContinuityNegativeAreas())
-          for (int i = 0; i < preliminaryAreas.size(); i++) {
-            Area a1 = preliminaryAreas.get(i);
-            if (a1.intersects(na.getBounds2D())) {
-              a1.subtract(na);
-              checkBreakout.set(i, true);
-            }
-          }
-      }
-    }
-
-    // Check if we need to break some areas out in case they are interrupted
-    List<Area> areas = new ArrayList<Area>();
-    for (int i = 0; i < preliminaryAreas.size(); i++) {
-      Area a = preliminaryAreas.get(i);
-      // if (checkBreakout.get(i))
-      areas.addAll(tryBreakout(a));
-      // else
-      // areas.add(a);
-    }
-    
-    expandConnections(connections);
-
-    crunchAreas(areas, connections);
-    
-    return areas;
-  }
-  
-  public void expandConnections(Set<Connection> connections) {
-    Set<Connection> toAdd = new HashSet<Connection>();
-    for (Connection c1 : connections)
-      for (Connection c2 : connections) {
-        if (c1 == c2)
-          continue;
-        if (c1.getP1().distance(c2.getP1()) < CONTROL_POINT_SIZE)
-          toAdd.add(new Connection(c1.getP2(), c2.getP2()));
-        if (c1.getP1().distance(c2.getP2()) < CONTROL_POINT_SIZE)
-          toAdd.add(new Connection(c1.getP2(), c2.getP1()));
-        if (c1.getP2().distance(c2.getP1()) < CONTROL_POINT_SIZE)
-          toAdd.add(new Connection(c1.getP1(), c2.getP2()));
-        if (c1.getP2().distance(c2.getP2()) < CONTROL_POINT_SIZE)
-          toAdd.add(new Connection(c1.getP1(), c2.getP1()));
-      }
-    if (connections.addAll(toAdd))
-      expandConnections(connections);
-  }
-
-  /**
-   * Merges all areas that either overlap or are joined by connections.
-   * 
-   * @param areas
-   * @param connections
-   * @return
-   */
-  private boolean crunchAreas(List<Area> areas, Set<Connection> connections) {
-    boolean isChanged = false;
-
-    List<Area> newAreas = new ArrayList<Area>();
-    List<Boolean> consumed = new ArrayList<Boolean>();
-    for (int i = 0; i < areas.size(); i++) {
-      consumed.add(false);
-    }
-    for (int i = 0; i < areas.size(); i++) {
-      for (int j = i + 1; j < areas.size(); j++) {
-        if (consumed.get(j))
-          continue;
-        Area a1 = areas.get(i);
-        Area a2 = areas.get(j);
-        Area intersection = null;
-        if (a1.getBounds2D().intersects(a2.getBounds())) {
-          intersection = new Area(a1);
-          intersection.intersect(a2);
-        }
-        // if the two areas intersect, make a union and consume the second area
-        if (intersection != null && !intersection.isEmpty()) {
-          a1.add(a2);
-          consumed.set(j, true);
-        } else { // maybe there's a connection between them
-          for (Connection p : connections) { // use getBounds to optimize the computation, don't get into complex math if not needed
-            if ((a1.getBounds().contains(p.getP1()) && a2.getBounds().contains(p.getP2()) && a1.contains(p.getP1()) && a2.contains(p.getP2())) || 
-                (a1.getBounds().contains(p.getP2()) && a2.getBounds().contains(p.getP1())) && a1.contains(p.getP2()) && a2.contains(p.getP1())) {
-              a1.add(a2);
-              consumed.set(j, true);
-              break;
-            }
-          }
-        }
-      }
-    }
-    for (int i = 0; i < areas.size(); i++)
-      if (!consumed.get(i))
-        newAreas.add(areas.get(i));
-      else
-        isChanged = true;
-
-    if (isChanged) {
-      areas.clear();
-      areas.addAll(newAreas);
-      crunchAreas(areas, connections);
-    }
-
-    return isChanged;
-  }
-
-  private List<Area> tryBreakout(Area a) {
-    List<Area> toReturn = new ArrayList<Area>();
-    Path2D p = null;
-    PathIterator pathIterator = a.getPathIterator(null);
-    while (!pathIterator.isDone()) {
-      double[] coord = new double[6];
-      int type = pathIterator.currentSegment(coord);
-      switch (type) {
-        case PathIterator.SEG_MOVETO:
-          if (p != null) {
-            Area partArea = new Area(p);
-            toReturn.add(partArea);
-          }
-          p = new Path2D.Double();
-          p.moveTo(coord[0], coord[1]);
-          break;
-        case PathIterator.SEG_LINETO:
-          p.lineTo(coord[0], coord[1]);
-          break;
-        case PathIterator.SEG_CUBICTO:
-          p.curveTo(coord[0], coord[1], coord[2], coord[3], coord[4], coord[5]);
-          break;
-        case PathIterator.SEG_QUADTO:
-          p.quadTo(coord[0], coord[1], coord[2], coord[3]);
-          break;
-      }
-      pathIterator.next();
-    }
-    if (p != null) {
-      Area partArea = new Area(p);
-      toReturn.add(partArea);
-    }
-
-    return toReturn;
+    return continuityAreaCache.getContinuityAreas(project);
   }
 }
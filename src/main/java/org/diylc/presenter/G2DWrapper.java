@@ -88,6 +88,7 @@ class G2DWrapper extends Graphics2D implements IDrawingObserver {
   private Area currentArea;
   private List<Area> continuityPositiveAreas;
   private List<Area> continuityNegativeAreas;
+  private Rectangle2D paintedBounds;
   private Shape lastShape;
 
   private double zoom;
@@ -115,6 +116,7 @@ class G2DWrapper extends Graphics2D implements IDrawingObserver {
     currentArea = new Area();
     continuityPositiveAreas = new ArrayList<Area>();
     continuityNegativeAreas = new ArrayList<Area>();
+    paintedBounds = null;
     originalStroke = canvasGraphics.getStroke();
     originalColor = canvasGraphics.getColor();
     originalTx = canvasGraphics.getTransform();
@@ -138,7 +140,7 @@ class G2DWrapper extends Graphics2D implements IDrawingObserver {
     canvasGraphics.setTransform(originalTx);
     canvasGraphics.setComposite(originalComposite);
     canvasGraphics.setFont(originalFont);
-    return new ComponentArea(currentArea, continuityPositiveAreas, continuityNegativeAreas);
+    return new ComponentArea(currentArea, continuityPositiveAreas, continuityNegativeAreas, paintedBounds);
   }
 
   @Override
@@ -218,6 +220,33 @@ class G2DWrapper extends Graphics2D implements IDrawingObserver {
     }
   }
 
+  /**
+   * Expands bounds of everything the current component has painted, regardless of whether the
+   * shape is tracked or not. Stroked shapes are padded by half of the current line width.
+   * 
+   * @param s
+   * @param stroked
+   */
+  private void appendPaintedBounds(Shape s, boolean stroked) {
+    if (!drawingComponent) {
+      return;
+    }
+    Rectangle2D bounds = currentTx.createTransformedShape(s.getBounds2D()).getBounds2D();
+    if (stroked) {
+      Stroke stroke = getStroke();
+      double padding = stroke instanceof BasicStroke ? ((BasicStroke) stroke).getLineWidth() : 3;
+      // line width is in component space, so scale it along with the shape
+      padding = padding * Math.sqrt(Math.abs(currentTx.getDeterminant())) / 2 + 1;
+      bounds.setRect(bounds.getX() - padding, bounds.getY() - padding, bounds.getWidth() + 2 * padding,
+          bounds.getHeight() + 2 * padding);
+    }
+    if (paintedBounds == null) {
+      paintedBounds = bounds;
+    } else {
+      paintedBounds.add(bounds);
+    }
+  }
+
   @Override
   public void addRenderingHints(Map<?, ?> hints) {
     canvasGraphics.addRenderingHints(hints);
@@ -231,6 +260,7 @@ class G2DWrapper extends Graphics2D implements IDrawingObserver {
   @Override
   public void draw(Shape s) {
     canvasGraphics.draw(s);
+    appendPaintedBounds(s, true);
     if (drawingComponent && trackingAllowed) {
       appendShapeOutline(s);
     }
@@ -239,6 +269,9 @@ class G2DWrapper extends Graphics2D implements IDrawingObserver {
   @Override
   public void drawGlyphVector(GlyphVector g, float x, float y) {
     canvasGraphics.drawGlyphVector(g, x, y);
+    Rectangle2D glyphBounds = g.getVisualBounds();
+    appendPaintedBounds(new Rectangle2D.Double(glyphBounds.getX() + x, glyphBounds.getY() + y, glyphBounds.getWidth(),
+        glyphBounds.getHeight()), false);
   }
 
   @Override
@@ -267,26 +300,20 @@ class G2DWrapper extends Graphics2D implements IDrawingObserver {
 
   @Override
   public void drawString(String str, int x, int y) {
-    canvasGraphics.drawString(str, x, y);
-    if (drawingComponent && trackingAllowed) {
-      FontMetrics fontMetrics = canvasGraphics.getFontMetrics();
-      Rectangle2D rect = fontMetrics.getStringBounds(str, canvasGraphics);
-      Point2D point = new Point2D.Double(x, y);
-      // currentTx.transform(point, point);
-      Rectangle2D finalRec =
-          new Rectangle2D.Double(rect.getX() + point.getX(), rect.getY() + point.getY(), rect.getWidth(),
-              rect.getHeight());
-      appendShape(finalRec);
-    }
+    drawString(str, (float) x, (float) y);
   }
 
   @Override
   public void drawString(String str, float x, float y) {
     canvasGraphics.drawString(str, x, y);
-    if (drawingComponent && trackingAllowed) {
+    if (drawingComponent) {
       FontMetrics fontMetrics = canvasGraphics.getFontMetrics();
       Rectangle2D rect = fontMetrics.getStringBounds(str, canvasGraphics);
-      appendShape(new Rectangle2D.Double(rect.getX() + x, rect.getY() + y, rect.getWidth(), rect.getHeight()));
+      Rectangle2D finalRec = new Rectangle2D.Double(rect.getX() + x, rect.getY() + y, rect.getWidth(), rect.getHeight());
+      appendPaintedBounds(finalRec, false);
+      if (trackingAllowed) {
+        appendShape(finalRec);
+      }
     }
   }
 
@@ -305,6 +332,7 @@ class G2DWrapper extends Graphics2D implements IDrawingObserver {
   @Override
   public void fill(Shape s) {
     canvasGraphics.fill(s);
+    appendPaintedBounds(s, false);
     appendShape(s);
   }
 
@@ -487,11 +515,13 @@ class G2DWrapper extends Graphics2D implements IDrawingObserver {
   @Override
   public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
     canvasGraphics.drawArc(x, y, width, height, startAngle, arcAngle);
+    appendPaintedBounds(new Rectangle(x, y, width, height), true);
   }
 
   @Override
   public boolean drawImage(Image img, int x, int y, ImageObserver observer) {
     boolean result = canvasGraphics.drawImage(img, x, y, observer);
+    appendPaintedBounds(new Rectangle2D.Double(x, y, img.getWidth(observer), img.getHeight(observer)), false);
     appendShape(new Rectangle2D.Double(x, y, img.getWidth(observer), img.getHeight(observer)));
     return result;
   }
@@ -531,6 +561,7 @@ class G2DWrapper extends Graphics2D implements IDrawingObserver {
   @Override
   public void drawLine(int x1, int y1, int x2, int y2) {
     canvasGraphics.drawLine(x1, y1, x2, y2);
+    appendPaintedBounds(new Line2D.Double(x1, y1, x2, y2), true);
     if (drawingComponent && (trackingAllowed || trackingContinuityAllowed)) {
       appendShapeOutline(new Line2D.Double(x1, y1, x2, y2));
     }
@@ -539,6 +570,7 @@ class G2DWrapper extends Graphics2D implements IDrawingObserver {
   @Override
   public void drawOval(int x, int y, int width, int height) {
     canvasGraphics.drawOval(x, y, width, height);
+    appendPaintedBounds(new Rectangle(x, y, width, height), true);
     if (drawingComponent && (trackingAllowed || trackingContinuityAllowed)) {
       appendShapeOutline(new Ellipse2D.Double(x, y, width, height));
     }
@@ -547,6 +579,7 @@ class G2DWrapper extends Graphics2D implements IDrawingObserver {
   @Override
   public void drawPolygon(int[] points, int[] points2, int points3) {
     canvasGraphics.drawPolygon(points, points2, points3);
+    appendPaintedBounds(new Polygon(points, points2, points3), true);
     if (drawingComponent && (trackingAllowed || trackingContinuityAllowed)) {
       appendShapeOutline(new Polygon(points, points2, points3));
     }
@@ -555,11 +588,13 @@ class G2DWrapper extends Graphics2D implements IDrawingObserver {
   @Override
   public void drawPolyline(int[] points, int[] points2, int points3) {
     canvasGraphics.drawPolyline(points, points2, points3);
+    appendPaintedBounds(new Polygon(points, points2, points3), true);
   }
 
   @Override
   public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
     canvasGraphics.drawRoundRect(x, y, width, height, arcWidth, arcHeight);
+    appendPaintedBounds(new Rectangle(x, y, width, height), true);
     if (drawingComponent && (trackingAllowed || trackingContinuityAllowed)) {
       appendShapeOutline(new RoundRectangle2D.Double(x, y, width, height, arcWidth, arcHeight));
     }
@@ -568,6 +603,7 @@ class G2DWrapper extends Graphics2D implements IDrawingObserver {
   @Override
   public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
     canvasGraphics.fillArc(x, y, width, height, startAngle, arcAngle);
+    appendPaintedBounds(new Rectangle(x, y, width, height), false);
     if (drawingComponent && (trackingAllowed || trackingContinuityAllowed)) {
       appendShape(new Arc2D.Double(x, y, width, height, startAngle, arcAngle, Arc2D.PIE));
     }
@@ -576,6 +612,7 @@ class G2DWrapper extends Graphics2D implements IDrawingObserver {
   @Override
   public void fillOval(int x, int y, int width, int height) {
     canvasGraphics.fillOval(x, y, width, height);
+    appendPaintedBounds(new Rectangle(x, y, width, height), false);
     if (drawingComponent && (trackingAllowed || trackingContinuityAllowed)) {
       appendShape(new Ellipse2D.Double(x, y, width, height));
     }
@@ -584,6 +621,7 @@ class G2DWrapper extends Graphics2D implements IDrawingObserver {
   @Override
   public void fillPolygon(int[] points, int[] points2, int points3) {
     canvasGraphics.fillPolygon(points, points2, points3);
+    appendPaintedBounds(new Polygon(points, points2, points3), false);
     if (drawingComponent && (trackingAllowed || trackingContinuityAllowed)) {
       appendShape(new Polygon(points, points2, points3));
     }
@@ -592,6 +630,7 @@ class G2DWrapper extends Graphics2D implements IDrawingObserver {
   @Override
   public void drawRect(int x, int y, int width, int height) {
     canvasGraphics.drawRect(x, y, width, height);
+    appendPaintedBounds(new Rectangle(x, y, width, height), true);
     if (drawingComponent && (trackingAllowed || trackingContinuityAllowed)) {
       appendShapeOutline(new Rectangle(x, y, width, height));
     }
@@ -600,6 +639,7 @@ class G2DWrapper extends Graphics2D implements IDrawingObserver {
   @Override
   public void fillRect(int x, int y, int width, int height) {
     canvasGraphics.fillRect(x, y, width, height);
+    appendPaintedBounds(new Rectangle(x, y, width, height), false);
     if (drawingComponent && (trackingAllowed || trackingContinuityAllowed)) {
       appendShape(new Rectangle(x, y, width, height));
     }
@@ -608,6 +648,7 @@ class G2DWrapper extends Graphics2D implements IDrawingObserver {
   @Override
   public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
     canvasGraphics.fillRoundRect(x, y, width, height, arcWidth, arcHeight);
+    appendPaintedBounds(new Rectangle(x, y, width, height), false);
     if (drawingComponent && (trackingAllowed || trackingContinuityAllowed)) {
       appendShape(new RoundRectangle2D.Double(x, y, width, height, arcWidth, arcHeight));
     }
@@ -0,0 +1,156 @@
+/*
+ *
+ * DIY Layout Creator (DIYLC). Copyright (c) 2009-2018 held jointly by the individual authors.
+ *
+ * This file is part of DIYLC.
+ *
+ * DIYLC is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * DIYLC is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DIYLC. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.diylc.presenter;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.diylc.core.IDIYComponent;
+import org.diylc.core.Project;
+
+/**
+ * Maps each grouped component of a project to its group, so group lookups don't have to go through
+ * all the groups.
+ *
+ * The index is built the first time it's queried. Groups should be changed through
+ * {@link #addGroup(Project, Set)} and {@link #ungroup(Project, Collection)}, which keep it up to
+ * date. When groups are changed in any other way, e.g. a different project is loaded, call
+ * {@link #invalidate()}.
+ */
+public class GroupIndex {
+
+  private Map<IDIYComponent<?>, Set<IDIYComponent<?>>> groupMap =
+      new IdentityHashMap<IDIYComponent<?>, Set<IDIYComponent<?>>>();
+  // Project the index was built for, null when it needs to be built again.
+  private Project project;
+  // True if some component is in more than one group, which the UI never does but old files might.
+  private boolean overlapping;
+
+  /**
+   * Marks the index as out of date. It will be built again on the next query.
+   */
+  public void invalidate() {
+    project = null;
+  }
+
+  /**
+   * @param project
+   * @param component
+   * @return the group that contains the component, or null if it's not grouped. The group must not
+   *         be modified.
+   */
+  public Set<IDIYComponent<?>> getGroup(Project project, IDIYComponent<?> component) {
+    if (this.project != project) {
+      build(project);
+    }
+    return groupMap.get(component);
+  }
+
+  /**
+   * @param project
+   * @param component
+   * @return true if the component is grouped with at least one other component.
+   */
+  public boolean isGrouped(Project project, IDIYComponent<?> component) {
+    Set<IDIYComponent<?>> group = getGroup(project, component);
+    return group != null && group.size() > 1;
+  }
+
+  /**
+   * Adds a new group to the project.
+   *
+   * @param project
+   * @param group
+   */
+  public void addGroup(Project project, Set<IDIYComponent<?>> group) {
+    project.getGroups().add(group);
+    if (this.project == project) {
+      for (IDIYComponent<?> component : group) {
+        if (!groupMap.containsKey(component)) {
+          groupMap.put(component, group);
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes the specified components from their groups. Groups that end up empty are removed from
+   * the project.
+   *
+   * @param project
+   * @param components
+   */
+  public void ungroup(Project project, Collection<IDIYComponent<?>> components) {
+    if (this.project != project) {
+      build(project);
+    }
+    if (overlapping) {
+      ungroupAll(project, components);
+      return;
+    }
+    Map<Set<IDIYComponent<?>>, Boolean> affectedGroups = new IdentityHashMap<Set<IDIYComponent<?>>, Boolean>();
+    for (IDIYComponent<?> component : components) {
+      Set<IDIYComponent<?>> group = groupMap.remove(component);
+      if (group != null) {
+        affectedGroups.put(group, Boolean.TRUE);
+      }
+    }
+    for (Set<IDIYComponent<?>> group : affectedGroups.keySet()) {
+      // take the group out while its hash code is still the one it was stored with
+      project.getGroups().remove(group);
+      group.removeAll(components);
+      if (!group.isEmpty()) {
+        project.getGroups().add(group);
+      }
+    }
+  }
+
+  /**
+   * Removes the components from all the groups they are in, going through every group.
+   */
+  private void ungroupAll(Project project, Collection<IDIYComponent<?>> components) {
+    Iterator<Set<IDIYComponent<?>>> groupIterator = project.getGroups().iterator();
+    while (groupIterator.hasNext()) {
+      Set<IDIYComponent<?>> group = groupIterator.next();
+      group.removeAll(components);
+      if (group.isEmpty()) {
+        groupIterator.remove();
+      }
+    }
+    invalidate();
+  }
+
+  private void build(Project project) {
+    groupMap.clear();
+    overlapping = false;
+    for (Set<IDIYComponent<?>> group : project.getGroups()) {
+      for (IDIYComponent<?> component : group) {
+        // the first group wins, the same as when going through the groups
+        if (groupMap.containsKey(component)) {
+          overlapping = true;
+        } else {
+          groupMap.put(component, group);
+        }
+      }
+    }
+    this.project = project;
+  }
+}
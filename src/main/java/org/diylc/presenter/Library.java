@@ -0,0 +1,270 @@
+/*
+ *
+ * DIY Layout Creator (DIYLC). Copyright (c) 2009-2018 held jointly by the individual authors.
+ *
+ * This file is part of DIYLC.
+ *
+ * DIYLC is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * DIYLC is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DIYLC. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.diylc.presenter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+import org.diylc.appframework.Serializer;
+import org.diylc.appframework.miscutils.IContentWriter;
+import org.diylc.appframework.miscutils.Utils;
+
+/**
+ * Named items, e.g. building blocks or variants of a component type, stored in a directory with
+ * one file per item and a small index that maps item names to file names. Items are read only when
+ * they are needed and the most recently used ones are kept in memory.
+ *
+ * Values returned by {@link #get(String)} are shared with the cache and must not be modified. To
+ * change an item, {@link #put(String, Object)} a modified copy.
+ *
+ * @param <T> item type
+ */
+public class Library<T> {
+
+  private static final Logger LOG = Logger.getLogger(Library.class);
+
+  private static final String INDEX_FILE = "index.xml";
+  private static final int MAX_FILE_NAME_LENGTH = 64;
+
+  private final File directory;
+  private final Map<String, T> cache;
+  // Maps item names to names of the files they are stored in, read on first use.
+  private SortedMap<String, String> index;
+
+  /**
+   * @param directory directory to store the items in, created when the first item is stored
+   * @param cacheSize number of items to keep in memory
+   */
+  public Library(File directory, final int cacheSize) {
+    this.directory = directory;
+    this.cache = new LinkedHashMap<String, T>(16, 0.75f, true) {
+
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+        return size() > cacheSize;
+      }
+    };
+  }
+
+  /**
+   * @return true if the library has been stored before, even if it's empty now.
+   */
+  public synchronized boolean exists() {
+    return new File(directory, INDEX_FILE).exists();
+  }
+
+  /**
+   * @return sorted names of all the items.
+   */
+  public synchronized List<String> getNames() {
+    return new ArrayList<String>(getIndex().keySet());
+  }
+
+  public synchronized boolean contains(String name) {
+    return getIndex().containsKey(name);
+  }
+
+  /**
+   * @param name
+   * @return item with the specified name, or null if there's no such item or it can't be read.
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized T get(String name) {
+    T value = cache.get(name);
+    if (value != null) {
+      return value;
+    }
+    String fileName = getIndex().get(name);
+    if (fileName == null) {
+      return null;
+    }
+    try {
+      Item<T> item = (Item<T>) Serializer.fromFile(new File(directory, fileName));
+      value = item.value;
+    } catch (Exception e) {
+      LOG.error("Could not read library item " + name + " from " + fileName, e);
+      return null;
+    }
+    if (value != null) {
+      cache.put(name, value);
+    }
+    return value;
+  }
+
+  /**
+   * Stores the item, replacing the existing one with the same name.
+   *
+   * @param name
+   * @param value
+   * @throws IOException if the item or the index could not be written
+   */
+  public synchronized void put(String name, T value) throws IOException {
+    writeItem(name, value);
+    writeIndex();
+  }
+
+  /**
+   * Stores all the items at once, writing the index only once. Stops at the first item that can't
+   * be written, in which case the index is not written either, so {@link #exists()} stays false for
+   * a library that has not been stored before.
+   *
+   * @param values
+   * @throws IOException if any of the items or the index could not be written
+   */
+  public synchronized void putAll(Map<String, ? extends T> values) throws IOException {
+    for (Map.Entry<String, ? extends T> entry : values.entrySet()) {
+      writeItem(entry.getKey(), entry.getValue());
+    }
+    writeIndex();
+  }
+
+  public synchronized void remove(String name) {
+    cache.remove(name);
+    String fileName = getIndex().remove(name);
+    if (fileName != null) {
+      try {
+        writeIndex();
+      } catch (IOException e) {
+        LOG.error("Could not write library index to " + directory.getAbsolutePath(), e);
+      }
+      new File(directory, fileName).delete();
+    }
+  }
+
+  private SortedMap<String, String> getIndex() {
+    if (index == null) {
+      File file = new File(directory, INDEX_FILE);
+      if (file.exists()) {
+        try {
+          @SuppressWarnings("unchecked")
+          Map<String, String> map = (Map<String, String>) Serializer.fromFile(file);
+          index = new TreeMap<String, String>(map);
+        } catch (Exception e) {
+          LOG.error("Could not read library index from " + file.getAbsolutePath() + ", rebuilding it", e);
+          index = rebuildIndex();
+        }
+      } else {
+        index = new TreeMap<String, String>();
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Reads names back from all the item files. Only used when the index is missing or damaged.
+   */
+  private SortedMap<String, String> rebuildIndex() {
+    SortedMap<String, String> index = new TreeMap<String, String>();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (!file.getName().endsWith(".xml") || INDEX_FILE.equals(file.getName())) {
+          continue;
+        }
+        try {
+          Item<?> item = (Item<?>) Serializer.fromFile(file);
+          index.put(item.name, file.getName());
+        } catch (Exception e) {
+          LOG.warn("Skipping unreadable library item " + file.getName());
+        }
+      }
+    }
+    return index;
+  }
+
+  private void writeItem(String name, T value) throws IOException {
+    String fileName = getIndex().get(name);
+    if (fileName == null) {
+      fileName = createFileName(name);
+    }
+    directory.mkdirs();
+    try {
+      writeFile(new File(directory, fileName), new Item<T>(name, value));
+    } catch (RuntimeException e) {
+      // XStream reports its own errors unchecked
+      throw new IOException("Could not write library item " + name, e);
+    }
+    getIndex().put(name, fileName);
+    cache.put(name, value);
+  }
+
+  private void writeIndex() throws IOException {
+    directory.mkdirs();
+    writeFile(new File(directory, INDEX_FILE), new TreeMap<String, String>(getIndex()));
+  }
+
+  /**
+   * @param name
+   * @return file name derived from the item name that is not used by any other item. File names are
+   *         compared ignoring case, as not all file systems are case sensitive.
+   */
+  private String createFileName(String name) {
+    String base = name.replaceAll("[^A-Za-z0-9._-]", "_");
+    if (base.length() > MAX_FILE_NAME_LENGTH) {
+      base = base.substring(0, MAX_FILE_NAME_LENGTH);
+    }
+    Set<String> used = new HashSet<String>();
+    used.add(INDEX_FILE);
+    for (String fileName : getIndex().values()) {
+      used.add(fileName.toLowerCase());
+    }
+    String fileName = base + ".xml";
+    int i = 2;
+    while (used.contains(fileName.toLowerCase())) {
+      fileName = base + "-" + i++ + ".xml";
+    }
+    return fileName;
+  }
+
+  private static void writeFile(File file, final Object value) throws IOException {
+    Utils.writeFile(file, new IContentWriter() {
+
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializer.toStream(out, value);
+      }
+    });
+  }
+
+  /**
+   * Contents of an item file. The name is stored along with the value so the index can be rebuilt
+   * from the item files.
+   */
+  public static class Item<T> {
+
+    private String name;
+    private T value;
+
+    public Item(String name, T value) {
+      this.name = name;
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,263 @@
+/*
+ *
+ * DIY Layout Creator (DIYLC). Copyright (c) 2009-2018 held jointly by the individual authors.
+ *
+ * This file is part of DIYLC.
+ *
+ * DIYLC is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * DIYLC is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DIYLC. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.diylc.presenter;
+
+import java.awt.geom.Area;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.diylc.netlist.Group;
+import org.diylc.netlist.Netlist;
+import org.diylc.netlist.Node;
+
+/**
+ * Builds a {@link Netlist} by merging points into connected sets. Two points end up in the same
+ * set when they are closer than the tolerance, when they are the two ends of a {@link Connection},
+ * when they lie within the same continuity area or when their nodes share a common point name.
+ * Points are bucketed by a grid with cell size equal to the tolerance, so only neighboring cells
+ * need to be checked for proximity.
+ *
+ * Connectivity that is shared by many variations of the same circuit (e.g. everything but the
+ * switches) can be built once and then extended through {@link #copy()}, which only copies the
+ * partition and shares the point grid and continuity areas with the original.
+ */
+public class NetlistBuilder {
+
+  private final double tolerance;
+  private final List<Node> nodes;
+  // Builder this one has been copied from, it must not change anymore.
+  private final NetlistBuilder base;
+
+  private DisjointSet sets;
+  // Point of each element, null for continuity areas.
+  private List<Point2D> points;
+  private Map<Long, List<Integer>> grid = new HashMap<Long, List<Integer>>();
+  private SpatialIndex<Integer> areaIndex = new SpatialIndex<Integer>(DrawingManager.INDEX_CELL_SIZE);
+  private Map<Integer, Area> areaMap = new HashMap<Integer, Area>();
+
+  /**
+   * Creates a builder for the specified nodes. Node at index <code>i</code> is represented by
+   * element <code>i</code>.
+   *
+   * @param nodes
+   * @param tolerance
+   */
+  public NetlistBuilder(List<Node> nodes, double tolerance) {
+    this.nodes = nodes;
+    this.tolerance = tolerance;
+    this.base = null;
+    this.sets = new DisjointSet();
+    this.points = new ArrayList<Point2D>();
+    Map<String, Integer> commonPoints = new HashMap<String, Integer>();
+    for (Node node : nodes) {
+      int element = addPoint(node.getComponent().getControlPoint(node.getPointIndex()));
+      String commonPoint = node.getComponent().getCommonPointName(node.getPointIndex());
+      if (commonPoint != null) {
+        commonPoint = commonPoint.toLowerCase();
+        Integer other = commonPoints.get(commonPoint);
+        if (other == null) {
+          commonPoints.put(commonPoint, element);
+        } else {
+          sets.union(other, element);
+        }
+      }
+    }
+  }
+
+  private NetlistBuilder(NetlistBuilder base) {
+    this.nodes = base.nodes;
+    this.tolerance = base.tolerance;
+    this.base = base;
+    this.sets = base.sets.clone();
+    this.points = new ArrayList<Point2D>(base.points);
+  }
+
+  /**
+   * Creates a builder that starts with everything connected so far. This builder must not be
+   * modified afterwards, as the copy keeps looking up its points and continuity areas.
+   *
+   * @return
+   */
+  public NetlistBuilder copy() {
+    return new NetlistBuilder(this);
+  }
+
+  /**
+   * Adds a point and connects it to all the points and continuity areas it touches.
+   *
+   * @param point
+   * @return element that represents the point
+   */
+  public int addPoint(Point2D point) {
+    int element = sets.add();
+    points.add(point);
+    int cellX = cell(point.getX());
+    int cellY = cell(point.getY());
+    for (NetlistBuilder builder = this; builder != null; builder = builder.base) {
+      for (int x = cellX - 1; x <= cellX + 1; x++) {
+        for (int y = cellY - 1; y <= cellY + 1; y++) {
+          List<Integer> bucket = builder.grid.get(key(x, y));
+          if (bucket != null) {
+            for (Integer other : bucket) {
+              if (point.distance(points.get(other)) < tolerance) {
+                sets.union(element, other);
+              }
+            }
+          }
+        }
+      }
+    }
+    Long key = key(cellX, cellY);
+    List<Integer> bucket = grid.get(key);
+    if (bucket == null) {
+      bucket = new ArrayList<Integer>(2);
+      grid.put(key, bucket);
+    }
+    bucket.add(element);
+    for (NetlistBuilder builder = this; builder != null; builder = builder.base) {
+      for (Integer areaElement : builder.areaIndex.query(point)) {
+        if (builder.areaMap.get(areaElement).contains(point)) {
+          sets.union(element, areaElement);
+        }
+      }
+    }
+    return element;
+  }
+
+  /**
+   * Connects both ends of the connection.
+   *
+   * @param connection
+   */
+  public void addConnection(Connection connection) {
+    sets.union(addPoint(connection.getP1()), addPoint(connection.getP2()));
+  }
+
+  public void addConnections(List<Connection> connections) {
+    for (Connection connection : connections) {
+      addConnection(connection);
+    }
+  }
+
+  /**
+   * Adds a continuity area and connects all the points inside of it.
+   *
+   * @param area
+   * @return element that represents the area
+   */
+  public int addContinuityArea(Area area) {
+    int element = sets.add();
+    points.add(null);
+    Rectangle2D bounds = area.getBounds2D();
+    areaIndex.put(element, bounds);
+    areaMap.put(element, area);
+    int minX = cell(bounds.getMinX());
+    int minY = cell(bounds.getMinY());
+    int maxX = cell(bounds.getMaxX());
+    int maxY = cell(bounds.getMaxY());
+    if ((long) (maxX - minX + 1) * (maxY - minY + 1) > points.size()) {
+      // cheaper to go through all the points
+      for (int i = 0; i < points.size(); i++) {
+        Point2D point = points.get(i);
+        if (point != null && bounds.contains(point) && area.contains(point)) {
+          sets.union(element, i);
+        }
+      }
+      return element;
+    }
+    for (NetlistBuilder builder = this; builder != null; builder = builder.base) {
+      for (int x = minX; x <= maxX; x++) {
+        for (int y = minY; y <= maxY; y++) {
+          List<Integer> bucket = builder.grid.get(key(x, y));
+          if (bucket != null) {
+            for (Integer other : bucket) {
+              if (area.contains(points.get(other))) {
+                sets.union(element, other);
+              }
+            }
+          }
+        }
+      }
+    }
+    return element;
+  }
+
+  public void addContinuityAreas(List<Area> areas) {
+    for (Area area : areas) {
+      addContinuityArea(area);
+    }
+  }
+
+  /**
+   * Puts the two elements into the same set.
+   *
+   * @param element1
+   * @param element2
+   * @return true if the elements were not connected before.
+   */
+  public boolean connect(int element1, int element2) {
+    return sets.union(element1, element2);
+  }
+
+  public boolean isConnected(int element1, int element2) {
+    return sets.connected(element1, element2);
+  }
+
+  /**
+   * @param element
+   * @return representative element of the set the specified element belongs to.
+   */
+  public int find(int element) {
+    return sets.find(element);
+  }
+
+  /**
+   * @return netlist with a group for each set of at least two connected nodes.
+   */
+  public Netlist build() {
+    Netlist netlist = new Netlist();
+    Map<Integer, Group> groupMap = new HashMap<Integer, Group>();
+    for (int i = 0; i < nodes.size(); i++) {
+      int root = sets.find(i);
+      Group group = groupMap.get(root);
+      if (group == null) {
+        group = new Group();
+        groupMap.put(root, group);
+      }
+      group.getNodes().add(nodes.get(i));
+    }
+    for (Group group : groupMap.values()) {
+      if (group.getNodes().size() > 1) {
+        netlist.getGroups().add(group);
+      }
+    }
+    return netlist;
+  }
+
+  private int cell(double coordinate) {
+    return (int) Math.floor(coordinate / tolerance);
+  }
+
+  private static Long key(int x, int y) {
+    return ((long) x << 32) | (y & 0xffffffffL);
+  }
+}
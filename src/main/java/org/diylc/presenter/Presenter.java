@@ -20,6 +20,7 @@
  */
 package org.diylc.presenter;
 
+import java.awt.Color;
 import java.awt.Cursor;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
@@ -29,6 +30,7 @@ import java.awt.dnd.DnDConstants;
 import java.awt.geom.Area;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
@@ -36,20 +38,34 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
 
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
 import org.apache.log4j.Logger;
 
@@ -57,6 +73,9 @@ import org.diylc.appframework.Serializer;
 import org.diylc.appframework.miscutils.ConfigurationManager;
 import org.diylc.appframework.miscutils.JarScanner;
 import org.diylc.appframework.miscutils.Utils;
+import org.diylc.appframework.simplemq.DispatchStatistics;
+import org.diylc.appframework.simplemq.IMessageCoalescer;
+import org.diylc.appframework.simplemq.IMessageListener;
 import org.diylc.appframework.simplemq.MessageDispatcher;
 import org.diylc.appframework.update.Version;
 import org.diylc.appframework.update.VersionNumber;
@@ -71,6 +90,7 @@ import org.diylc.common.IKeyProcessor;
 import org.diylc.common.INetlistAnalyzer;
 import org.diylc.common.IPlugIn;
 import org.diylc.common.IPlugInPort;
+import org.diylc.common.IProgressMonitor;
 import org.diylc.common.PropertyWrapper;
 import org.diylc.common.VariantPackage;
 import org.diylc.core.ExpansionMode;
@@ -84,12 +104,12 @@ import org.diylc.core.Theme;
 import org.diylc.core.annotations.IAutoCreator;
 import org.diylc.core.measures.Size;
 import org.diylc.core.measures.SizeUnit;
-import org.diylc.netlist.Group;
 import org.diylc.netlist.Netlist;
 import org.diylc.netlist.NetlistAnalyzer;
 import org.diylc.netlist.Node;
 import org.diylc.netlist.Position;
 import org.diylc.netlist.SwitchSetup;
+import org.diylc.presenter.ControlPointIndex.ControlPoint;
 import org.diylc.utils.Constants;
 
 /**
@@ -125,25 +145,6 @@ public class Presenter implements IPlugInPort {
     }
     public static final String DEFAULTS_KEY_PREFIX = "default.";
 
-    private static Map<String, List<Template>> defaultVariantMap = null;
-    static {
-	try {
-	    @SuppressWarnings("unchecked")
-		Map<String, List<Template>> map =
-		(Map<String, List<Template>>) Serializer.fromResource("/org/diylc/variants.xml");
-	    LOG.info("Loading default variant map");
-	    defaultVariantMap =
-		new TreeMap<String, List<Template>>(String.CASE_INSENSITIVE_ORDER);
-	    defaultVariantMap.putAll(map);
-	    LOG.info(String.format("Loaded default variants for %d components",
-				   (defaultVariantMap == null
-				    ? 0
-				    : defaultVariantMap.size())));
-	} catch (IOException e) {
-	    LOG.error("Could not load default variants", e);
-	}
-    }
-
     public static final List<IDIYComponent<?>> EMPTY_SELECTION =
 	Collections.emptyList();
 
@@ -151,6 +152,16 @@ public class Presenter implements IPlugInPort {
 
     private static final int MAX_RECENT_FILES = 20;
 
+    private static final String LIBRARY_PATH =
+	Utils.getUserDataDirectory("diylc") + "library" + File.separator;
+    private static final int BLOCK_CACHE_SIZE = 32;
+    private static final int VARIANT_CACHE_SIZE = 64;
+
+    // User building blocks and variants, shared by all the presenters
+    // and read when they are needed for the first time.
+    private static Library<List<IDIYComponent<?>>> blockLibrary = null;
+    private static Library<List<Template>> variantLibrary = null;
+
     private Project currentProject;
     private Map<String, List<ComponentType>> componentTypes;
     /**
@@ -168,12 +179,19 @@ public class Presenter implements IPlugInPort {
     // dragged.
     private Map<IDIYComponent<?>, Set<Integer>> controlPointMap;
     private Set<IDIYComponent<?>> lockedComponents;
+    // Control points of the current project by location, used to find the
+    // points under the cursor and the components stuck together.
+    private ControlPointIndex controlPointIndex = new ControlPointIndex();
+    // Group of each grouped component of the current project.
+    private GroupIndex groupIndex = new GroupIndex();
 
     // Utilities
     // private Cloner cloner;
     private DrawingManager drawingManager;
     private ProjectFileManager projectFileManager;
     private InstantiationManager instantiationManager;
+    // Snapshots of the project that are passed along with PROJECT_MODIFIED.
+    private ProjectSnapshotter snapshotter = new ProjectSnapshotter();
 
     private Rectangle selectionRect;
 
@@ -198,6 +216,10 @@ public class Presenter implements IPlugInPort {
 	this.view = view;
 	plugIns = new ArrayList<IPlugIn>();
 	messageDispatcher = new MessageDispatcher<EventType>(true);
+	// both are fired many times per second while dragging, only the last
+	// one matters
+	messageDispatcher.setCoalescer(EventType.REPAINT, new RepaintCoalescer());
+	messageDispatcher.setCoalescer(EventType.MOUSE_MOVED, MessageDispatcher.KEEP_LATEST);
 	selectedComponents = new HashSet<IDIYComponent<?>>();
 	lockedComponents = new HashSet<IDIYComponent<?>>();
 	currentProject = new Project();
@@ -205,10 +227,11 @@ public class Presenter implements IPlugInPort {
 	drawingManager = new DrawingManager(messageDispatcher);
 	projectFileManager = new ProjectFileManager(messageDispatcher);
 	instantiationManager = new InstantiationManager();
+	messageDispatcher.registerListener(new SaveListener());
+	messageDispatcher.registerListener(new ProjectChangeListener());
 
 	// lockedLayers = EnumSet.noneOf(ComponentLayer.class);
 	// visibleLayers = EnumSet.allOf(ComponentLayer.class);
-	upgradeVariants();
     }
 
     public void installPlugin(IPlugIn plugIn) {
@@ -223,6 +246,7 @@ public class Presenter implements IPlugInPort {
 	for (IPlugIn plugIn : plugIns) {
 	    messageDispatcher.unregisterListener(plugIn);
 	}
+	projectFileManager.waitForPendingSaves();
     }
 
     // IPlugInPort
@@ -286,6 +310,7 @@ public class Presenter implements IPlugInPort {
     public void loadProject(Project project, boolean freshStart, String filename) {
 	LOG.info(String.format("loadProject(%s, %s)", project.getTitle(), freshStart));
 	this.currentProject = project;
+	snapshotter.reset();
 	drawingManager.clearComponentAreaMap();
 	drawingManager.clearContinuityArea();
 	updateSelection(EMPTY_SELECTION);
@@ -356,19 +381,30 @@ public class Presenter implements IPlugInPort {
 
     @Override
     public boolean allowFileAction() {
+	// the modified flag is only up to date once saves in progress are done
+	projectFileManager.waitForPendingSaves();
 	if (projectFileManager.isModified()) {
 	    int response =
 		view.showConfirmDialog("There are unsaved changes. Would you like to save them?", "Warning",
 				       IView.YES_NO_CANCEL_OPTION, IView.WARNING_MESSAGE);
 	    if (response == IView.YES_OPTION) {
-		if (this.getCurrentFileName() == null) {
+		String fileName = this.getCurrentFileName();
+		if (fileName == null) {
 		    File file = view.promptFileSave();
 		    if (file == null) {
 			return false;
 		    }
-		    saveProjectToFile(file.getAbsolutePath(), false);
-		} else {
-		    saveProjectToFile(this.getCurrentFileName(), false);
+		    fileName = file.getAbsolutePath();
+		}
+		// the caller is about to discard the project, so wait and
+		// keep it if it could not be saved
+		try {
+		    saveProject(fileName, false).get();
+		} catch (ExecutionException e) {
+		    return false;
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		    return false;
 		}
 	    }
 	    return response != IView.CANCEL_OPTION;
@@ -378,21 +414,110 @@ public class Presenter implements IPlugInPort {
 
     @Override
     public void saveProjectToFile(String fileName, boolean isBackup) {
+	saveProject(fileName, isBackup);
+    }
+
+    /**
+     * Takes a snapshot of the current project and writes it in the
+     * background, so the project may be edited while it's being saved.
+     * The outcome is handled by {@link SaveListener}.
+     * 
+     * @param fileName
+     * @param isBackup
+     * @return future that completes once the file has been written
+     */
+    private Future<Void> saveProject(String fileName, boolean isBackup) {
 	LOG.info(String.format("saveProjectToFile(%s)", fileName));
-	try {
-	    currentProject.setFileVersion(CURRENT_VERSION);
-	    projectFileManager.serializeProjectToFile(currentProject, fileName, isBackup);
-	    if (!isBackup)
+	currentProject.setFileVersion(CURRENT_VERSION);
+	Project snapshot = snapshotter.takeSnapshot(currentProject);
+	BufferedImage thumbnail = ProjectContainer.isContainerFileName(fileName) ? createThumbnail() : null;
+	return projectFileManager.serializeProjectToFileAsync(snapshot, fileName, isBackup, thumbnail);
+    }
+
+    /**
+     * Drops indexed control points whenever the project changes, and
+     * indexed groups when a project is loaded. Groups of the current
+     * project are only changed through {@link GroupIndex}.
+     */
+    private class ProjectChangeListener implements IMessageListener<EventType> {
+
+	@Override
+	public EnumSet<EventType> getSubscribedEventTypes() {
+	    return EnumSet.of(EventType.PROJECT_MODIFIED, EventType.PROJECT_LOADED);
+	}
+
+	@Override
+	public void processMessage(EventType eventType, Object... params) {
+	    controlPointIndex.invalidate();
+	    if (eventType == EventType.PROJECT_LOADED) {
+		groupIndex.invalidate();
+	    }
+	}
+    }
+
+    /**
+     * Merges repaints into one that redraws only invalidated components if
+     * all of them were incremental, or everything otherwise.
+     */
+    private static class RepaintCoalescer implements IMessageCoalescer {
+
+	@Override
+	public Object[] merge(Object[] pending, Object[] params) {
+	    return new Object[] { isIncremental(pending) && isIncremental(params) };
+	}
+
+	private static boolean isIncremental(Object[] params) {
+	    return params.length > 0 && Boolean.TRUE.equals(params[0]);
+	}
+    }
+
+    /**
+     * Updates recent files when the project is saved and reports failed
+     * saves. Backups are not reported.
+     */
+    private class SaveListener implements IMessageListener<EventType> {
+
+	@Override
+	public EnumSet<EventType> getSubscribedEventTypes() {
+	    return EnumSet.of(EventType.SAVE_COMPLETED, EventType.SAVE_FAILED);
+	}
+
+	@Override
+	public void processMessage(EventType eventType, Object... params) {
+	    String fileName = (String) params[0];
+	    if ((Boolean) params[1]) {
+		return;
+	    }
+	    if (eventType == EventType.SAVE_COMPLETED) {
 		addToRecentFiles(fileName);
-	} catch (Exception ex) {
-	    LOG.error("Could not save file", ex);
-	    if (!isBackup) {
-		view.showMessage("Could not save file " + fileName + ". Check the log for details.", "Error",
-				 IView.ERROR_MESSAGE);
+	    } else {
+		view.showMessage("Could not save file " + fileName + ". Check the log for details.",
+				 "Error", IView.ERROR_MESSAGE);
 	    }
 	}
     }
 
+    /**
+     * @return image of the whole project that fits into a square of
+     *         {@link ProjectContainer#THUMBNAIL_SIZE} pixels.
+     */
+    private BufferedImage createThumbnail() {
+	Dimension d = getCanvasDimensions(false, false);
+	double zoomRatio = Math.min((double) ProjectContainer.THUMBNAIL_SIZE / d.width,
+				    (double) ProjectContainer.THUMBNAIL_SIZE / d.height);
+	BufferedImage thumbnail = new BufferedImage(Math.max(1, (int) (d.width * zoomRatio)),
+						    Math.max(1, (int) (d.height * zoomRatio)), BufferedImage.TYPE_INT_RGB);
+	Graphics2D g2d = thumbnail.createGraphics();
+	try {
+	    g2d.setColor(Color.white);
+	    g2d.fillRect(0, 0, thumbnail.getWidth(), thumbnail.getHeight());
+	    draw(g2d, EnumSet.of(DrawOption.ANTIALIASING), null, zoomRatio);
+	} finally {
+	    g2d.dispose();
+	}
+	return thumbnail;
+    }
+
     @Override
     public String getCurrentFileName() {
 	return projectFileManager.getCurrentFileName();
@@ -409,6 +534,7 @@ public class Presenter implements IPlugInPort {
 	LOG.info("getComponentTypes()");
 	if (componentTypes == null) {
 	    LOG.info("Loading component types.");
+	    long start = System.currentTimeMillis();
 	    componentTypes = new HashMap<String, List<ComponentType>>();
 	    Set<Class<?>> componentTypeClasses = null;
 	    try {
@@ -450,6 +576,7 @@ public class Presenter implements IPlugInPort {
 		for (Map.Entry<String, List<ComponentType>> e : componentTypes.entrySet()) {
 		    LOG.debug(e.getKey() + ": " + e.getValue());
 		}
+		LOG.info("Loaded component types in " + (System.currentTimeMillis() - start) + " ms");
 	    } catch (Exception e) {
 		LOG.error("Error loading component types", e);
 	    }
@@ -492,7 +619,7 @@ public class Presenter implements IPlugInPort {
 	Set<IDIYComponent<?>> groupedComponents = new HashSet<IDIYComponent<?>>();
 	for (IDIYComponent<?> component : currentProject.getComponents()) {
 	    // Only try to draw control points of ungrouped components.
-	    if (findAllGroupedComponents(component).size() > 1) {
+	    if (groupIndex.isGrouped(currentProject, component)) {
 		groupedComponents.add(component);
 	    }
 	}
@@ -584,7 +711,7 @@ public class Presenter implements IPlugInPort {
 		// Keep the reference to component type for later.
 		ComponentType componentTypeSlot = instantiationManager.getComponentTypeSlot();
 		Template template = instantiationManager.getTemplate();
-		Project oldProject = currentProject.clone();
+		Project oldProject = snapshotter.takeSnapshot(currentProject);
 		switch (componentTypeSlot.getCreationMethod()) {
 		case SINGLE_CLICK:
 		    try {
@@ -600,7 +727,7 @@ public class Presenter implements IPlugInPort {
 			// group components if there's more than one, e.g. building blocks, but not clipboard
 			// contents
 			if (componentSlot.size() > 1 && !componentTypeSlot.getName().toLowerCase().contains("clipboard")) {
-			    this.currentProject.getGroups().add(new HashSet<IDIYComponent<?>>(componentSlot));
+			    groupIndex.addGroup(currentProject, new HashSet<IDIYComponent<?>>(componentSlot));
 			}
 			// Select the new component
 			// messageDispatcher.dispatchMessage(EventType.SELECTION_CHANGED,
@@ -649,8 +776,9 @@ public class Presenter implements IPlugInPort {
 		    LOG.error("Unknown creation method: " + componentTypeSlot.getCreationMethod());
 		}
 		// Notify the listeners.
-		if (!oldProject.equals(currentProject)) {
-		    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, currentProject.clone(), "Add "
+		Project newProject = snapshotter.takeSnapshot(currentProject);
+		if (newProject != oldProject) {
+		    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, newProject, "Add "
 						      + componentTypeSlot.getName());
 		    drawingManager.clearContinuityArea();
 		    projectFileManager.notifyFileChange();
@@ -758,20 +886,20 @@ public class Presenter implements IPlugInPort {
 	if (altDown) {
 	    Project oldProject = null;
 	    if (key == IKeyProcessor.VK_RIGHT) {
-		oldProject = currentProject.clone();
+		oldProject = snapshotter.takeSnapshot(currentProject);
 		rotateComponents(this.selectedComponents, 1, snapToGrid);
 	    } else if (key == IKeyProcessor.VK_LEFT) {
-		oldProject = currentProject.clone();
+		oldProject = snapshotter.takeSnapshot(currentProject);
 		rotateComponents(this.selectedComponents, -1, snapToGrid);
 	    } else if (key == IKeyProcessor.VK_H) {
-		oldProject = currentProject.clone();
+		oldProject = snapshotter.takeSnapshot(currentProject);
 		mirrorComponents(this.selectedComponents, IComponentTransformer.HORIZONTAL, snapToGrid);
 	    } else if (key == IKeyProcessor.VK_V) {
-		oldProject = currentProject.clone();
+		oldProject = snapshotter.takeSnapshot(currentProject);
 		mirrorComponents(this.selectedComponents, IComponentTransformer.VERTICAL, snapToGrid);
 	    } else
 		return false;
-	    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, currentProject.clone(),
+	    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, snapshotter.takeSnapshot(currentProject),
 					      "Rotate Selection");
 	    messageDispatcher.dispatchMessage(EventType.REPAINT);
 	    drawingManager.clearContinuityArea();
@@ -813,10 +941,11 @@ public class Presenter implements IPlugInPort {
 	    return false;
 	}
 
-	Project oldProject = currentProject.clone();
+	Project oldProject = snapshotter.takeSnapshot(currentProject);
 	moveComponents(controlPointMap, dx, dy, snapToGrid);
-	messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, currentProject.clone(), "Move Selection");
-	messageDispatcher.dispatchMessage(EventType.REPAINT);
+	messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, snapshotter.takeSnapshot(currentProject),
+					  "Move Selection");
+	messageDispatcher.dispatchMessage(EventType.REPAINT, true);
 	return true;
     }
 
@@ -875,25 +1004,23 @@ public class Presenter implements IPlugInPort {
 	    if (refresh) {
 		messageDispatcher.dispatchMessage(EventType.REPAINT);
 	    }
-	} else {
-	    // Go backwards so we take the highest z-order components first.
-	    for (int i = currentProject.getComponents().size() - 1; i >= 0; i--) {
-		IDIYComponent<?> component = currentProject.getComponents().get(i);
-		for (int pointIndex = 0; pointIndex < component.getControlPointCount(); pointIndex++) {
-		    Point controlPoint = component.getControlPoint(pointIndex);
-		    // Only consider selected components that are not grouped.
-		    if (selectedComponents.contains(component) && component.canPointMoveFreely(pointIndex)
-			&& findAllGroupedComponents(component).size() == 1) {
-			try {
-			    if (previousScaledPoint.distance(controlPoint) < DrawingManager.CONTROL_POINT_SIZE) {
-				Set<Integer> indices = new HashSet<Integer>();
-				indices.add(pointIndex);
-				components.put(component, indices);
-				break;
-			    }
-			} catch (Exception e) {
-			    LOG.warn("Error reading control point for component of type: " + component.getClass().getName());
+	} else if (!selectedComponents.isEmpty()) {
+	    for (ControlPoint controlPoint : controlPointIndex.findPointsNear(currentProject, previousScaledPoint)) {
+		IDIYComponent<?> component = controlPoint.getComponent();
+		int pointIndex = controlPoint.getIndex();
+		// Only consider selected components that are not grouped.
+		if (selectedComponents.contains(component) && component.canPointMoveFreely(pointIndex)) {
+		    Set<Integer> indices = components.get(component);
+		    if (indices == null) {
+			if (!groupIndex.isGrouped(currentProject, component)) {
+			    indices = new HashSet<Integer>();
+			    indices.add(pointIndex);
+			    components.put(component, indices);
 			}
+		    } else if (pointIndex < indices.iterator().next()) {
+			// Take the first matching point of each component.
+			indices.clear();
+			indices.add(pointIndex);
 		    }
 		}
 	    }
@@ -1018,9 +1145,10 @@ public class Presenter implements IPlugInPort {
 	int dx = (int) xOffset.convertToPixels();
 	int dy = (int) yOffset.convertToPixels();
 
-	Project oldProject = currentProject.clone();
+	Project oldProject = snapshotter.takeSnapshot(currentProject);
 	moveComponents(controlPointMap, dx, dy, false);
-	messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, currentProject.clone(), "Move Selection");
+	messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, snapshotter.takeSnapshot(currentProject),
+					  "Move Selection");
 	messageDispatcher.dispatchMessage(EventType.REPAINT);
 	drawingManager.clearContinuityArea();
     }
@@ -1035,6 +1163,11 @@ public class Presenter implements IPlugInPort {
 	return RECENT_VERSIONS;
     }
 
+    @Override
+    public DispatchStatistics<EventType> getDispatchStatistics() {
+	return messageDispatcher.getStatistics();
+    }
+
     @Override
     public void dragStarted(Point point, int dragAction, boolean forceSelectionRect) {
 	LOG.debug(String.format("dragStarted(%s, %s)", point, dragAction));
@@ -1050,7 +1183,7 @@ public class Presenter implements IPlugInPort {
 	}
 	this.dragInProgress = true;
 	this.dragAction = dragAction;
-	this.preDragProject = currentProject.clone();
+	this.preDragProject = snapshotter.takeSnapshot(currentProject);
 	Point scaledPoint = scalePoint(point);
 	this.previousDragPoint = scaledPoint;
 	List<IDIYComponent<?>> components = forceSelectionRect ? null : findComponentsAtScaled(scaledPoint);
@@ -1118,66 +1251,49 @@ public class Presenter implements IPlugInPort {
      * @param controlPointMap
      */
     private void includeStuckComponents(Map<IDIYComponent<?>, Set<Integer>> controlPointMap) {
-	int oldSize = controlPointMap.size();
 	LOG.trace("Expanding selected component map");
-	for (IDIYComponent<?> component : currentProject.getComponents()) {
-	    // Check if there's a control point in the current selection
-	    // that matches with one of its control points.
-	    for (int i = 0; i < component.getControlPointCount(); i++) {
+	// Sticky points whose neighborhood hasn't been checked yet.
+	Deque<ControlPoint> pending = new ArrayDeque<ControlPoint>();
+	for (Map.Entry<IDIYComponent<?>, Set<Integer>> entry : controlPointMap.entrySet()) {
+	    for (Integer j : entry.getValue()) {
+		if (entry.getKey().isControlPointSticky(j)) {
+		    pending.add(new ControlPoint(entry.getKey(), j, true));
+		}
+	    }
+	}
+	while (!pending.isEmpty()) {
+	    ControlPoint point = pending.poll();
+	    Point location = point.getComponent().getControlPoint(point.getIndex());
+	    // Points that are close enough are considered matched.
+	    for (ControlPoint stuck : controlPointIndex.findPointsNear(currentProject, location)) {
+		IDIYComponent<?> component = stuck.getComponent();
+		Set<Integer> indices = controlPointMap.get(component);
 		// Do not process a control point if it's already in the map and
 		// if it's locked.
-		if ((!controlPointMap.containsKey(component) || !controlPointMap.get(component).contains(i))
-		    && !isComponentLocked(component) && isComponentVisible(component)) {
-		    if (component.isControlPointSticky(i)) {
-			boolean componentMatches = false;
-			for (Map.Entry<IDIYComponent<?>, Set<Integer>> entry : controlPointMap.entrySet()) {
-			    if (componentMatches) {
-				break;
-			    }
-			    for (Integer j : entry.getValue()) {
-				Point firstPoint = component.getControlPoint(i);
-				if (entry.getKey().isControlPointSticky(j)) {
-				    Point secondPoint = entry.getKey().getControlPoint(j);
-				    // If they are close enough we can consider
-				    // them matched.
-				    if (firstPoint.distance(secondPoint) < DrawingManager.CONTROL_POINT_SIZE) {
-					componentMatches = true;
-					break;
-				    }
-				}
-			    }
-			}
-			if (componentMatches) {
-			    LOG.trace("Including component: " + component);
-			    Set<Integer> indices = new HashSet<Integer>();
-			    // For stretchable components just add the
-			    // matching component. Otherwise, add all control
-			    // points.
-			    if (component.canPointMoveFreely(i)) {
-				indices.add(i);
-			    } else {
-				for (int k = 0; k < component.getControlPointCount(); k++) {
-				    indices.add(k);
-				}
-			    }
-			    if (controlPointMap.containsKey(component)) {
-				controlPointMap.get(component).addAll(indices);
-			    } else {
-				controlPointMap.put(component, indices);
-			    }
+		if (!stuck.isSticky() || (indices != null && indices.contains(stuck.getIndex()))
+		    || isComponentLocked(component) || !isComponentVisible(component)) {
+		    continue;
+		}
+		LOG.trace("Including component: " + component);
+		if (indices == null) {
+		    indices = new HashSet<Integer>();
+		    controlPointMap.put(component, indices);
+		}
+		// For stretchable components just add the matching point.
+		// Otherwise, add all control points.
+		if (component.canPointMoveFreely(stuck.getIndex())) {
+		    indices.add(stuck.getIndex());
+		    pending.add(stuck);
+		} else {
+		    for (int k = 0; k < component.getControlPointCount(); k++) {
+			if (indices.add(k) && component.isControlPointSticky(k)) {
+			    pending.add(new ControlPoint(component, k, true));
 			}
 		    }
 		}
 	    }
 	}
-	int newSize = controlPointMap.size();
-	// As long as we're adding new components, do another iteration.
-	if (newSize > oldSize) {
-	    LOG.trace("Component count changed, trying one more time.");
-	    includeStuckComponents(controlPointMap);
-	} else {
-	    LOG.trace("Component count didn't change, done with expanding.");
-	}
+	LOG.trace("Done with expanding.");
     }
 
     private boolean isSnapToGrid() {
@@ -1203,6 +1319,9 @@ public class Presenter implements IPlugInPort {
 		return true;
 
 	    previousDragPoint.translate(actualD.x, actualD.y);
+	    // Only the moved components need to be repainted.
+	    messageDispatcher.dispatchMessage(EventType.REPAINT, true);
+	    return true;
 	} else if (selectedComponents.isEmpty() && instantiationManager.getComponentTypeSlot() == null
 		   && previousDragPoint != null) {
 	    // If there's no selection, the only thing to do is update the
@@ -1303,6 +1422,7 @@ public class Presenter implements IPlugInPort {
 		p.translate(actualDx, actualDy);
 		c.setControlPoint(p, index);
 	    }
+	    controlPointIndex.update(c);
 	}
 	return new Point(actualDx, actualDy);
     }
@@ -1311,9 +1431,9 @@ public class Presenter implements IPlugInPort {
     public void rotateSelection(int direction) {
 	if (!selectedComponents.isEmpty()) {
 	    LOG.trace("Rotating selected components");
-	    Project oldProject = currentProject.clone();
+	    Project oldProject = snapshotter.takeSnapshot(currentProject);
 	    rotateComponents(this.selectedComponents, direction, isSnapToGrid());
-	    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, currentProject.clone(),
+	    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, snapshotter.takeSnapshot(currentProject),
 					      "Rotate Selection");
 	    drawingManager.clearContinuityArea();
 	    messageDispatcher.dispatchMessage(EventType.REPAINT);
@@ -1419,11 +1539,11 @@ public class Presenter implements IPlugInPort {
     public void mirrorSelection(int direction) {
 	if (!selectedComponents.isEmpty()) {
 	    LOG.trace("Mirroring selected components");
-	    Project oldProject = currentProject.clone();
+	    Project oldProject = snapshotter.takeSnapshot(currentProject);
 
 	    mirrorComponents(selectedComponents, direction, isSnapToGrid());
 
-	    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, currentProject.clone(),
+	    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, snapshotter.takeSnapshot(currentProject),
 					      "Mirror Selection");
 	    messageDispatcher.dispatchMessage(EventType.REPAINT);
 	    drawingManager.clearContinuityArea();
@@ -1537,7 +1657,7 @@ public class Presenter implements IPlugInPort {
 	    // messageDispatcher.dispatchMessage(EventType.SELECTION_SIZE_CHANGED,
 	    // calculateSelectionDimension());
 	} else if (instantiationManager.getComponentSlot() != null) {
-	    preDragProject = currentProject.clone();
+	    preDragProject = snapshotter.takeSnapshot(currentProject);
 	    addPendingComponentsToProject(scaledPoint, instantiationManager.getComponentTypeSlot(), null);
 	} else {
 	    updateSelection(selectedComponents);
@@ -1545,8 +1665,9 @@ public class Presenter implements IPlugInPort {
 	// There is selection, so we need to finalize the drag&drop
 	// operation.
 
-	if (!preDragProject.equals(currentProject)) {
-	    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, preDragProject, currentProject.clone(), "Drag");
+	Project newProject = snapshotter.takeSnapshot(currentProject);
+	if (newProject != preDragProject) {
+	    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, preDragProject, newProject, "Drag");
 	    drawingManager.clearContinuityArea();
 	    projectFileManager.notifyFileChange();
 	}
@@ -1572,7 +1693,7 @@ public class Presenter implements IPlugInPort {
 	    LOG.debug("Nothing to duplicate");
 	    return;
 	}
-	Project oldProject = currentProject.clone();
+	Project oldProject = snapshotter.takeSnapshot(currentProject);
 	Set<IDIYComponent<?>> newSelection = new HashSet<IDIYComponent<?>>();
 
 	int grid = (int) currentProject.getGridSpacing().convertToPixels();
@@ -1596,7 +1717,8 @@ public class Presenter implements IPlugInPort {
 
 	updateSelection(newSelection);
 
-	messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, currentProject.clone(), "Duplicate");
+	messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, snapshotter.takeSnapshot(currentProject),
+					  "Duplicate");
 	drawingManager.clearContinuityArea();
 	projectFileManager.notifyFileChange();
 	messageDispatcher.dispatchMessage(EventType.REPAINT);
@@ -1609,7 +1731,7 @@ public class Presenter implements IPlugInPort {
 	    LOG.debug("Nothing to delete");
 	    return;
 	}
-	Project oldProject = currentProject.clone();
+	Project oldProject = snapshotter.takeSnapshot(currentProject);
 	// Remove selected components from any groups.
 	ungroupComponents(selectedComponents);
 	// Remove from area map.
@@ -1617,7 +1739,8 @@ public class Presenter implements IPlugInPort {
 	    drawingManager.invalidateComponent(component);
 	}
 	currentProject.getComponents().removeAll(selectedComponents);
-	messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, currentProject.clone(), "Delete");
+	messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, snapshotter.takeSnapshot(currentProject),
+					  "Delete");
 	drawingManager.clearContinuityArea();
 	projectFileManager.notifyFileChange();
 	updateSelection(EMPTY_SELECTION);
@@ -1649,15 +1772,16 @@ public class Presenter implements IPlugInPort {
     @Override
     public void groupSelectedComponents() {
 	LOG.info("groupSelectedComponents()");
-	Project oldProject = currentProject.clone();
+	Project oldProject = snapshotter.takeSnapshot(currentProject);
 	// First remove the selected components from other groups.
 	ungroupComponents(selectedComponents);
 	// Then group them together.
-	currentProject.getGroups().add(new HashSet<IDIYComponent<?>>(selectedComponents));
+	groupIndex.addGroup(currentProject, new HashSet<IDIYComponent<?>>(selectedComponents));
 	// Notify the listeners.
 	messageDispatcher.dispatchMessage(EventType.REPAINT);
-	if (!oldProject.equals(currentProject)) {
-	    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, currentProject.clone(), "Group");
+	Project newProject = snapshotter.takeSnapshot(currentProject);
+	if (newProject != oldProject) {
+	    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, newProject, "Group");
 	    projectFileManager.notifyFileChange();
 	}
     }
@@ -1665,12 +1789,13 @@ public class Presenter implements IPlugInPort {
     @Override
     public void ungroupSelectedComponents() {
 	LOG.info("ungroupSelectedComponents()");
-	Project oldProject = currentProject.clone();
+	Project oldProject = snapshotter.takeSnapshot(currentProject);
 	ungroupComponents(selectedComponents);
 	// Notify the listeners.
 	messageDispatcher.dispatchMessage(EventType.REPAINT);
-	if (!oldProject.equals(currentProject)) {
-	    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, currentProject.clone(), "Ungroup");
+	Project newProject = snapshotter.takeSnapshot(currentProject);
+	if (newProject != oldProject) {
+	    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, newProject, "Ungroup");
 	    projectFileManager.notifyFileChange();
 	}
     }
@@ -1678,7 +1803,7 @@ public class Presenter implements IPlugInPort {
     @Override
     public void setLayerLocked(int layerZOrder, boolean locked) {
 	LOG.info(String.format("setLayerLocked(%s, %s)", layerZOrder, locked));
-	Project oldProject = currentProject.clone();
+	Project oldProject = snapshotter.takeSnapshot(currentProject);
 	if (locked) {
 	    currentProject.getLockedLayers().add(layerZOrder);
 	} else {
@@ -1687,8 +1812,9 @@ public class Presenter implements IPlugInPort {
 	updateSelection(EMPTY_SELECTION);
 	messageDispatcher.dispatchMessage(EventType.REPAINT);
 	messageDispatcher.dispatchMessage(EventType.LAYER_STATE_CHANGED, currentProject.getLockedLayers());
-	if (!oldProject.equals(currentProject)) {
-	    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, currentProject.clone(),
+	Project newProject = snapshotter.takeSnapshot(currentProject);
+	if (newProject != oldProject) {
+	    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, newProject,
 					      locked ? "Lock Layer" : "Unlock Layer");
 	    projectFileManager.notifyFileChange();
 	}
@@ -1697,7 +1823,7 @@ public class Presenter implements IPlugInPort {
     @Override
     public void setLayerVisibility(int layerZOrder, boolean visible) {
 	LOG.info(String.format("setLayerVisibility(%s, %s)", layerZOrder, visible));
-	Project oldProject = currentProject.clone();
+	Project oldProject = snapshotter.takeSnapshot(currentProject);
 	if (visible) {
 	    currentProject.getHiddenLayers().remove(layerZOrder);
 	} else {
@@ -1706,8 +1832,9 @@ public class Presenter implements IPlugInPort {
 	updateSelection(EMPTY_SELECTION);
 	messageDispatcher.dispatchMessage(EventType.REPAINT);
 	messageDispatcher.dispatchMessage(EventType.LAYER_VISIBILITY_CHANGED, currentProject.getHiddenLayers());
-	if (!oldProject.equals(currentProject)) {
-	    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, currentProject.clone(),
+	Project newProject = snapshotter.takeSnapshot(currentProject);
+	if (newProject != oldProject) {
+	    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, newProject,
 					      visible ? "Show Layer" : "Hide Layer");
 	    projectFileManager.notifyFileChange();
 	}
@@ -1718,7 +1845,7 @@ public class Presenter implements IPlugInPort {
     public void sendSelectionToBack() {
 	LOG.info("sendSelectionToBack()");
 	int forceConfirmation = -1;
-	Project oldProject = currentProject.clone();
+	Project oldProject = snapshotter.takeSnapshot(currentProject);
 
 	// sort the selection in the reversed Z-order to preserve the order after moving to the back
 	List<IDIYComponent<?>> selection = new ArrayList<IDIYComponent<?>>(selectedComponents);
@@ -1759,8 +1886,9 @@ public class Presenter implements IPlugInPort {
 		    index--;
 		}
 	}
-	if (!oldProject.equals(currentProject)) {
-	    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, currentProject.clone(), "Send to Back");
+	Project newProject = snapshotter.takeSnapshot(currentProject);
+	if (newProject != oldProject) {
+	    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, newProject, "Send to Back");
 	    projectFileManager.notifyFileChange();
 	    messageDispatcher.dispatchMessage(EventType.REPAINT);
 	}
@@ -1771,7 +1899,7 @@ public class Presenter implements IPlugInPort {
     public void bringSelectionToFront() {
 	LOG.info("bringSelectionToFront()");
 	int forceConfirmation = -1;
-	Project oldProject = currentProject.clone();
+	Project oldProject = snapshotter.takeSnapshot(currentProject);
 
 	// sort the selection in Z-order
 	List<IDIYComponent<?>> selection = new ArrayList<IDIYComponent<?>>(selectedComponents);
@@ -1812,8 +1940,9 @@ public class Presenter implements IPlugInPort {
 		    index++;
 		}
 	}
-	if (!oldProject.equals(currentProject)) {
-	    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, currentProject.clone(),
+	Project newProject = snapshotter.takeSnapshot(currentProject);
+	if (newProject != oldProject) {
+	    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, newProject,
 					      "Bring to Front");
 	    projectFileManager.notifyFileChange();
 	    messageDispatcher.dispatchMessage(EventType.REPAINT);
@@ -1843,7 +1972,7 @@ public class Presenter implements IPlugInPort {
 	if (getSelectedComponents().isEmpty()) {
 	    return;
 	}
-	Project oldProject = currentProject.clone();
+	Project oldProject = snapshotter.takeSnapshot(currentProject);
 	List<IDIYComponent<?>> components = new ArrayList<IDIYComponent<?>>(getSelectedComponents());
 	// Sort components by their location.
 	Collections.sort(components, new Comparator<IDIYComponent<?>>() {
@@ -1906,7 +2035,7 @@ public class Presenter implements IPlugInPort {
 								    .getComponents()));
 	}
 
-	messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, currentProject.clone(),
+	messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, snapshotter.takeSnapshot(currentProject),
 					  "Renumber selection");
 	projectFileManager.notifyFileChange();
 	messageDispatcher.dispatchMessage(EventType.REPAINT);
@@ -1999,14 +2128,7 @@ public class Presenter implements IPlugInPort {
      * @param components
      */
     private void ungroupComponents(Collection<IDIYComponent<?>> components) {
-	Iterator<Set<IDIYComponent<?>>> groupIterator = currentProject.getGroups().iterator();
-	while (groupIterator.hasNext()) {
-	    Set<IDIYComponent<?>> group = groupIterator.next();
-	    group.removeAll(components);
-	    if (group.isEmpty()) {
-		groupIterator.remove();
-	    }
-	}
+	groupIndex.ungroup(currentProject, components);
     }
 
     /**
@@ -2020,11 +2142,9 @@ public class Presenter implements IPlugInPort {
     private Set<IDIYComponent<?>> findAllGroupedComponents(IDIYComponent<?> component) {
 	Set<IDIYComponent<?>> components = new HashSet<IDIYComponent<?>>();
 	components.add(component);
-	for (Set<IDIYComponent<?>> group : currentProject.getGroups()) {
-	    if (group.contains(component)) {
-		components.addAll(group);
-		break;
-	    }
+	Set<IDIYComponent<?>> group = groupIndex.getGroup(currentProject, component);
+	if (group != null) {
+	    components.addAll(group);
 	}
 	return components;
     }
@@ -2114,7 +2234,7 @@ public class Presenter implements IPlugInPort {
 
     private void applyPropertiesToSelection(List<PropertyWrapper> properties) {
 	LOG.debug(String.format("applyPropertiesToSelection(%s)", properties));
-	Project oldProject = currentProject.clone();
+	Project oldProject = snapshotter.takeSnapshot(currentProject);
 	try {
 	    for (IDIYComponent<?> component : selectedComponents) {
 		drawingManager.invalidateComponent(component);
@@ -2130,8 +2250,9 @@ public class Presenter implements IPlugInPort {
 			     IView.ERROR_MESSAGE);
 	} finally {
 	    // Notify the listeners.
-	    if (!oldProject.equals(currentProject)) {
-		messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, currentProject.clone(),
+	    Project newProject = snapshotter.takeSnapshot(currentProject);
+	    if (newProject != oldProject) {
+		messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, newProject,
 						  "Edit Selection");
 		drawingManager.clearContinuityArea();
 		projectFileManager.notifyFileChange();
@@ -2158,7 +2279,7 @@ public class Presenter implements IPlugInPort {
     @Override
     public void applyProperties(Object obj, List<PropertyWrapper> properties) {
 	LOG.debug(String.format("applyProperties(%s, %s)", obj, properties));
-	Project oldProject = currentProject.clone();
+	Project oldProject = snapshotter.takeSnapshot(currentProject);
 	try {
 	    for (PropertyWrapper property : properties) {
 		property.writeTo(obj);
@@ -2168,12 +2289,17 @@ public class Presenter implements IPlugInPort {
 	    view.showMessage("Could not apply changes. Check the log for details.", "Error", IView.ERROR_MESSAGE);
 	} finally {
 	    // Notify the listeners.
-	    if (!oldProject.equals(currentProject)) {
-		messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, currentProject.clone(),
+	    Project newProject = snapshotter.takeSnapshot(currentProject);
+	    if (newProject != oldProject) {
+		messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, newProject,
 						  "Edit Project");
 		drawingManager.clearContinuityArea();
 		projectFileManager.notifyFileChange();
 	    }
+	    if (obj == currentProject) {
+		// components may draw differently with the new project settings
+		drawingManager.getSpriteCache().clear();
+	    }
 	    drawingManager.fireZoomChanged();
 	}
     }
@@ -2242,17 +2368,9 @@ public class Presenter implements IPlugInPort {
 	ComponentType type =
 	    ComponentProcessor.getInstance().extractComponentTypeFrom(
 								      (Class<? extends IDIYComponent<?>>) component.getClass());
-	Map<String, List<Template>> variantMap =
-	    (Map<String, List<Template>>) ConfigurationManager.getInstance().readObject(TEMPLATES_KEY, null);
-	if (variantMap == null) {
-	    variantMap = new HashMap<String, List<Template>>();
-	}
 	String key = type.getInstanceClass().getCanonicalName();
-	List<Template> variants = variantMap.get(key);
-	if (variants == null) {
-	    variants = new ArrayList<Template>();
-	    variantMap.put(key, variants);
-	}
+	List<Template> variants = getVariantLibrary().get(key);
+	variants = variants == null ? new ArrayList<Template>() : new ArrayList<Template>(variants);
 	List<PropertyWrapper> properties = ComponentProcessor.getInstance().extractProperties(component.getClass());
 	Map<String, Object> values = new HashMap<String, Object>();
 	for (PropertyWrapper property : properties) {
@@ -2306,62 +2424,61 @@ public class Presenter implements IPlugInPort {
 	variants.add(template);
 
 	if (System.getProperty("org.diylc.WriteStaticVariants", "false").equalsIgnoreCase("true")) {
-	    if (defaultVariantMap == null)
-		defaultVariantMap = new HashMap<String, List<Template>>();
+	    Map<String, List<Template>> defaultVariantMap = DefaultVariants.get();
+	    Map<String, List<Template>> variantMap = new HashMap<String, List<Template>>();
+	    for (String typeName : getVariantLibrary().getNames()) {
+		variantMap.put(typeName, getVariantLibrary().get(typeName));
+	    }
+	    variantMap.put(key, variants);
 	    // unify default and user-variants
 	    for (Map.Entry<String, List<Template>> entry : variantMap.entrySet()) {
 		if (defaultVariantMap.containsKey(entry.getKey())) {
 		    defaultVariantMap.get(entry.getKey()).addAll(entry.getValue());
 		} else {
-		    defaultVariantMap.put(entry.getKey(), entry.getValue());
+		    defaultVariantMap.put(entry.getKey(), new ArrayList<Template>(entry.getValue()));
 		}
 	    }
 	    try {
 		Serializer.toFile("variants.xml", defaultVariantMap);
 		// no more user variants
-		ConfigurationManager.getInstance().writeValue(TEMPLATES_KEY, null);
+		for (String typeName : variantMap.keySet()) {
+		    getVariantLibrary().remove(typeName);
+		}
 		LOG.info("Saved default variants");
 	    } catch (IOException e) {
 		LOG.error("Could not save default variants", e);
 	    }
 	} else {
-	    ConfigurationManager.getInstance().writeValue(TEMPLATES_KEY, variantMap);
+	    try {
+		getVariantLibrary().put(key, variants);
+	    } catch (IOException e) {
+		LOG.error("Could not save variant " + variantName, e);
+		view.showMessage("Could not save variant. Check the log for details.", "Error", IView.ERROR_MESSAGE);
+	    }
 	}
+	messageDispatcher.dispatchMessage(EventType.VARIANTS_CHANGED);
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public List<Template> getVariantsFor(ComponentType type) {
-	Map<String, List<Template>> lookupMap =
-	    new TreeMap<String, List<Template>>(String.CASE_INSENSITIVE_ORDER);
-
-	LOG.info("Getting variant map from [" + TEMPLATES_KEY + "]");
-	Map<String, List<Template>> variantMap =
-	    (Map<String, List<Template>>) ConfigurationManager.getInstance().readObject(TEMPLATES_KEY, null);
-	if (variantMap != null)
-	    lookupMap.putAll(variantMap);
-
 	// try by class name and then by old category.type format
 	String key1 = type.getInstanceClass().getCanonicalName();
 	String key2 = type.getCategory() + "." + type.getName();
 
 	List<Template> variants = new ArrayList<Template>();
-	if (variantMap != null) {
-	    List<Template> userVariants = variantMap.get(key1);
-	    if (userVariants != null && !userVariants.isEmpty())
-		variants.addAll(userVariants);
-	    userVariants = variantMap.get(key2);
-	    if (userVariants != null && !userVariants.isEmpty())
-		variants.addAll(userVariants);
-	}
-	if (defaultVariantMap != null) {
-	    List<Template> defaultVariants = defaultVariantMap.get(key1);
-	    if (defaultVariants != null && !defaultVariants.isEmpty())
-		variants.addAll(defaultVariants);
-	    defaultVariants = defaultVariantMap.get(key2);
-	    if (defaultVariants != null && !defaultVariants.isEmpty())
-		variants.addAll(defaultVariants);
-	}
+	List<Template> userVariants = getVariantLibrary().get(key1);
+	if (userVariants != null && !userVariants.isEmpty())
+	    variants.addAll(userVariants);
+	userVariants = getVariantLibrary().get(key2);
+	if (userVariants != null && !userVariants.isEmpty())
+	    variants.addAll(userVariants);
+	Map<String, List<Template>> defaultVariantMap = DefaultVariants.get();
+	List<Template> defaultVariants = defaultVariantMap.get(key1);
+	if (defaultVariants != null && !defaultVariants.isEmpty())
+	    variants.addAll(defaultVariants);
+	defaultVariants = defaultVariantMap.get(key2);
+	if (defaultVariants != null && !defaultVariants.isEmpty())
+	    variants.addAll(defaultVariants);
 	Collections.sort(variants, new Comparator<Template>() {
 
 		@Override
@@ -2396,7 +2513,7 @@ public class Presenter implements IPlugInPort {
     public void applyVariantToSelection(Template template) {
 	LOG.debug(String.format("applyTemplateToSelection(%s)", template.getName()));
 
-	Project oldProject = currentProject.clone();
+	Project oldProject = snapshotter.takeSnapshot(currentProject);
 
 	for (IDIYComponent<?> component : this.selectedComponents) {
 	    try {
@@ -2409,8 +2526,9 @@ public class Presenter implements IPlugInPort {
 	}
 
 	// Notify the listeners.
-	if (!oldProject.equals(currentProject)) {
-	    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, currentProject.clone(),
+	Project newProject = snapshotter.takeSnapshot(currentProject);
+	if (newProject != oldProject) {
+	    messageDispatcher.dispatchMessage(EventType.PROJECT_MODIFIED, oldProject, newProject,
 					      "Edit Selection");
 	    drawingManager.clearContinuityArea();
 	    projectFileManager.notifyFileChange();
@@ -2418,39 +2536,47 @@ public class Presenter implements IPlugInPort {
 	messageDispatcher.dispatchMessage(EventType.REPAINT);
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public void deleteVariant(ComponentType type, String templateName) {
 	LOG.debug(String.format("deleteTemplate(%s, %s)", type, templateName));
-	Map<String, List<Template>> templateMap =
-	    (Map<String, List<Template>>) ConfigurationManager.getInstance().readObject(TEMPLATES_KEY, null);
-	if (templateMap != null) {
-	    // try by class name and then by old category.type format
-	    String key1 = type.getInstanceClass().getCanonicalName();
-	    String key2 = type.getCategory() + "." + type.getName();
-
-	    List<Template> templates = templateMap.get(key1);
-	    if (templates != null) {
-		Iterator<Template> i = templates.iterator();
-		while (i.hasNext()) {
-		    Template t = i.next();
-		    if (t.getName().equalsIgnoreCase(templateName)) {
-			i.remove();
-		    }
+	// try by class name and then by old category.type format
+	String key1 = type.getInstanceClass().getCanonicalName();
+	String key2 = type.getCategory() + "." + type.getName();
+
+	for (String key : new String[] { key1, key2 }) {
+	    List<Template> templates = getVariantLibrary().get(key);
+	    if (templates == null)
+		continue;
+	    templates = new ArrayList<Template>(templates);
+	    Iterator<Template> i = templates.iterator();
+	    while (i.hasNext()) {
+		Template t = i.next();
+		if (t.getName().equalsIgnoreCase(templateName)) {
+		    i.remove();
 		}
 	    }
-	    templates = templateMap.get(key2);
-	    if (templates != null) {
-		Iterator<Template> i = templates.iterator();
-		while (i.hasNext()) {
-		    Template t = i.next();
-		    if (t.getName().equalsIgnoreCase(templateName)) {
-			i.remove();
-		    }
+	    if (templates.isEmpty()) {
+		getVariantLibrary().remove(key);
+	    } else {
+		try {
+		    getVariantLibrary().put(key, templates);
+		} catch (IOException e) {
+		    LOG.error("Could not delete variant " + templateName, e);
+		    view.showMessage("Could not delete variant. Check the log for details.", "Error", IView.ERROR_MESSAGE);
 		}
 	    }
 	}
-	ConfigurationManager.getInstance().writeValue(TEMPLATES_KEY, templateMap);
+	messageDispatcher.dispatchMessage(EventType.VARIANTS_CHANGED);
+    }
+
+    @Override
+    public List<String> getUserVariantTypes() {
+	return getVariantLibrary().getNames();
+    }
+
+    @Override
+    public List<Template> getUserVariantsFor(String typeName) {
+	return getVariantLibrary().get(typeName);
     }
 
     @SuppressWarnings("unchecked")
@@ -2530,14 +2656,9 @@ public class Presenter implements IPlugInPort {
 	return p;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public void saveSelectionAsBlock(String blockName) {
 	LOG.debug(String.format("saveSelectionAsBlock(%s)", blockName));
-	Map<String, List<IDIYComponent<?>>> blocks =
-	    (Map<String, List<IDIYComponent<?>>>) ConfigurationManager.getInstance().readObject(BLOCKS_KEY, null);
-	if (blocks == null)
-	    blocks = new HashMap<String, List<IDIYComponent<?>>>();
 	List<IDIYComponent<?>> blockComponents = new ArrayList<IDIYComponent<?>>(this.selectedComponents);
 	Collections.sort(blockComponents, new Comparator<IDIYComponent<?>>() {
 
@@ -2547,51 +2668,64 @@ public class Presenter implements IPlugInPort {
 											     .indexOf(o2));
 		}
 	    });
-	blocks.put(blockName, blockComponents);
-	ConfigurationManager.getInstance().writeValue(BLOCKS_KEY, blocks);
+	// store copies, the selected components may still change
+	List<IDIYComponent<?>> block = new ArrayList<IDIYComponent<?>>();
+	for (IDIYComponent<?> c : blockComponents)
+	    try {
+		block.add(c.clone());
+	    } catch (CloneNotSupportedException e) {
+		LOG.error("Could not clone component: " + c);
+	    }
+	try {
+	    getBlockLibrary().put(blockName, block);
+	} catch (IOException e) {
+	    LOG.error("Could not save building block " + blockName, e);
+	    view.showMessage("Could not save building block. Check the log for details.", "Error", IView.ERROR_MESSAGE);
+	}
+	messageDispatcher.dispatchMessage(EventType.BLOCKS_CHANGED, getBlockNames());
     }
 
     @SuppressWarnings("unchecked")
     @Override
     public void loadBlock(String blockName) throws InvalidBlockException {
 	LOG.debug(String.format("loadBlock(%s)", blockName));
-	Map<String, List<IDIYComponent<?>>> blocks =
-	    (Map<String, List<IDIYComponent<?>>>) ConfigurationManager.getInstance().readObject(BLOCKS_KEY, null);
-	if (blocks != null) {
-	    Collection<IDIYComponent<?>> components = blocks.get(blockName);
-	    if (components == null)
-		throw new InvalidBlockException();
-	    // clear potential control point every time!
-	    instantiationManager.setPotentialControlPoint(null);
-	    // clone components
-	    List<IDIYComponent<?>> clones = new ArrayList<IDIYComponent<?>>();
-	    List<IDIYComponent<?>> testComponents = new ArrayList<IDIYComponent<?>>(currentProject.getComponents());
-	    for (IDIYComponent<?> c : components)
-		try {
-		    IDIYComponent<?> clone = c.clone();
-		    clone.setName(instantiationManager.createUniqueName(ComponentProcessor.getInstance()
-									.extractComponentTypeFrom((Class<? extends IDIYComponent<?>>) clone.getClass()), testComponents));
-		    testComponents.add(clone);
-		    clones.add(clone);
-		} catch (CloneNotSupportedException e) {
-		    LOG.error("Could not clone component: " + c);
-		}
-	    // paste them to the project
-	    pasteComponents(clones, true);
-	} else
+	Collection<IDIYComponent<?>> components = getBlockLibrary().get(blockName);
+	if (components == null)
 	    throw new InvalidBlockException();
+	// clear potential control point every time!
+	instantiationManager.setPotentialControlPoint(null);
+	// clone components
+	List<IDIYComponent<?>> clones = new ArrayList<IDIYComponent<?>>();
+	List<IDIYComponent<?>> testComponents = new ArrayList<IDIYComponent<?>>(currentProject.getComponents());
+	for (IDIYComponent<?> c : components)
+	    try {
+		IDIYComponent<?> clone = c.clone();
+		clone.setName(instantiationManager.createUniqueName(ComponentProcessor.getInstance()
+								    .extractComponentTypeFrom((Class<? extends IDIYComponent<?>>) clone.getClass()), testComponents));
+		testComponents.add(clone);
+		clones.add(clone);
+	    } catch (CloneNotSupportedException e) {
+		LOG.error("Could not clone component: " + c);
+	    }
+	// paste them to the project
+	pasteComponents(clones, true);
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public void deleteBlock(String blockName) {
 	LOG.debug(String.format("deleteBlock(%s)", blockName));
-	Map<String, List<IDIYComponent<?>>> blocks =
-	    (Map<String, List<IDIYComponent<?>>>) ConfigurationManager.getInstance().readObject(BLOCKS_KEY, null);
-	if (blocks != null) {
-	    blocks.remove(blockName);
-	    ConfigurationManager.getInstance().writeValue(BLOCKS_KEY, blocks);
-	}
+	getBlockLibrary().remove(blockName);
+	messageDispatcher.dispatchMessage(EventType.BLOCKS_CHANGED, getBlockNames());
+    }
+
+    @Override
+    public List<String> getBlockNames() {
+	return getBlockLibrary().getNames();
+    }
+
+    @Override
+    public List<IDIYComponent<?>> getBlock(String blockName) {
+	return getBlockLibrary().get(blockName);
     }
 
     @Override
@@ -2610,7 +2744,6 @@ public class Presenter implements IPlugInPort {
 	return extraSpace;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public int importVariants(String fileName) throws IOException {
 	LOG.debug(String.format("importVariants(%s)", fileName));
@@ -2620,32 +2753,25 @@ public class Presenter implements IPlugInPort {
 	if (pkg == null || pkg.getVariants().isEmpty())
 	    return 0;
 
-	Map<String, List<Template>> variantMap =
-	    (Map<String, List<Template>>) ConfigurationManager.getInstance().readObject(TEMPLATES_KEY, null);
-	if (variantMap == null) {
-	    variantMap = new HashMap<String, List<Template>>();
-	}
+	Map<String, List<Template>> variantMap = new HashMap<String, List<Template>>();
 
 	for (Map.Entry<String, List<Template>> entry : pkg.getVariants().entrySet()) {
-	    List<Template> templates;
-	    templates = variantMap.get(entry.getKey());
-	    if (templates == null) {
-		templates = new ArrayList<Template>();
-		variantMap.put(entry.getKey(), templates);
-	    }
+	    List<Template> templates = getVariantLibrary().get(entry.getKey());
+	    templates = templates == null ? new ArrayList<Template>() : new ArrayList<Template>(templates);
+	    variantMap.put(entry.getKey(), templates);
 	    for (Template t : entry.getValue()) {
 		templates.add(new Template(t.getName() + " [" + pkg.getOwner() + "]", t.getValues(), t.getPoints()));
 	    }
 	}
 
-	ConfigurationManager.getInstance().writeValue(TEMPLATES_KEY, variantMap);
+	getVariantLibrary().putAll(variantMap);
+	messageDispatcher.dispatchMessage(EventType.VARIANTS_CHANGED);
 
 	LOG.info(String.format("Loaded variants for %d components", pkg.getVariants().size()));
 
 	return pkg.getVariants().size();
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public int importBlocks(String fileName) throws IOException {
 	LOG.debug(String.format("importBlocks(%s)", fileName));
@@ -2656,41 +2782,87 @@ public class Presenter implements IPlugInPort {
 	if (pkg == null || pkg.getBlocks().isEmpty())
 	    return 0;
 
-	Map<String, List<IDIYComponent<?>>> blocks =
-	    (Map<String, List<IDIYComponent<?>>>) ConfigurationManager.getInstance().readObject(BLOCKS_KEY, null);
-	if (blocks == null) {
-	    blocks = new HashMap<String, List<IDIYComponent<?>>>();
-	}
+	Map<String, List<IDIYComponent<?>>> blocks = new HashMap<String, List<IDIYComponent<?>>>();
 
 	for (Map.Entry<String, List<IDIYComponent<?>>> entry : pkg.getBlocks().entrySet()) {
 	    blocks.put(entry.getKey() + " [" + pkg.getOwner() + "]", entry.getValue());
 	}
 
-	ConfigurationManager.getInstance().writeValue(BLOCKS_KEY, blocks);
+	getBlockLibrary().putAll(blocks);
+	messageDispatcher.dispatchMessage(EventType.BLOCKS_CHANGED, getBlockNames());
 
 	LOG.info(String.format("Loaded building blocks for %d components", pkg.getBlocks().size()));
 
 	return pkg.getBlocks().size();
     }
 
-    private static boolean upgradedVariants = false;
-
+    /**
+     * @return library of building blocks. Blocks kept in the
+     * configuration file by older versions are moved to the library
+     * the first time it's used. They are removed from the
+     * configuration only once all of them have been written, otherwise
+     * moving them is tried again on the next start.
+     */
     @SuppressWarnings("unchecked")
-    private synchronized void upgradeVariants() {
-	if (upgradedVariants)
-	    return;
+    private static synchronized Library<List<IDIYComponent<?>>> getBlockLibrary() {
+	if (blockLibrary == null) {
+	    blockLibrary = new Library<List<IDIYComponent<?>>>(new File(LIBRARY_PATH + "blocks"), BLOCK_CACHE_SIZE);
+	    if (!blockLibrary.exists()) {
+		Map<String, List<IDIYComponent<?>>> blocks =
+		    (Map<String, List<IDIYComponent<?>>>) ConfigurationManager.getInstance().readObject(BLOCKS_KEY, null);
+		if (blocks == null)
+		    blocks = Collections.emptyMap();
+		LOG.info(String.format("Moving %d building blocks to the library", blocks.size()));
+		try {
+		    blockLibrary.putAll(blocks);
+		    if (!blocks.isEmpty())
+			ConfigurationManager.getInstance().writeValue(BLOCKS_KEY, null);
+		} catch (IOException e) {
+		    LOG.error("Could not move building blocks to the library", e);
+		}
+	    }
+	}
+	return blockLibrary;
+    }
 
-	upgradedVariants = true;
+    /**
+     * @return library of user variants, one item per component
+     * type. Variants kept in the configuration file by older
+     * versions are moved to the library the first time it's used,
+     * with legacy category.type keys replaced by class names. As with
+     * building blocks, they are removed from the configuration only
+     * once all of them have been written.
+     */
+    private Library<List<Template>> getVariantLibrary() {
+	synchronized (Presenter.class) {
+	    if (variantLibrary == null) {
+		variantLibrary = new Library<List<Template>>(new File(LIBRARY_PATH + "variants"), VARIANT_CACHE_SIZE);
+		if (!variantLibrary.exists()) {
+		    try {
+			variantLibrary.putAll(upgradeVariants());
+			if (ConfigurationManager.getInstance().readObject(TEMPLATES_KEY, null) != null)
+			    ConfigurationManager.getInstance().writeValue(TEMPLATES_KEY, null);
+		    } catch (IOException e) {
+			LOG.error("Could not move variants to the library", e);
+		    }
+		}
+	    }
+	    return variantLibrary;
+	}
+    }
 
+    @SuppressWarnings("unchecked")
+    private Map<String, List<Template>> upgradeVariants() {
 	LOG.info("Checking if variants need to be updated using ["
 		 + TEMPLATES_KEY + "]");
-	Map<String, List<Template>> lookupMap =
-	    new TreeMap<String, List<Template>>(String.CASE_INSENSITIVE_ORDER);
 	Map<String, List<Template>> variantMap =
 	    (Map<String, List<Template>>) ConfigurationManager.getInstance().readObject(TEMPLATES_KEY, null);
 
-	if (variantMap == null)
-	    return;
+	Map<String, List<Template>> newVariantMap =
+	    new HashMap<String, List<Template>>();
+
+	if (variantMap == null || variantMap.isEmpty())
+	    return newVariantMap;
 
 	Map<String, ComponentType> typeMap =
 	    new TreeMap<String, ComponentType>(String.CASE_INSENSITIVE_ORDER);
@@ -2708,32 +2880,36 @@ public class Presenter implements IPlugInPort {
 				type);
 	    }
 
-	Map<String, List<Template>> newVariantMap =
-	    new HashMap<String, List<Template>>();
-
-	lookupMap.putAll(variantMap);
-
 	for (Map.Entry<String, List<Template>> entry : variantMap.entrySet()) {
 	    if (typeMap.containsKey(entry.getKey())) {
-		newVariantMap.put(typeMap.get(entry.getKey()).getInstanceClass().getCanonicalName(), entry.getValue()); // great,
-		// nothing
-		// to
-		// upgrade
+		String key = typeMap.get(entry.getKey()).getInstanceClass().getCanonicalName();
+		// variants may be stored under both the old and the new key
+		List<Template> variants = newVariantMap.get(key);
+		if (variants == null) {
+		    variants = new ArrayList<Template>();
+		    newVariantMap.put(key, variants);
+		}
+		variants.addAll(entry.getValue());
 	    } else {
 		LOG.warn("Could not upgrade variants for: " + entry.getKey());
 	    }
 	}
 
-	ConfigurationManager.getInstance().writeValue(TEMPLATES_KEY, newVariantMap);
+	LOG.info(String.format("Moving variants for %d components to the library", newVariantMap.size()));
+	return newVariantMap;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public List<Netlist> extractNetlists(boolean includeSwitches) {
-	Map<Netlist, Netlist> result = new HashMap<Netlist, Netlist>();
-	List<Node> nodes = new ArrayList<Node>();
+	return extractNetlists(includeSwitches, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public List<Netlist> extractNetlists(boolean includeSwitches, final IProgressMonitor monitor) {
+	final List<Node> nodes = new ArrayList<Node>();
 
-	List<ISwitch> switches = new ArrayList<ISwitch>();
+	final List<ISwitch> switches = new ArrayList<ISwitch>();
 
 	for (IDIYComponent<?> c : currentProject.getComponents()) {
 	    ComponentType type =
@@ -2778,189 +2954,138 @@ public class Presenter implements IPlugInPort {
 		    }
 		});
 
-	// construct all possible combinations
-	int[] positions = new int[switches.size()];
-	for (int i = 0; i < switches.size(); i++)
-	    positions[i] = 0;
-
-	// grab continuity areas
-	List<Area> continuity = drawingManager.getContinuityAreas(currentProject);
-
-	int i = switches.size() - 1;
-	while (i >= 0) {
-	    // process the current combination
-	    Map<ISwitch, Integer> switchPositions = new HashMap<ISwitch, Integer>();
-	    List<Position> posList = new ArrayList<Position>();
-	    for (int j = 0; j < positions.length; j++) {
-		switchPositions.put(switches.get(j), positions[j]);
-		posList.add(new Position(switches.get(j), positions[j]));
-	    }
-	    List<Connection> connections = getConnections(switchPositions);
-	    Netlist graph = constructNetlist(nodes, connections, continuity);
-
-	    // merge graphs that are effectively the same
-	    if (result.containsKey(graph)) {
-		result.get(graph).getSwitchSetup().add(new SwitchSetup(posList));
-	    } else {
-		graph.getSwitchSetup().add(new SwitchSetup(posList));
-		result.put(graph, graph);
-	    }
+	// count all possible combinations
+	long combinationCount = 1;
+	for (ISwitch s : switches)
+	    combinationCount *= s.getPositionCount();
+	final long total = combinationCount;
+
+	// Everything but the switches is the same for every combination, so connect it only once and
+	// let each combination add its own switch connections on top of a copy.
+	final NetlistBuilder staticConnectivity = new NetlistBuilder(nodes, DrawingManager.CONTROL_POINT_SIZE);
+	staticConnectivity.addConnections(getContinuityConnections());
+	staticConnectivity.addContinuityAreas(drawingManager.getContinuityAreas(currentProject));
+
+	// Combinations are independent of each other, so evaluate them in parallel. Each netlist
+	// remembers the combinations that produced it, keyed by their index, so the result is the
+	// same as if they were processed in order.
+	final ConcurrentMap<Netlist, SortedMap<Long, SwitchSetup>> result =
+	    new ConcurrentHashMap<Netlist, SortedMap<Long, SwitchSetup>>();
+	final AtomicLong done = new AtomicLong();
+	ForkJoinPool.commonPool().invoke(new SwitchCombinationTask(0, total, new LongConsumer() {
 
-	    // find the next combination if possible
-	    if (positions[i] < switches.get(i).getPositionCount() - 1) {
-		positions[i]++;
-	    } else {
-		while (i >= 0 && positions[i] == switches.get(i).getPositionCount() - 1)
-		    i--;
-		if (i >= 0) {
-		    positions[i]++;
-		    for (int j = i + 1; j < positions.length; j++)
-			positions[j] = 0;
-		    i = switches.size() - 1;
+		@Override
+		public void accept(long index) {
+		    if (monitor != null && monitor.isCanceled())
+			throw new CancellationException();
+
+		    // decode the combination, the last switch changes the fastest
+		    Map<ISwitch, Integer> switchPositions = new HashMap<ISwitch, Integer>();
+		    List<Position> posList = new ArrayList<Position>();
+		    long remainder = index;
+		    for (int j = switches.size() - 1; j >= 0; j--) {
+			ISwitch s = switches.get(j);
+			int position = (int) (remainder % s.getPositionCount());
+			remainder /= s.getPositionCount();
+			switchPositions.put(s, position);
+			posList.add(0, new Position(s, position));
+		    }
+		    NetlistBuilder builder = staticConnectivity.copy();
+		    builder.addConnections(getSwitchConnections(switchPositions));
+		    Netlist graph = builder.build();
+
+		    // merge graphs that are effectively the same
+		    SortedMap<Long, SwitchSetup> setups = new TreeMap<Long, SwitchSetup>();
+		    SortedMap<Long, SwitchSetup> existing = result.putIfAbsent(graph, setups);
+		    if (existing != null)
+			setups = existing;
+		    synchronized (setups) {
+			setups.put(index, new SwitchSetup(posList));
+		    }
+
+		    if (monitor != null)
+			monitor.progressChanged(done.incrementAndGet(), total);
 		}
-	    }
-	}
+	    }));
 
 	// sort everything alphabetically
-	List<Netlist> netlists = new ArrayList<Netlist>(result.keySet());
+	List<Netlist> netlists = new ArrayList<Netlist>();
+	for (Map.Entry<Netlist, SortedMap<Long, SwitchSetup>> entry : result.entrySet()) {
+	    Netlist netlist = entry.getKey();
+	    netlist.getSwitchSetup().addAll(entry.getValue().values());
+	    netlists.add(netlist);
+	}
 	Collections.sort(netlists);
 
 	return netlists;
     }
 
-    private Netlist constructNetlist(List<Node> nodes, List<Connection> connections, List<Area> continuityAreas) {
-	Netlist netlist = new Netlist();
-
-	// debugging code
-	// StringBuilder sb = new StringBuilder();
-	// sb.append("Nodes:").append("\n");
-	// for (Node n : nodes) {
-	// sb.append(n.toString()).append("\n");
-	// }
-	// sb.append("Connections:").append("\n");
-	// for (Line2D n : connections) {
-	// sb.append(n.getP1()).append(":").append(n.getP2()).append("\n");
-	// }
-	// LOG.debug(sb.toString());
-
-	double t = DrawingManager.CONTROL_POINT_SIZE;
-	for (int i = 0; i < nodes.size() - 1; i++)
-	    for (int j = i + 1; j < nodes.size(); j++) {
-		Node node1 = nodes.get(i);
-		Node node2 = nodes.get(j);
-		Point2D point1 = node1.getComponent().getControlPoint(node1.getPointIndex());
-		Point2D point2 = node2.getComponent().getControlPoint(node2.getPointIndex());
-
-		String commonPoint1 = node1.getComponent().getCommonPointName(node1.getPointIndex());
-		String commonPoint2 = node2.getComponent().getCommonPointName(node2.getPointIndex());
-
-		// try both directions
-		if (point1.distance(point2) < t
-		    || checkGraphConnection(point1, point2, connections, continuityAreas, new boolean[connections.size()])
-		    || checkGraphConnection(point2, point1, connections, continuityAreas, new boolean[connections.size()])
-		    || (commonPoint1 != null && commonPoint1.equalsIgnoreCase(commonPoint2))) {
-		    boolean added = false;
-		    // add to an existing vertex if possible
-		    for (Group g : netlist.getGroups())
-			if (g.getNodes().contains(node1)) {
-			    g.getNodes().add(node2);
-			    added = true;
-			} else if (g.getNodes().contains(node2)) {
-			    g.getNodes().add(node1);
-			    added = true;
-			}
-		    if (!added)
-			netlist.getGroups().add(new Group(node1, node2));
-		}
-	    }
-
-	// merge overlapping groups if needed
-	boolean reduce = true;
-	while (reduce) {
-	    reduce = false;
-	    List<Group> groups = netlist.getSortedGroups();
-	    Iterator<Group> i = groups.iterator();
-	    while (i.hasNext()) {
-		Group g1 = i.next();
-		for (Group g2 : groups) {
-		    if (g1 != g2 && !Collections.disjoint(g1.getNodes(), g2.getNodes())) {
-			i.remove();
-			g2.getNodes().addAll(g1.getNodes());
-			reduce = true;
-			break;
-		    }
-		}
-	    }
-	    if (reduce) {
-		netlist.getGroups().clear();
-		netlist.getGroups().addAll(groups);
-	    }
-	}
-
-	Collections.sort(netlist.getSwitchSetup());
+    /**
+     * Processes a range of switch combinations, splitting it up between fork-join workers.
+     */
+    private static class SwitchCombinationTask extends RecursiveAction {
 
-	return netlist;
-    }
+	private static final long serialVersionUID = 1L;
 
-    private boolean checkGraphConnection(Point2D point1, Point2D point2, List<Connection> connections,
-					 List<Area> continuityAreas, boolean[] visited) {
-	double t = DrawingManager.CONTROL_POINT_SIZE;
+	private static final long THRESHOLD = 4;
 
-	if (point1.distance(point2) < t)
-	    return true;
+	private final long from;
+	private final long to;
+	private final LongConsumer processor;
 
-	for (Area a : continuityAreas) {
-	    if (a.contains(point1) && a.contains(point2))
-		return true;
+	public SwitchCombinationTask(long from, long to, LongConsumer processor) {
+	    this.from = from;
+	    this.to = to;
+	    this.processor = processor;
 	}
 
-	for (int i = 0; i < connections.size(); i++) {
-	    if (visited[i])
-		continue;
-
-	    Connection c = connections.get(i);
-	    if (point1.distance(c.getP1()) < t) {
-		visited[i] = true;
-		if (checkGraphConnection(c.getP2(), point2, connections, continuityAreas, visited))
-		    return true;
-	    }
-	    if (point1.distance(c.getP2()) < t) {
-		visited[i] = true;
-		if (checkGraphConnection(c.getP1(), point2, connections, continuityAreas, visited))
-		    return true;
+	@Override
+	protected void compute() {
+	    if (to - from <= THRESHOLD) {
+		for (long i = from; i < to; i++)
+		    processor.accept(i);
+		return;
 	    }
+	    long middle = (from + to) >>> 1;
+	    invokeAll(new SwitchCombinationTask(from, middle, processor), new SwitchCombinationTask(middle, to, processor));
 	}
-
-	return false;
     }
 
-    @SuppressWarnings("unchecked")
-    private List<Connection> getConnections(Map<ISwitch, Integer> switchPositions) {
-	Set<Connection> connections = new HashSet<Connection>();
+    /**
+     * Collects connections made by {@link IContinuity} components, they do not depend on switch
+     * positions.
+     */
+    private List<Connection> getContinuityConnections() {
+	List<Connection> connections = new ArrayList<Connection>();
 	for (IDIYComponent<?> c : currentProject.getComponents()) {
-	    ComponentType type =
-		ComponentProcessor.getInstance().extractComponentTypeFrom((Class<? extends IDIYComponent<?>>) c.getClass());
-	    // handle direct connections
 	    if (c instanceof IContinuity) {
 		for (int i = 0; i < c.getControlPointCount() - 1; i++)
 		    for (int j = i + 1; j < c.getControlPointCount(); j++)
 			if (((IContinuity) c).arePointsConnected(i, j))
 			    connections.add(new Connection(c.getControlPoint(i), c.getControlPoint(j)));
 	    }
-	    // handle switches
-	    if (ISwitch.class.isAssignableFrom(type.getInstanceClass()) && switchPositions.containsKey(c)) {
-		int position = switchPositions.get(c);
-		ISwitch s = (ISwitch) c;
-		for (int i = 0; i < c.getControlPointCount() - 1; i++)
-		    for (int j = i + 1; j < c.getControlPointCount(); j++)
-			if (s.arePointsConnected(i, j, position))
-			    connections.add(new Connection(c.getControlPoint(i), c.getControlPoint(j)));
-	    }
 	}
+	return connections;
+    }
 
-	drawingManager.expandConnections(connections);
-
-	return new ArrayList<Connection>(connections);
+    /**
+     * Collects connections made by switches in the specified positions. Called from multiple threads
+     * at once, so it must not touch any shared caches.
+     */
+    private List<Connection> getSwitchConnections(Map<ISwitch, Integer> switchPositions) {
+	List<Connection> connections = new ArrayList<Connection>();
+	for (Map.Entry<ISwitch, Integer> entry : switchPositions.entrySet()) {
+	    if (!(entry.getKey() instanceof IDIYComponent))
+		continue;
+	    IDIYComponent<?> c = (IDIYComponent<?>) entry.getKey();
+	    ISwitch s = entry.getKey();
+	    int position = entry.getValue();
+	    for (int i = 0; i < c.getControlPointCount() - 1; i++)
+		for (int j = i + 1; j < c.getControlPointCount(); j++)
+		    if (s.arePointsConnected(i, j, position))
+			connections.add(new Connection(c.getControlPoint(i), c.getControlPoint(j)));
+	}
+	return connections;
     }
 
     @Override
@@ -0,0 +1,309 @@
+/*
+ *
+ * DIY Layout Creator (DIYLC). Copyright (c) 2009-2018 held jointly by the individual authors.
+ *
+ * This file is part of DIYLC.
+ *
+ * DIYLC is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * DIYLC is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DIYLC. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.diylc.presenter;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Properties;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.diylc.core.Project;
+import org.diylc.core.measures.Size;
+import org.diylc.core.measures.SizeUnit;
+
+import com.thoughtworks.xstream.XStream;
+
+/**
+ * Project saved as a ZIP archive that holds a small metadata header, a pre-rendered thumbnail and
+ * the compressed project XML, in that order. The header and the thumbnail can be read without
+ * touching the project entry, e.g. to show a preview in the file chooser or to upload the project
+ * to the cloud.
+ */
+public class ProjectContainer {
+
+  public static final String EXTENSION = "diyz";
+
+  /**
+   * Size of the longer side of the thumbnail, the same as used for cloud uploads.
+   */
+  public static final int THUMBNAIL_SIZE = 192;
+
+  private static final String METADATA_ENTRY = "metadata.properties";
+  private static final String THUMBNAIL_ENTRY = "thumbnail.png";
+  private static final String PROJECT_ENTRY = "project.xml";
+
+  private static final byte[] MAGIC = {'P', 'K', 3, 4};
+
+  private final XStream xStream;
+
+  public ProjectContainer(XStream xStream) {
+    this.xStream = xStream;
+  }
+
+  /**
+   * Checks whether the stream starts with a ZIP header. Reads up to four bytes and does not reset
+   * the stream.
+   *
+   * @param in
+   * @return
+   * @throws IOException
+   */
+  public static boolean isContainer(InputStream in) throws IOException {
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (in.read() != MAGIC[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param fileName
+   * @return true if the project should be saved as a container, based on the file extension.
+   */
+  public static boolean isContainerFileName(String fileName) {
+    return fileName.toLowerCase().endsWith("." + EXTENSION);
+  }
+
+  /**
+   * Writes the project along with its metadata and thumbnail.
+   *
+   * @param project
+   * @param thumbnail thumbnail image, may be null
+   * @param out
+   * @throws IOException
+   */
+  public void write(Project project, BufferedImage thumbnail, OutputStream out) throws IOException {
+    ZipOutputStream zip = new ZipOutputStream(out);
+    zip.setLevel(9);
+
+    zip.putNextEntry(new ZipEntry(METADATA_ENTRY));
+    Writer writer = new OutputStreamWriter(zip, "UTF-8");
+    new Metadata(project).toProperties().store(writer, null);
+    writer.flush();
+    zip.closeEntry();
+
+    if (thumbnail != null) {
+      // PNG is already compressed, so store it as is
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      ImageIO.write(thumbnail, "png", buffer);
+      byte[] png = buffer.toByteArray();
+      ZipEntry entry = new ZipEntry(THUMBNAIL_ENTRY);
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(png.length);
+      CRC32 crc = new CRC32();
+      crc.update(png);
+      entry.setCrc(crc.getValue());
+      zip.putNextEntry(entry);
+      zip.write(png);
+      zip.closeEntry();
+    }
+
+    zip.putNextEntry(new ZipEntry(PROJECT_ENTRY));
+    writer = new OutputStreamWriter(zip, "UTF-8");
+    writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
+    xStream.toXML(project, writer);
+    writer.flush();
+    zip.closeEntry();
+    zip.finish();
+  }
+
+  /**
+   * Opens the project XML stored in the container. Closing the returned stream closes the
+   * container.
+   *
+   * @param file
+   * @return
+   * @throws IOException
+   */
+  public static InputStream openProject(File file) throws IOException {
+    final ZipFile zip = new ZipFile(file);
+    ZipEntry entry = zip.getEntry(PROJECT_ENTRY);
+    if (entry == null) {
+      zip.close();
+      throw new IOException("Could not find the project in " + file.getName());
+    }
+    return new BufferedInputStream(zip.getInputStream(entry)) {
+
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          zip.close();
+        }
+      }
+    };
+  }
+
+  /**
+   * @param file
+   * @return metadata stored in the container, without reading the project.
+   * @throws IOException
+   */
+  public static Metadata readMetadata(File file) throws IOException {
+    ZipFile zip = new ZipFile(file);
+    try {
+      ZipEntry entry = zip.getEntry(METADATA_ENTRY);
+      if (entry == null) {
+        throw new IOException("Could not find metadata in " + file.getName());
+      }
+      Properties properties = new Properties();
+      InputStream in = zip.getInputStream(entry);
+      try {
+        properties.load(new InputStreamReader(in, "UTF-8"));
+      } finally {
+        in.close();
+      }
+      return new Metadata(properties);
+    } finally {
+      zip.close();
+    }
+  }
+
+  /**
+   * @param file
+   * @return thumbnail stored in the container, or null if there's none.
+   * @throws IOException
+   */
+  public static BufferedImage readThumbnail(File file) throws IOException {
+    ZipFile zip = new ZipFile(file);
+    try {
+      ZipEntry entry = zip.getEntry(THUMBNAIL_ENTRY);
+      if (entry == null) {
+        return null;
+      }
+      InputStream in = zip.getInputStream(entry);
+      try {
+        return ImageIO.read(in);
+      } finally {
+        in.close();
+      }
+    } finally {
+      zip.close();
+    }
+  }
+
+  /**
+   * Summary of the project stored in the header of a container.
+   */
+  public static class Metadata {
+
+    private String title;
+    private String author;
+    private int componentCount;
+    private Size width;
+    private Size height;
+    private String fileVersion;
+
+    Metadata(Project project) {
+      this.title = project.getTitle();
+      this.author = project.getAuthor();
+      this.componentCount = project.getComponents().size();
+      this.width = project.getWidth();
+      this.height = project.getHeight();
+      this.fileVersion = project.getFileVersion() == null ? null : project.getFileVersion().toString();
+    }
+
+    Metadata(Properties properties) {
+      this.title = properties.getProperty("title");
+      this.author = properties.getProperty("author");
+      this.componentCount = Integer.parseInt(properties.getProperty("componentCount", "0"));
+      this.width = readSize(properties, "width");
+      this.height = readSize(properties, "height");
+      this.fileVersion = properties.getProperty("fileVersion");
+    }
+
+    public String getTitle() {
+      return title;
+    }
+
+    public String getAuthor() {
+      return author;
+    }
+
+    public int getComponentCount() {
+      return componentCount;
+    }
+
+    public Size getWidth() {
+      return width;
+    }
+
+    public Size getHeight() {
+      return height;
+    }
+
+    /**
+     * @return version of DIYLC the project was saved with.
+     */
+    public String getFileVersion() {
+      return fileVersion;
+    }
+
+    private Properties toProperties() {
+      Properties properties = new Properties();
+      if (title != null) {
+        properties.setProperty("title", title);
+      }
+      if (author != null) {
+        properties.setProperty("author", author);
+      }
+      properties.setProperty("componentCount", Integer.toString(componentCount));
+      writeSize(properties, "width", width);
+      writeSize(properties, "height", height);
+      if (fileVersion != null) {
+        properties.setProperty("fileVersion", fileVersion);
+      }
+      return properties;
+    }
+
+    private static void writeSize(Properties properties, String key, Size size) {
+      if (size != null && size.getValue() != null && size.getUnit() != null) {
+        properties.setProperty(key, size.getValue().toString());
+        properties.setProperty(key + "Unit", size.getUnit().name());
+      }
+    }
+
+    private static Size readSize(Properties properties, String key) {
+      String value = properties.getProperty(key);
+      String unit = properties.getProperty(key + "Unit");
+      if (value == null || unit == null) {
+        return null;
+      }
+      try {
+        return new Size(Double.parseDouble(value), SizeUnit.valueOf(unit));
+      } catch (IllegalArgumentException e) {
+        return null;
+      }
+    }
+  }
+}
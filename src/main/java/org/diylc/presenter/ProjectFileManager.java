@@ -20,13 +20,14 @@
 package org.diylc.presenter;
 
 import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.Reader;
 import java.io.Writer;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
@@ -34,12 +35,25 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.SwingUtilities;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.log4j.Logger;
+import org.diylc.appframework.miscutils.IContentWriter;
 import org.diylc.appframework.miscutils.Utils;
 import org.diylc.appframework.simplemq.MessageDispatcher;
 import org.diylc.appframework.update.VersionNumber;
@@ -47,26 +61,47 @@ import org.diylc.common.EventType;
 import org.diylc.core.Project;
 import org.diylc.parsing.IOldFileParser;
 import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.io.xml.DomDriver;
+import com.thoughtworks.xstream.io.xml.StaxDriver;
 import com.thoughtworks.xstream.mapper.MapperWrapper;
 
 public class ProjectFileManager {
 
     private static final Logger LOG = Logger.getLogger(ProjectFileManager.class);
 
+    // How far into the file the root element and file version are looked for
+    // before the file is handed over to XStream.
+    private static final int HEADER_LIMIT = 64 * 1024;
+
     private XStream xStream;
+    private BinaryProjectFormat binaryFormat;
+    private ProjectContainer container;
     // Legacy deserializer for 3.0.1 through 3.0.7, loads Points referenced in
     // pixels.
     private XStream xStreamOld;
-
-    private String currentFileName = null;
-    private boolean modified = false;
+    // Used for reading with both of the above, so files are parsed in a single
+    // pass without building a DOM.
+    private StaxDriver staxDriver = new StaxDriver();
+    private XMLInputFactory inputFactory;
+
+    private volatile String currentFileName = null;
+    private volatile boolean modified = false;
+    // Incremented on each change, so a save that completes in the background
+    // can tell whether the project has been modified since it was snapshotted.
+    private AtomicLong changeCount = new AtomicLong();
+    // Writes projects in the order they were submitted.
+    private ExecutorService saveExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+	    @Override
+	    public Thread newThread(Runnable r) {
+		Thread thread = new Thread(r, "Project writer");
+		thread.setDaemon(true);
+		return thread;
+	    }
+	});
 
     private MessageDispatcher<EventType> messageDispatcher;
 
@@ -119,12 +154,18 @@ public class ProjectFileManager {
 	xStream.addImmutableType(org.diylc.core.measures.Power.class);
 	xStream.addImmutableType(org.diylc.core.measures.Inductance.class);
 	xStream.addImmutableType(org.diylc.core.measures.Size.class);
+	this.binaryFormat = new BinaryProjectFormat(xStream);
+	this.container = new ProjectContainer(xStream);
 
 	this.xStreamOld = new XStream(new DomDriver());
 	xStreamOld.autodetectAnnotations(true);
 	XStream.setupDefaultSecurity(xStreamOld);
 	xStreamOld.allowTypesByWildcard(allowTypes);
 
+	this.inputFactory = XMLInputFactory.newInstance();
+	inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+	inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
 	this.messageDispatcher = messageDispatcher;
     }
 
@@ -157,19 +198,134 @@ public class ProjectFileManager {
 
     public synchronized void serializeProjectToFile(Project project, String fileName, boolean isBackup)
 	throws IOException {
+	serializeProjectToFile(project, fileName, isBackup, null);
+    }
+
+    /**
+     * Saves the project in the format that matches the file extension.
+     *
+     * @param project
+     * @param fileName
+     * @param isBackup
+     * @param thumbnail image to store along with the project, only used by {@link ProjectContainer}
+     * @throws IOException
+     */
+    public synchronized void serializeProjectToFile(Project project, String fileName, boolean isBackup,
+						    BufferedImage thumbnail) throws IOException {
+	writeProject(project, fileName, isBackup, thumbnail, changeCount.get());
+    }
+
+    /**
+     * Saves the project on a background thread. {@link EventType#SAVE_STARTED} is dispatched before
+     * writing, followed by either {@link EventType#SAVE_COMPLETED} or {@link EventType#SAVE_FAILED}.
+     * All of them are dispatched on the event dispatch thread, so listeners don't need to care where
+     * the file is written. Saves are performed in the order they were requested.
+     *
+     * @param project project to save. It's written after this method returns, so it must not be
+     *        modified afterwards; pass a snapshot of the current project.
+     * @param fileName
+     * @param isBackup
+     * @param thumbnail image to store along with the project, only used by {@link ProjectContainer}
+     * @return future that completes once the file has been written, or fails with the cause
+     */
+    public Future<Void> serializeProjectToFileAsync(final Project project, final String fileName,
+						    final boolean isBackup, final BufferedImage thumbnail) {
+	final long changes = changeCount.get();
+	return saveExecutor.submit(new Callable<Void>() {
+
+		@Override
+		public Void call() throws Exception {
+		    dispatchOnEventThread(EventType.SAVE_STARTED, fileName, isBackup);
+		    try {
+			writeProject(project, fileName, isBackup, thumbnail, changes);
+		    } catch (Exception e) {
+			LOG.error("Could not save " + fileName, e);
+			dispatchOnEventThread(EventType.SAVE_FAILED, fileName, isBackup, e);
+			throw e;
+		    }
+		    dispatchOnEventThread(EventType.SAVE_COMPLETED, fileName, isBackup);
+		    return null;
+		}
+	    });
+    }
+
+    /**
+     * Waits for the saves that have been requested so far to complete.
+     */
+    public void waitForPendingSaves() {
+	try {
+	    saveExecutor.submit(new Runnable() {
+
+		    @Override
+		    public void run() {
+		    }
+		}).get();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	} catch (ExecutionException e) {
+	    // not expected, the task is empty
+	}
+    }
+
+    /**
+     * Writes the project to the file without ever leaving it partially written, see
+     * {@link Utils#writeFile(File, IContentWriter)}.
+     *
+     * @param changes value of {@link #changeCount} when the project was taken
+     */
+    private synchronized void writeProject(final Project project, final String fileName, boolean isBackup,
+					   final BufferedImage thumbnail, long changes) throws IOException {
 	if (!isBackup) {
 	    LOG.info(String.format("saveProjectToFile(%s)", fileName));
 	}
-	FileOutputStream fos;
-	fos = new FileOutputStream(fileName);
-	Writer writer = new OutputStreamWriter(fos, "UTF-8");
-	writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
-	xStream.toXML(project, writer);
-	fos.close();
+	Utils.writeFile(new File(fileName), new IContentWriter() {
+
+		@Override
+		public void write(OutputStream out) throws IOException {
+		    if (isBinaryFileName(fileName)) {
+			binaryFormat.write(project, out);
+		    } else if (ProjectContainer.isContainerFileName(fileName)) {
+			container.write(project, thumbnail, out);
+		    } else {
+			Writer writer = new OutputStreamWriter(out, "UTF-8");
+			writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
+			xStream.toXML(project, writer);
+			writer.flush();
+		    }
+		}
+	    });
 	if (!isBackup) {
 	    this.currentFileName = fileName;
-	    this.modified = false;
-	    fireFileStatusChanged();
+	    this.modified = changeCount.get() != changes;
+	    if (SwingUtilities.isEventDispatchThread()) {
+		fireFileStatusChanged();
+	    } else {
+		SwingUtilities.invokeLater(new Runnable() {
+
+			@Override
+			public void run() {
+			    fireFileStatusChanged();
+			}
+		    });
+	    }
+	}
+    }
+
+    /**
+     * Dispatches the message right away when called on the event dispatch thread, otherwise posts it
+     * to that thread, so listeners of save events always run there.
+     */
+    private void dispatchOnEventThread(final EventType eventType, final Object... params) {
+	if (SwingUtilities.isEventDispatchThread()) {
+	    messageDispatcher.dispatchMessage(eventType, params);
+	} else {
+	    SwingUtilities.invokeLater(new Runnable() {
+
+		    @Override
+		    public void run() {
+			messageDispatcher.dispatchMessage(eventType, params);
+		    }
+		});
 	}
     }
 
@@ -178,27 +334,60 @@ public class ProjectFileManager {
 	LOG.info(String.format("loadProjectFromFile(%s)", fileName));
 	Project project = null;
 	File file = new File(fileName);
-	DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-	DocumentBuilder db = dbf.newDocumentBuilder();
-	Document doc = db.parse(new InputSource(new InputStreamReader(new FileInputStream(file))));
-	doc.getDocumentElement().normalize();
-	if (doc.getDocumentElement().getNodeName().equals(Project.class.getName()) || doc.getDocumentElement().getNodeName().equals("project")) {
-	    project = parseV3File(fileName, warnings);
-	} else {
-	    if (!doc.getDocumentElement().getNodeName().equalsIgnoreCase("layout")) {
-		throw new IllegalArgumentException("Could not open DIY file. Root node is not named 'Layout'.");
+	InputStream in = new BufferedInputStream(new FileInputStream(file));
+	try {
+	    in.mark(HEADER_LIMIT);
+	    if (BinaryProjectFormat.isBinary(in)) {
+		in.close();
+		project = parseBinaryFile(file, warnings);
+		Collections.sort(warnings);
+		this.currentFileName = fileName;
+		this.modified = false;
+		return project;
 	    }
-	    String formatVersion = doc.getDocumentElement().getAttribute("formatVersion");
-
-	    // try to find a parser for an older version
-	    List<IOldFileParser> parsers = getParsers();
-	    for (int i = 0; i < parsers.size(); i++) {
-		if (parsers.get(i).canParse(formatVersion))
-		    project = parsers.get(i).parseFile(doc.getDocumentElement(), warnings);
+	    in.reset();
+	    boolean isContainer = ProjectContainer.isContainer(in);
+	    if (isContainer) {
+		in.close();
+		in = openXml(file, true);
+		in.mark(HEADER_LIMIT);
+	    } else {
+		in.reset();
 	    }
+	    FileHeader header = readHeader(in);
+	    if (header.rootName.equals(Project.class.getName()) || header.rootName.equals("project")) {
+		try {
+		    in.reset();
+		} catch (IOException e) {
+		    // the header was too long to rewind, start over
+		    in.close();
+		    in = openXml(file, isContainer);
+		}
+		project = parseV3File(file, isContainer, in, header, warnings);
+	    } else {
+		if (!header.rootName.equalsIgnoreCase("layout")) {
+		    throw new IllegalArgumentException("Could not open DIY file. Root node is not named 'Layout'.");
+		}
+		String formatVersion = header.formatVersion;
+
+		// try to find a parser for an older version
+		List<IOldFileParser> parsers = getParsers();
+		Document doc = null;
+		for (int i = 0; i < parsers.size(); i++) {
+		    if (parsers.get(i).canParse(formatVersion)) {
+			// only old formats are read into a DOM
+			if (doc == null) {
+			    doc = parseDocument(file);
+			}
+			project = parsers.get(i).parseFile(doc.getDocumentElement(), warnings);
+		    }
+		}
 
-	    if (project == null)
-		throw new IllegalArgumentException("Unknown file format version: " + formatVersion);
+		if (project == null)
+		    throw new IllegalArgumentException("Unknown file format version: " + formatVersion);
+	    }
+	} finally {
+	    in.close();
 	}
 	Collections.sort(warnings);
 	this.currentFileName = fileName;
@@ -207,6 +396,7 @@ public class ProjectFileManager {
     }
 
     public void notifyFileChange() {
+	changeCount.incrementAndGet();
 	this.modified = true;
 	fireFileStatusChanged();
     }
@@ -223,58 +413,140 @@ public class ProjectFileManager {
 	messageDispatcher.dispatchMessage(EventType.FILE_STATUS_CHANGED, getCurrentFileName(), isModified());
     }
 
-    private Project parseV3File(String fileName, List<String> warnings) throws IOException {
+    /**
+     * @param file
+     * @param isContainer true if the file is a {@link ProjectContainer}
+     * @return stream positioned at the start of the project XML
+     * @throws IOException
+     */
+    private InputStream openXml(File file, boolean isContainer) throws IOException {
+	return isContainer ? ProjectContainer.openProject(file) : new BufferedInputStream(new FileInputStream(file));
+    }
+
+    private Project parseV3File(File file, boolean isContainer, InputStream in, FileHeader header, List<String> warnings)
+	throws IOException {
 	Project project;
-	VersionNumber fileVersion;
-	try { 
-	    fileVersion = readV3Version(fileName);
-	    if (fileVersion.compareTo(Presenter.CURRENT_VERSION) > 0)
-		warnings.add("The file is created with a newer version of DIYLC and may contain features that are not supported by your version of DIYLC. Please update.");
-	} catch (Exception e) {
+	if (header.fileVersion == null) {
 	    warnings.add("Could not read file version number, the file may be corrupted.");
+	} else if (header.fileVersion.compareTo(Presenter.CURRENT_VERSION) > 0) {
+	    warnings.add("The file is created with a newer version of DIYLC and may contain features that are not supported by your version of DIYLC. Please update.");
 	}
-	FileInputStream fis = new FileInputStream(fileName);
 	missingFields.clear();
 	try {
-	    Reader reader = new InputStreamReader(fis, "UTF-8");
-	    project = (Project) xStream.fromXML(reader);
+	    project = (Project) xStream.unmarshal(staxDriver.createReader(in));
 	} catch (Exception e) {
 	    LOG.warn("Could not open with the new xStream, trying the old one", e);
-	    fis.close();
-	    fis = new FileInputStream(fileName);
-	    project = (Project) xStreamOld.fromXML(fis);
+	    InputStream oldIn = openXml(file, isContainer);
+	    try {
+		project = (Project) xStreamOld.unmarshal(staxDriver.createReader(oldIn));
+	    } finally {
+		oldIn.close();
+	    }
 	}
 	if (!missingFields.isEmpty()) {
 	    warnings.add("The project references unknown component properties, most likely because it was created with a newer version of DIYLC.");
 	}
-	fis.close();
 	return project;
     }
-  
-    private VersionNumber readV3Version(String fileName) throws Exception {
-	File fXmlFile = new File(fileName);
-	DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-	DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-	Document doc = dBuilder.parse(fXmlFile);
-            
-	doc.getDocumentElement().normalize();
-    
-	NodeList nList = doc.getElementsByTagName("fileVersion");
-    
-	int items = nList.getLength();
-    
-	if (items != 1)
-	    throw new Exception("File version information could not be read from the XML.");
-    
-	Node versionNode = nList.item(0);    
-	Node n = versionNode.getFirstChild().getNextSibling();
-	int major = Integer.parseInt(n.getFirstChild().getNodeValue());
-	n = n.getNextSibling().getNextSibling();
-	int minor = Integer.parseInt(n.getFirstChild().getNodeValue());
-	n = n.getNextSibling().getNextSibling();
-	int build = Integer.parseInt(n.getFirstChild().getNodeValue());
-    
+
+    private Project parseBinaryFile(File file, List<String> warnings) throws IOException {
+	missingFields.clear();
+	Project project = binaryFormat.read(file, missingFields);
+	if (project.getFileVersion() != null && project.getFileVersion().compareTo(Presenter.CURRENT_VERSION) > 0) {
+	    warnings.add("The file is created with a newer version of DIYLC and may contain features that are not supported by your version of DIYLC. Please update.");
+	}
+	if (!missingFields.isEmpty()) {
+	    warnings.add("The project references unknown component properties, most likely because it was created with a newer version of DIYLC.");
+	}
+	return project;
+    }
+
+    /**
+     * @param fileName
+     * @return true if the project should be saved in {@link BinaryProjectFormat}, based on the
+     *         file extension.
+     */
+    public static boolean isBinaryFileName(String fileName) {
+	return fileName.toLowerCase().endsWith("." + BinaryProjectFormat.EXTENSION);
+    }
+
+    /**
+     * Reads the name of the root element and the version information
+     * that follows it, stopping as soon as they are found. The stream
+     * is left at an undefined position.
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    private FileHeader readHeader(InputStream in) throws IOException {
+	FileHeader header = new FileHeader();
+	try {
+	    XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+	    try {
+		reader.nextTag();
+		header.rootName = reader.getLocalName();
+		header.formatVersion = reader.getAttributeValue(null, "formatVersion");
+		if (header.formatVersion == null) {
+		    header.formatVersion = "";
+		}
+		// file version is the first property of a project
+		if (reader.nextTag() == XMLStreamConstants.START_ELEMENT
+		    && reader.getLocalName().equals("fileVersion")) {
+		    try {
+			header.fileVersion = readVersion(reader);
+		    } catch (Exception e) {
+			LOG.warn("Could not read file version", e);
+		    }
+		}
+	    } finally {
+		reader.close();
+	    }
+	} catch (XMLStreamException e) {
+	    if (header.rootName == null) {
+		throw new IOException("Could not parse the file: " + e.getMessage(), e);
+	    }
+	    // the rest of the file will be checked by XStream
+	}
+	return header;
+    }
+
+    private VersionNumber readVersion(XMLStreamReader reader) throws XMLStreamException {
+	int major = 0;
+	int minor = 0;
+	int build = 0;
+	int found = 0;
+	while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+	    String name = reader.getLocalName();
+	    int value = Integer.parseInt(reader.getElementText().trim());
+	    if (name.equals("major")) {
+		major = value;
+		found++;
+	    } else if (name.equals("minor")) {
+		minor = value;
+		found++;
+	    } else if (name.equals("build")) {
+		build = value;
+		found++;
+	    }
+	}
+	if (found != 3)
+	    throw new XMLStreamException("File version information could not be read from the XML.");
 	return new VersionNumber(major, minor, build);
+    }
+
+    private Document parseDocument(File file) throws SAXException, IOException, ParserConfigurationException {
+	DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+	DocumentBuilder db = dbf.newDocumentBuilder();
+	Document doc = db.parse(file);
+	doc.getDocumentElement().normalize();
+	return doc;
+    }
 
+    private static class FileHeader {
+
+	String rootName;
+	String formatVersion;
+	VersionNumber fileVersion;
     }
 }
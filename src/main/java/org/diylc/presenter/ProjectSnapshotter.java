@@ -0,0 +1,136 @@
+/*
+ *
+ * DIY Layout Creator (DIYLC). Copyright (c) 2009-2018 held jointly by the individual authors.
+ *
+ * This file is part of DIYLC.
+ *
+ * DIYLC is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * DIYLC is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DIYLC. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.diylc.presenter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.diylc.core.IDIYComponent;
+import org.diylc.core.Project;
+
+/**
+ * Takes snapshots of the project for undo/redo. Consecutive snapshots share copies of the
+ * components that did not change in between, so each snapshot only takes as much memory as the
+ * components that actually changed, plus the component order and groups. Snapshots must never be
+ * modified; use {@link Project#clone()} to get a project that may be edited.
+ */
+public class ProjectSnapshotter {
+
+  private Project source;
+  private Project snapshot;
+  // Maps each component of the source project to its copy in the last snapshot.
+  private Map<IDIYComponent<?>, IDIYComponent<?>> copyMap = new HashMap<IDIYComponent<?>, IDIYComponent<?>>();
+
+  /**
+   * Forgets the last snapshot, e.g. when a different project is loaded.
+   */
+  public void reset() {
+    source = null;
+    snapshot = null;
+    copyMap.clear();
+  }
+
+  /**
+   * @param project
+   * @return snapshot of the current state of the project, or the last snapshot if nothing has
+   *         changed since it was taken.
+   */
+  public Project takeSnapshot(Project project) {
+    boolean changed = snapshot == null || source != project;
+    Map<IDIYComponent<?>, IDIYComponent<?>> newCopyMap = new HashMap<IDIYComponent<?>, IDIYComponent<?>>();
+    List<IDIYComponent<?>> copies = new ArrayList<IDIYComponent<?>>(project.getComponents().size());
+    for (IDIYComponent<?> component : project.getComponents()) {
+      IDIYComponent<?> copy = changed ? null : copyMap.get(component);
+      if (copy == null || !component.equalsTo(copy)) {
+        try {
+          copy = component.clone();
+        } catch (CloneNotSupportedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      newCopyMap.put(component, copy);
+      copies.add(copy);
+    }
+    Set<Set<IDIYComponent<?>>> groups = new HashSet<Set<IDIYComponent<?>>>();
+    for (Set<IDIYComponent<?>> group : project.getGroups()) {
+      Set<IDIYComponent<?>> copyGroup = new HashSet<IDIYComponent<?>>();
+      for (IDIYComponent<?> component : group) {
+        copyGroup.add(newCopyMap.get(component));
+      }
+      groups.add(copyGroup);
+    }
+    copyMap = newCopyMap;
+
+    if (!changed) {
+      changed = !isSameComponents(snapshot.getComponents(), copies) || !groups.equals(snapshot.getGroups())
+          || !isSameSettings(snapshot, project);
+    }
+    if (!changed) {
+      return snapshot;
+    }
+
+    Project copy = new Project();
+    copy.setTitle(project.getTitle());
+    copy.setAuthor(project.getAuthor());
+    copy.setDescription(project.getDescription());
+    copy.setFileVersion(project.getFileVersion());
+    copy.setGridSpacing(project.getGridSpacing());
+    copy.setHeight(project.getHeight());
+    copy.setWidth(project.getWidth());
+    copy.getLockedLayers().addAll(project.getLockedLayers());
+    copy.getHiddenLayers().addAll(project.getHiddenLayers());
+    copy.setFont(project.getFont());
+    copy.getComponents().addAll(copies);
+    copy.getGroups().addAll(groups);
+
+    source = project;
+    snapshot = copy;
+    return copy;
+  }
+
+  private static boolean isSameComponents(List<IDIYComponent<?>> components1, List<IDIYComponent<?>> components2) {
+    if (components1.size() != components2.size()) {
+      return false;
+    }
+    for (int i = 0; i < components1.size(); i++) {
+      if (components1.get(i) != components2.get(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isSameSettings(Project project1, Project project2) {
+    return isEqual(project1.getTitle(), project2.getTitle()) && isEqual(project1.getAuthor(), project2.getAuthor())
+        && isEqual(project1.getDescription(), project2.getDescription())
+        && isEqual(project1.getFileVersion(), project2.getFileVersion())
+        && isEqual(project1.getGridSpacing(), project2.getGridSpacing())
+        && isEqual(project1.getHeight(), project2.getHeight()) && isEqual(project1.getWidth(), project2.getWidth())
+        && isEqual(project1.getLockedLayers(), project2.getLockedLayers())
+        && isEqual(project1.getHiddenLayers(), project2.getHiddenLayers())
+        && isEqual(project1.getFont(), project2.getFont());
+  }
+
+  private static boolean isEqual(Object o1, Object o2) {
+    return o1 == null ? o2 == null : o1.equals(o2);
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ *
+ * DIY Layout Creator (DIYLC). Copyright (c) 2009-2018 held jointly by the individual authors.
+ *
+ * This file is part of DIYLC.
+ *
+ * DIYLC is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * DIYLC is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DIYLC. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.diylc.presenter;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Uniform grid of buckets that maps rectangular bounds to the items they belong to. Used to narrow
+ * down the candidates for hit testing before doing exact (and expensive) geometry checks.
+ *
+ * Items that span too many cells (e.g. boards that cover the whole layout) are kept in a separate
+ * list that is always included in query results.
+ *
+ * @param <T>
+ */
+public class SpatialIndex<T> {
+
+  private static final int MAX_CELLS_PER_ITEM = 256;
+
+  private final double cellSize;
+
+  private Map<Long, List<T>> cells = new HashMap<Long, List<T>>();
+  private Map<T, Rectangle2D> boundsMap = new HashMap<T, Rectangle2D>();
+  private Set<T> largeItems = new LinkedHashSet<T>();
+
+  public SpatialIndex(double cellSize) {
+    this.cellSize = cellSize;
+  }
+
+  /**
+   * Adds the item to the index, replacing the bounds it was previously stored with.
+   *
+   * @param item
+   * @param bounds
+   */
+  public void put(T item, Rectangle2D bounds) {
+    remove(item);
+    bounds = bounds.getBounds2D();
+    boundsMap.put(item, bounds);
+    int minX = cell(bounds.getMinX());
+    int minY = cell(bounds.getMinY());
+    int maxX = cell(bounds.getMaxX());
+    int maxY = cell(bounds.getMaxY());
+    if ((long) (maxX - minX + 1) * (maxY - minY + 1) > MAX_CELLS_PER_ITEM) {
+      largeItems.add(item);
+      return;
+    }
+    for (int x = minX; x <= maxX; x++) {
+      for (int y = minY; y <= maxY; y++) {
+        Long key = key(x, y);
+        List<T> bucket = cells.get(key);
+        if (bucket == null) {
+          bucket = new ArrayList<T>(4);
+          cells.put(key, bucket);
+        }
+        bucket.add(item);
+      }
+    }
+  }
+
+  public void remove(T item) {
+    Rectangle2D bounds = boundsMap.remove(item);
+    if (bounds == null) {
+      return;
+    }
+    if (largeItems.remove(item)) {
+      return;
+    }
+    for (int x = cell(bounds.getMinX()); x <= cell(bounds.getMaxX()); x++) {
+      for (int y = cell(bounds.getMinY()); y <= cell(bounds.getMaxY()); y++) {
+        Long key = key(x, y);
+        List<T> bucket = cells.get(key);
+        if (bucket != null) {
+          bucket.remove(item);
+          if (bucket.isEmpty()) {
+            cells.remove(key);
+          }
+        }
+      }
+    }
+  }
+
+  public void clear() {
+    cells.clear();
+    boundsMap.clear();
+    largeItems.clear();
+  }
+
+  /**
+   * @param point
+   * @return all items whose bounds contain the specified point, in no particular order.
+   */
+  public Set<T> query(Point2D point) {
+    Set<T> result = new HashSet<T>();
+    List<T> bucket = cells.get(key(cell(point.getX()), cell(point.getY())));
+    if (bucket != null) {
+      for (T item : bucket) {
+        if (boundsMap.get(item).contains(point)) {
+          result.add(item);
+        }
+      }
+    }
+    for (T item : largeItems) {
+      if (boundsMap.get(item).contains(point)) {
+        result.add(item);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @param rect
+   * @return all items whose bounds intersect the specified rectangle, in no particular order.
+   */
+  public Set<T> query(Rectangle2D rect) {
+    Set<T> result = new HashSet<T>();
+    int minX = cell(rect.getMinX());
+    int minY = cell(rect.getMinY());
+    int maxX = cell(rect.getMaxX());
+    int maxY = cell(rect.getMaxY());
+    if ((long) (maxX - minX + 1) * (maxY - minY + 1) > cells.size()) {
+      // cheaper to check everything
+      for (Map.Entry<T, Rectangle2D> entry : boundsMap.entrySet()) {
+        if (entry.getValue().intersects(rect)) {
+          result.add(entry.getKey());
+        }
+      }
+      return result;
+    }
+    for (int x = minX; x <= maxX; x++) {
+      for (int y = minY; y <= maxY; y++) {
+        List<T> bucket = cells.get(key(x, y));
+        if (bucket != null) {
+          for (T item : bucket) {
+            if (boundsMap.get(item).intersects(rect)) {
+              result.add(item);
+            }
+          }
+        }
+      }
+    }
+    for (T item : largeItems) {
+      if (boundsMap.get(item).intersects(rect)) {
+        result.add(item);
+      }
+    }
+    return result;
+  }
+
+  private int cell(double coordinate) {
+    return (int) Math.floor(coordinate / cellSize);
+  }
+
+  private static Long key(int x, int y) {
+    return ((long) x << 32) | (y & 0xffffffffL);
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ *
+ * DIY Layout Creator (DIYLC). Copyright (c) 2009-2018 held jointly by the individual authors.
+ *
+ * This file is part of DIYLC.
+ *
+ * DIYLC is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * DIYLC is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DIYLC. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.diylc.presenter;
+
+import java.awt.Font;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.diylc.core.ComponentState;
+import org.diylc.core.IDIYComponent;
+import org.diylc.core.Theme;
+import org.diylc.core.measures.Size;
+
+/**
+ * Keeps pre-rendered images of components so unchanged components can be blitted instead of
+ * being drawn again. Each image is only valid for the state, outline mode, theme, project settings
+ * and transform it has been rendered with. Cache is bounded by the total number of bytes taken by images and evicts
+ * the least recently used images first.
+ */
+public class SpriteCache {
+
+  public static long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+  private final long maxBytes;
+  private long usedBytes = 0;
+  private long hitCount = 0;
+  private long missCount = 0;
+
+  private LinkedHashMap<IDIYComponent<?>, Sprite> spriteMap =
+      new LinkedHashMap<IDIYComponent<?>, Sprite>(16, 0.75f, true);
+
+  public SpriteCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * @param component
+   * @param key
+   * @return cached sprite of the component if it has been rendered with the same settings, null
+   *         otherwise.
+   */
+  public Sprite get(IDIYComponent<?> component, SpriteKey key) {
+    Sprite sprite = spriteMap.get(component);
+    if (sprite != null && sprite.key.equals(key)) {
+      hitCount++;
+      return sprite;
+    }
+    missCount++;
+    return null;
+  }
+
+  /**
+   * @param width
+   * @param height
+   * @return true if an image of the specified size is small enough to be cached.
+   */
+  public boolean accepts(int width, int height) {
+    return width > 0 && height > 0 && getSize(width, height) <= maxBytes / 8;
+  }
+
+  public void put(IDIYComponent<?> component, Sprite sprite) {
+    remove(component);
+    spriteMap.put(component, sprite);
+    usedBytes += getSize(sprite.image.getWidth(), sprite.image.getHeight());
+    Iterator<Map.Entry<IDIYComponent<?>, Sprite>> iterator = spriteMap.entrySet().iterator();
+    while (usedBytes > maxBytes && iterator.hasNext()) {
+      Sprite eldest = iterator.next().getValue();
+      usedBytes -= getSize(eldest.image.getWidth(), eldest.image.getHeight());
+      iterator.remove();
+    }
+  }
+
+  public void remove(IDIYComponent<?> component) {
+    Sprite sprite = spriteMap.remove(component);
+    if (sprite != null) {
+      usedBytes -= getSize(sprite.image.getWidth(), sprite.image.getHeight());
+    }
+  }
+
+  public void clear() {
+    spriteMap.clear();
+    usedBytes = 0;
+  }
+
+  public long getHitCount() {
+    return hitCount;
+  }
+
+  public long getMissCount() {
+    return missCount;
+  }
+
+  public long getUsedBytes() {
+    return usedBytes;
+  }
+
+  public int getSize() {
+    return spriteMap.size();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d sprites, %d KB, %d hits, %d misses", spriteMap.size(), usedBytes / 1024, hitCount,
+        missCount);
+  }
+
+  private static long getSize(int width, int height) {
+    // ARGB images take 4 bytes per pixel
+    return 4L * width * height;
+  }
+
+  /**
+   * Pre-rendered component image together with its offset from the integer part of the device
+   * translation it has been rendered with.
+   */
+  public static class Sprite {
+
+    private final SpriteKey key;
+    private final BufferedImage image;
+    private final int offsetX;
+    private final int offsetY;
+
+    public Sprite(SpriteKey key, BufferedImage image, int offsetX, int offsetY) {
+      this.key = key;
+      this.image = image;
+      this.offsetX = offsetX;
+      this.offsetY = offsetY;
+    }
+
+    public BufferedImage getImage() {
+      return image;
+    }
+
+    public int getOffsetX() {
+      return offsetX;
+    }
+
+    public int getOffsetY() {
+      return offsetY;
+    }
+  }
+
+  /**
+   * Everything besides the component itself that affects how the sprite looks.
+   */
+  public static class SpriteKey {
+
+    private final ComponentState state;
+    private final boolean outlineMode;
+    private final Theme theme;
+    // project settings that components may use when drawing
+    private final Font font;
+    private final Size gridSpacing;
+    private final double scaleX;
+    private final double scaleY;
+    private final double fractionX;
+    private final double fractionY;
+
+    public SpriteKey(ComponentState state, boolean outlineMode, Theme theme, Font font, Size gridSpacing,
+        double scaleX, double scaleY, double fractionX, double fractionY) {
+      this.state = state;
+      this.outlineMode = outlineMode;
+      this.theme = theme;
+      this.font = font;
+      this.gridSpacing = gridSpacing;
+      this.scaleX = scaleX;
+      this.scaleY = scaleY;
+      this.fractionX = fractionX;
+      this.fractionY = fractionY;
+    }
+
+    @Override
+    public int hashCode() {
+      final int prime = 31;
+      int result = 1;
+      result = prime * result + ((state == null) ? 0 : state.hashCode());
+      result = prime * result + (outlineMode ? 1231 : 1237);
+      result = prime * result + System.identityHashCode(theme);
+      result = prime * result + ((font == null) ? 0 : font.hashCode());
+      result = prime * result + ((gridSpacing == null) ? 0 : gridSpacing.hashCode());
+      long temp = Double.doubleToLongBits(scaleX);
+      result = prime * result + (int) (temp ^ (temp >>> 32));
+      temp = Double.doubleToLongBits(scaleY);
+      result = prime * result + (int) (temp ^ (temp >>> 32));
+      temp = Double.doubleToLongBits(fractionX);
+      result = prime * result + (int) (temp ^ (temp >>> 32));
+      temp = Double.doubleToLongBits(fractionY);
+      result = prime * result + (int) (temp ^ (temp >>> 32));
+      return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (obj == null)
+        return false;
+      if (getClass() != obj.getClass())
+        return false;
+      SpriteKey other = (SpriteKey) obj;
+      // themes are replaced as a whole, so identity is enough
+      return state == other.state && outlineMode == other.outlineMode && theme == other.theme
+          && (font == null ? other.font == null : font.equals(other.font))
+          && (gridSpacing == null ? other.gridSpacing == null : gridSpacing.equals(other.gridSpacing))
+          && Double.doubleToLongBits(scaleX) == Double.doubleToLongBits(other.scaleX)
+          && Double.doubleToLongBits(scaleY) == Double.doubleToLongBits(other.scaleY)
+          && Double.doubleToLongBits(fractionX) == Double.doubleToLongBits(other.fractionX)
+          && Double.doubleToLongBits(fractionY) == Double.doubleToLongBits(other.fractionY);
+    }
+  }
+}
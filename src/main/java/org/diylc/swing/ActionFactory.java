@@ -24,6 +24,7 @@ import java.awt.Toolkit;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.ClipboardOwner;
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.print.PrinterException;
 import java.io.BufferedOutputStream;
@@ -40,11 +41,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.AbstractAction;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 
 import org.apache.log4j.Logger;
 import org.diylc.appframework.miscutils.ConfigurationManager;
@@ -53,6 +56,7 @@ import org.diylc.common.ComponentType;
 import org.diylc.common.IComponentTransformer;
 import org.diylc.common.INetlistAnalyzer;
 import org.diylc.common.IPlugInPort;
+import org.diylc.common.IProgressMonitor;
 import org.diylc.common.ITask;
 import org.diylc.common.PropertyWrapper;
 import org.diylc.common.VariantPackage;
@@ -79,6 +83,7 @@ import org.diylc.swing.plugins.file.FileFilterEnum;
 import org.diylc.swingframework.ButtonDialog;
 import org.diylc.swingframework.CheckBoxListDialog;
 import org.diylc.swingframework.IDrawingProvider;
+import org.diylc.swingframework.ProgressDialog;
 import org.diylc.swingframework.export.DrawingExporter;
 import org.diylc.swingframework.TextDialog;
 import org.diylc.utils.BomEntry;
@@ -146,8 +151,8 @@ public class ActionFactory {
 	return new ImportVariantsAction(swingUI, plugInPort);
     }
   
-    public ExportBlocksAction createExportBlocksAction(ISwingUI swingUI) {
-	return new ExportBlocksAction(swingUI);
+    public ExportBlocksAction createExportBlocksAction(ISwingUI swingUI, IPlugInPort plugInPort) {
+	return new ExportBlocksAction(swingUI, plugInPort);
     }
   
     public ImportBlocksAction createImportBlocksAction(ISwingUI swingUI, IPlugInPort plugInPort) {
@@ -453,42 +458,13 @@ public class ActionFactory {
 		    DialogFactory.getInstance().showSaveDialog(swingUI.getOwnerFrame(), FileFilterEnum.DIY.getFilter(), null,
 							       FileFilterEnum.DIY.getExtensions()[0], null);
 		if (file != null) {
-		    swingUI.executeBackgroundTask(new ITask<Void>() {
-
-			    @Override
-			    public Void doInBackground() throws Exception {
-				LOG.debug("Saving to " + file.getAbsolutePath());
-				plugInPort.saveProjectToFile(file.getAbsolutePath(), false);
-				return null;
-			    }
-
-			    @Override
-			    public void complete(Void result) {}
-
-			    @Override
-			    public void failed(Exception e) {
-				swingUI.showMessage("Could not save to file. " + e.getMessage(), "Error", ISwingUI.ERROR_MESSAGE);
-			    }
-			}, true);
+		    // the project is written in the background, failures are reported by the presenter
+		    LOG.debug("Saving to " + file.getAbsolutePath());
+		    plugInPort.saveProjectToFile(file.getAbsolutePath(), false);
 		}
 	    } else {
-		swingUI.executeBackgroundTask(new ITask<Void>() {
-
-			@Override
-			public Void doInBackground() throws Exception {
-			    LOG.debug("Saving to " + plugInPort.getCurrentFileName());
-			    plugInPort.saveProjectToFile(plugInPort.getCurrentFileName(), false);
-			    return null;
-			}
-
-			@Override
-			public void complete(Void result) {}
-
-			@Override
-			public void failed(Exception e) {
-			    swingUI.showMessage("Could not save to file. " + e.getMessage(), "Error", ISwingUI.ERROR_MESSAGE);
-			}
-		    }, true);
+		LOG.debug("Saving to " + plugInPort.getCurrentFileName());
+		plugInPort.saveProjectToFile(plugInPort.getCurrentFileName(), false);
 	    }
 	}
     }
@@ -519,23 +495,9 @@ public class ActionFactory {
 		DialogFactory.getInstance().showSaveDialog(swingUI.getOwnerFrame(), FileFilterEnum.DIY.getFilter(), null,
 							   FileFilterEnum.DIY.getExtensions()[0], null);
 	    if (file != null) {
-		swingUI.executeBackgroundTask(new ITask<Void>() {
-
-			@Override
-			public Void doInBackground() throws Exception {
-			    LOG.debug("Saving to " + file.getAbsolutePath());
-			    plugInPort.saveProjectToFile(file.getAbsolutePath(), false);
-			    return null;
-			}
-
-			@Override
-			public void complete(Void result) {}
-
-			@Override
-			public void failed(Exception e) {
-			    swingUI.showMessage("Could not save to file. " + e.getMessage(), "Error", ISwingUI.ERROR_MESSAGE);
-			}
-		    }, true);
+		// the project is written in the background, failures are reported by the presenter
+		LOG.debug("Saving to " + file.getAbsolutePath());
+		plugInPort.saveProjectToFile(file.getAbsolutePath(), false);
 	    }
 	}
     }
@@ -563,7 +525,7 @@ public class ActionFactory {
 	    String currentFile = plugInPort.getCurrentFileName();
 	    if (currentFile != null) {
 		File cFile = new File(currentFile);        
-		initialFileName = cFile.getName().replaceAll("(?i)\\.diy", "") + " BOM";
+		initialFileName = cFile.getName().replaceAll("(?i)\\.diy[bz]?", "") + " BOM";
 	    }
       
 	    BomDialog dialog = DialogFactory.getInstance().createBomDialog(bom, initialFileName);
@@ -598,7 +560,7 @@ public class ActionFactory {
 	    String currentFile = plugInPort.getCurrentFileName();
 	    if (currentFile != null) {
 		File cFile = new File(currentFile);        
-		initialFile = new File(cFile.getName().replaceAll("(?i)\\.diy", "") + defaultSuffix + ".pdf");
+		initialFile = new File(cFile.getName().replaceAll("(?i)\\.diy[bz]?", "") + defaultSuffix + ".pdf");
 	    }
       
 	    final File file =
@@ -654,7 +616,7 @@ public class ActionFactory {
 	    String currentFile = plugInPort.getCurrentFileName();
 	    if (currentFile != null) {
 		File cFile = new File(currentFile);        
-		initialFile = new File(cFile.getName().replaceAll("(?i)\\.diy", "") + defaultSuffix + ".png");
+		initialFile = new File(cFile.getName().replaceAll("(?i)\\.diy[bz]?", "") + defaultSuffix + ".png");
 	    }
       
 	    final File file =
@@ -712,12 +674,14 @@ public class ActionFactory {
 	private static final long serialVersionUID = 1L;
 
 	private ISwingUI swingUI;
+	private IPlugInPort plugInPort;
     
 	private Map<String, ComponentType> typeMap = new TreeMap<String, ComponentType>(String.CASE_INSENSITIVE_ORDER);
 
 	public ExportVariantsAction(ISwingUI swingUI, IPlugInPort plugInPort) {
 	    super();
 	    this.swingUI = swingUI;
+	    this.plugInPort = plugInPort;
 	    putValue(AbstractAction.NAME, "Export Variants");
       
 	    Map<String, List<ComponentType>> componentTypes = plugInPort.getComponentTypes();
@@ -727,7 +691,6 @@ public class ActionFactory {
 		}
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
 	public void actionPerformed(ActionEvent e) {
 	    LOG.info("ExportVariantsAction triggered");
@@ -735,15 +698,14 @@ public class ActionFactory {
 	    Map<String, List<Template>> selectedVariants;
       
 	    try {
-		Map<String, List<Template>> variantMap =
-		    (Map<String, List<Template>>) ConfigurationManager.getInstance().readObject(IPlugInPort.TEMPLATES_KEY, null);
-		if (variantMap == null || variantMap.isEmpty()) {
+		List<String> variantTypes = plugInPort.getUserVariantTypes();
+		if (variantTypes.isEmpty()) {
 		    swingUI.showMessage("No variants found to export.", "Error", IView.ERROR_MESSAGE);
 		    return;
 		}
         
 		List<ComponentType> types = new ArrayList<ComponentType>();
-		for (String className : variantMap.keySet()) {
+		for (String className : variantTypes) {
 		    ComponentType type = typeMap.get(className);
 		    if (type != null)            
 			types.add(type);
@@ -776,7 +738,7 @@ public class ActionFactory {
 		for (Object key : selected) {
 		    ComponentType type = (ComponentType) key;
 		    String clazz = type.getInstanceClass().getCanonicalName();
-		    List<Template> variants = variantMap.get(clazz);
+		    List<Template> variants = plugInPort.getUserVariantsFor(clazz);
 		    if (variants != null)
 			selectedVariants.put(clazz, variants);
 		}
@@ -879,15 +841,16 @@ public class ActionFactory {
 	private static final long serialVersionUID = 1L;
 
 	private ISwingUI swingUI;
+	private IPlugInPort plugInPort;
 
-	public ExportBlocksAction(ISwingUI swingUI) {
+	public ExportBlocksAction(ISwingUI swingUI, IPlugInPort plugInPort) {
 	    super();
 	    this.swingUI = swingUI;
+	    this.plugInPort = plugInPort;
 	    putValue(AbstractAction.NAME, "Export Building Blocks");
 	    // putValue(AbstractAction.SMALL_ICON, IconLoader.Print.getIcon());
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
 	public void actionPerformed(ActionEvent e) {
 	    LOG.info("ExportBuildingBlocksAction triggered");
@@ -895,14 +858,13 @@ public class ActionFactory {
 	    Map<String, List<IDIYComponent<?>>> selectedBlocks;
       
 	    try {
-		Map<String, List<IDIYComponent<?>>> blocks =
-		    (Map<String, List<IDIYComponent<?>>>) ConfigurationManager.getInstance().readObject(IPlugInPort.BLOCKS_KEY, null);
-		if (blocks == null || blocks.isEmpty()) {
+		List<String> blockNames = plugInPort.getBlockNames();
+		if (blockNames.isEmpty()) {
 		    swingUI.showMessage("No building blocks found to export.", "Error", IView.ERROR_MESSAGE);
 		    return;
 		}
         
-		String[] options = blocks.keySet().toArray(new String[0]);
+		String[] options = blockNames.toArray(new String[0]);
         
 		Arrays.sort(options, new Comparator<String>() {
   
@@ -927,7 +889,7 @@ public class ActionFactory {
         
 		selectedBlocks = new HashMap<String, List<IDIYComponent<?>>>();
 		for (Object key : selected) {
-		    selectedBlocks.put(key.toString(), blocks.get(key));
+		    selectedBlocks.put(key.toString(), plugInPort.getBlock(key.toString()));
 		}
 	    } catch (Exception ex) {
 		LOG.error("Error preparing building blocks for export", ex);
@@ -1045,6 +1007,7 @@ public class ActionFactory {
 	public void actionPerformed(ActionEvent e) {
 	    LOG.info("ExitAction triggered");
 	    if (plugInPort.allowFileAction()) {
+		ConfigurationManager.getInstance().writeValue(IPlugInPort.ABNORMAL_EXIT_KEY, false);
 		System.exit(0);
 	    }
 	}
@@ -1718,12 +1681,42 @@ public class ActionFactory {
 
 	@Override
 	public void actionPerformed(ActionEvent e) {
+	    final ProgressDialog progressDialog =
+		DialogFactory.getInstance().createProgressDialog(summarizer.getName(), new String[] {ButtonDialog.CANCEL},
+								 "Analyzing switch combinations...", true);
+	    final AtomicBoolean canceled = new AtomicBoolean(false);
+	    progressDialog.getButton(ButtonDialog.CANCEL).addActionListener(new ActionListener() {
+
+		    @Override
+		    public void actionPerformed(ActionEvent e) {
+			canceled.set(true);
+		    }
+		});
+	    final IProgressMonitor monitor = new IProgressMonitor() {
+
+		    @Override
+		    public void progressChanged(long done, long total) {
+			final int percent = (int) (100 * done / total);
+			SwingUtilities.invokeLater(new Runnable() {
+
+				@Override
+				public void run() {
+				    progressDialog.setProgress(percent);
+				}
+			    });
+		    }
+
+		    @Override
+		    public boolean isCanceled() {
+			return canceled.get();
+		    }
+		};
       
 	    swingUI.executeBackgroundTask(new ITask<List<Summary>>() {
 
 		    @Override
 		    public List<Summary> doInBackground() throws Exception {
-			List<Netlist> netlists = plugInPort.extractNetlists(true);
+			List<Netlist> netlists = plugInPort.extractNetlists(true, monitor);
 			if (netlists == null || netlists.isEmpty()) {
 			    throw new Exception("The generated netlist is empty, nothing to show.");            
 			}
@@ -1733,11 +1726,15 @@ public class ActionFactory {
 
 		    @Override
 		    public void failed(Exception e) {
+			progressDialog.setVisible(false);
+			if (canceled.get())
+			    return;
 			swingUI.showMessage(e.getMessage(), summarizer.getName(), ISwingUI.INFORMATION_MESSAGE);
 		    }
 
 		    @Override
 		    public void complete(List<Summary> res) {
+			progressDialog.setVisible(false);
 			if (res == null) {
 			    swingUI.showMessage("The generated summary is empty, nothing to show.", summarizer.getName(), ISwingUI.INFORMATION_MESSAGE);
 			    return;
@@ -1764,7 +1761,9 @@ public class ActionFactory {
 			sb.append("</html>");
 			new TextDialog(swingUI.getOwnerFrame().getRootPane(), sb.toString(), summarizer.getName(), new Dimension(600, 480)).setVisible(true);
 		    }        
-		}, true);
+		}, false);
+	    // modal, returns once the task is done or canceled
+	    progressDialog.setVisible(true);
 	}    
     }
 }
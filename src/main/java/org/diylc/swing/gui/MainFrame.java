@@ -49,6 +49,7 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JRadioButtonMenuItem;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
 import javax.swing.Timer;
 import javax.swing.event.MenuEvent;
@@ -445,11 +446,19 @@ public class MainFrame extends JFrame implements ISwingUI {
 		    fileName = "Untitled";
 		}
 		String modified = (Boolean) params[1] ? " (modified)" : "";
-		setTitle(String.format("DIYLC++ G3 version %s.%s - %s %s",
-				       plugInPort.getCurrentVersionNumber().getMinor(),
-				       plugInPort.getCurrentVersionNumber().getBuild(),
-				       fileName,
-				       modified));
+		final String title = String.format("DIYLC++ G3 version %s.%s - %s %s",
+						   plugInPort.getCurrentVersionNumber().getMinor(),
+						   plugInPort.getCurrentVersionNumber().getBuild(),
+						   fileName,
+						   modified);
+		// also sent from the thread that saves files
+		SwingUtilities.invokeLater(new Runnable() {
+
+			@Override
+			public void run() {
+			    setTitle(title);
+			}
+		    });
 	    }
 	}
     }
@@ -25,35 +25,49 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import javax.swing.SwingUtilities;
+
 import org.apache.log4j.Logger;
+import org.diylc.appframework.miscutils.ConfigurationManager;
 import org.diylc.appframework.miscutils.Utils;
+import org.diylc.appframework.simplemq.MessageDispatcher;
 import org.diylc.common.EventType;
 import org.diylc.common.IPlugIn;
 import org.diylc.common.IPlugInPort;
 import org.diylc.core.IView;
+import org.diylc.core.Project;
+import org.diylc.presenter.ProjectFileManager;
 
+/**
+ * Protects unsaved work. Each change to the project is appended to a {@link ProjectJournal} as it
+ * happens, and if the application did not exit normally the last time, the project is rebuilt from
+ * the journal on the next start and saved to the backup directory. Loaded files are copied to the
+ * backup directory as well.
+ */
 public class AutoSavePlugin implements IPlugIn {
 
   private static final String AUTO_SAVE_PATH = Utils.getUserDataDirectory("diylc") + "backup";
+  private static final String JOURNAL_PATH = AUTO_SAVE_PATH + File.separator + "journal";
 
   private static final Logger LOG = Logger.getLogger(AutoSavePlugin.class);
 
-  public static long BACKUP_FREQ_MS = 60 * 1000;
   public static int MAX_TOTAL_SIZE_MB = 64;
 
+  // all the file operations run here, in the order the events were received
   private ExecutorService executor;
 
+  private IView view;
   private IPlugInPort plugInPort;
-  private long lastSave = 0;
+  private ProjectJournal journal;
+  private BackupIndex index;
 
   public AutoSavePlugin(IView view) {
+    this.view = view;
     executor = Executors.newSingleThreadExecutor();
   }
 
@@ -64,42 +78,154 @@ public class AutoSavePlugin implements IPlugIn {
     File dir = new File(AUTO_SAVE_PATH);
     if (!dir.exists())
       dir.mkdirs();
+    index = new BackupIndex(dir);
+
+    final boolean abnormalExit = ConfigurationManager.getInstance().readBoolean(IPlugInPort.ABNORMAL_EXIT_KEY, false);
+    // set back to false when the application exits normally
+    ConfigurationManager.getInstance().writeValue(IPlugInPort.ABNORMAL_EXIT_KEY, true);
+
+    try {
+      journal = ProjectJournal.open(new File(JOURNAL_PATH));
+      if (journal == null) {
+        LOG.info("Journal is used by another instance, changes will not be journaled");
+      }
+    } catch (IOException e) {
+      LOG.error("Could not open the journal", e);
+    }
+    if (journal == null) {
+      return;
+    }
+
+    executor.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        if ((abnormalExit || journal.isRecoveryPending()) && !recover()) {
+          // keep the changes for the next start rather than overwrite them
+          LOG.warn("Keeping the journal for the next start, changes will not be journaled");
+          try {
+            journal.keepForRecovery();
+          } catch (IOException e) {
+            LOG.error("Could not mark the journal for recovery", e);
+          }
+          journal.close();
+          journal = null;
+          return;
+        }
+        journal.clear();
+      }
+    });
   }
 
   @Override
   public EnumSet<EventType> getSubscribedEventTypes() {
-    return EnumSet.of(EventType.PROJECT_MODIFIED, EventType.PROJECT_LOADED);
+    return EnumSet.of(EventType.PROJECT_MODIFIED, EventType.PROJECT_LOADED, EventType.FILE_STATUS_CHANGED);
   }
 
   @Override
-  public void processMessage(EventType eventType, Object... params) {
+  public void processMessage(EventType eventType, final Object... params) {
+    // the journal is only accessed by the executor, which may also give it up
     if (eventType == EventType.PROJECT_MODIFIED) {
-      if (System.currentTimeMillis() - lastSave > BACKUP_FREQ_MS) {
+      final String fileName = plugInPort.getCurrentFileName();
+      executor.execute(new Runnable() {
+
+        @Override
+        public void run() {
+          if (journal == null) {
+            return;
+          }
+          try {
+            journal.append((Project) params[0], (Project) params[1], fileName);
+          } catch (Exception e) {
+            LOG.error("Could not journal the change", e);
+          }
+        }
+      });
+    } else if (eventType == EventType.PROJECT_LOADED) {
+      final boolean freshStart = (Boolean) params[1];
+      final String fileName = (String) params[2];
+      executor.execute(new Runnable() {
+
+        @Override
+        public void run() {
+          // undo and redo load projects as well, keep journaling those
+          if (freshStart && journal != null) {
+            journal.clear();
+          }
+          if (fileName != null && freshStart) {
+            String backupName = generateBackupFileName(fileName);
+            try {
+              copyFileUsingStream(new File(fileName), new File(backupName));
+              LOG.info("Copied loaded file to " + backupName);
+              addBackup(new File(backupName));
+            } catch (IOException e) {
+              LOG.error("Could not copy the loaded file to backup", e);
+            }
+          }
+        }
+      });
+    } else if (eventType == EventType.FILE_STATUS_CHANGED) {
+      boolean modified = (Boolean) params[1];
+      if (!modified) {
+        // everything is saved
         executor.execute(new Runnable() {
 
           @Override
           public void run() {
-            Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
-
-            lastSave = System.currentTimeMillis();
-            String fileName = generateBackupFileName(plugInPort.getCurrentFileName());
-            plugInPort.saveProjectToFile(fileName, true);
-            cleanupExtra();
+            if (journal != null) {
+              journal.clear();
+            }
           }
         });
       }
-    } else if (eventType == EventType.PROJECT_LOADED) {
-      String fileName = (String) params[2];
-      if (fileName != null) {
-        String backupName = generateBackupFileName(fileName);
-        try {
-          copyFileUsingStream(new File(fileName), new File(backupName));
-          LOG.info("Copied loaded file to " + backupName);
-        } catch (IOException e) {
-          LOG.error("Could not copy the loaded file to backup", e);
+    }
+  }
+
+  /**
+   * Saves the project rebuilt from the journal to the backup directory and offers to open it.
+   *
+   * @return true if there was nothing to recover or the recovered project has been saved, false if
+   *         the journal must be kept.
+   */
+  private boolean recover() {
+    ProjectJournal.Recovery recovery;
+    try {
+      recovery = journal.recover();
+    } catch (Exception e) {
+      LOG.error("Could not recover the project from the journal", e);
+      return false;
+    }
+    if (recovery == null) {
+      return true;
+    }
+    final String backupName = generateBackupFileName(recovery.getFileName());
+    try {
+      new ProjectFileManager(new MessageDispatcher<EventType>(true)).serializeProjectToFile(recovery.getProject(),
+          backupName, true);
+    } catch (Exception e) {
+      LOG.error("Could not save the recovered project", e);
+      return false;
+    }
+    LOG.info("Saved the recovered project to " + backupName);
+    addBackup(new File(backupName));
+    SwingUtilities.invokeLater(new Runnable() {
+
+      @Override
+      public void run() {
+        if (view.showConfirmDialog("It looks like DIYLC did not close properly the last time.\n"
+            + "Unsaved changes were recovered and saved to " + backupName + "\n" + "Do you want to open the file now?",
+            "Recovery", IView.YES_NO_OPTION, IView.QUESTION_MESSAGE) == IView.YES_OPTION
+            && plugInPort.allowFileAction()) {
+          plugInPort.loadProjectFromFile(backupName);
         }
       }
-    }
+    });
+    return true;
+  }
+
+  private void addBackup(File file) {
+    index.add(file);
+    index.trim(MAX_TOTAL_SIZE_MB * 1024L * 1024L);
   }
 
   private static void copyFileUsingStream(File source, File dest) throws IOException {
@@ -126,8 +252,7 @@ public class AutoSavePlugin implements IPlugIn {
     String name = file.getName();
 
     // remove extension
-    if (name.toLowerCase().endsWith(".diy"))
-      name = name.substring(0, name.length() - 4);
+    name = name.replaceAll("(?i)\\.diy[bz]?$", "");
 
     // append date and time
     Date date = new Date();
@@ -141,27 +266,4 @@ public class AutoSavePlugin implements IPlugIn {
     }
     return file.getAbsolutePath();
   }
-
-  private void cleanupExtra() {
-    File[] files = new File(AUTO_SAVE_PATH).listFiles();
-    // sort files by date
-    Arrays.sort(files, new Comparator<File>() {
-
-      @Override
-      public int compare(File o1, File o2) {
-        return new Long(o1.lastModified()).compareTo(o2.lastModified());
-      }
-    });
-    long totalSize = 0;
-    long maxTotalSize = MAX_TOTAL_SIZE_MB * 1024 * 1024;
-    for (File f : files)
-      totalSize += f.length();
-    int i = 0;
-    while (i < files.length && totalSize > maxTotalSize) {
-      totalSize -= files[i].length();
-      LOG.info("Maximum backup size exceeded. Deleteting old backup file: " + files[i].getName());
-      files[i].delete();
-      i++;
-    }
-  }
 }
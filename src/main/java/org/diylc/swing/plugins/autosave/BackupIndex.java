@@ -0,0 +1,141 @@
+/*
+ *
+ * DIY Layout Creator (DIYLC). Copyright (c) 2009-2018 held jointly by the individual authors.
+ *
+ * This file is part of DIYLC.
+ *
+ * DIYLC is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * DIYLC is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DIYLC. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.diylc.swing.plugins.autosave;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.diylc.appframework.Serializer;
+
+/**
+ * Keeps track of backup files and their sizes, oldest first, so old backups can be deleted without
+ * listing the whole backup directory each time a new one is made. The index is rebuilt from the
+ * directory when it's missing or can't be read.
+ *
+ * Not thread safe, all the calls are expected to come from the same thread.
+ */
+class BackupIndex {
+
+  private static final Logger LOG = Logger.getLogger(BackupIndex.class);
+
+  private static final String INDEX_FILE = "index.xml";
+
+  private final File directory;
+  private final File indexFile;
+  private LinkedHashMap<String, Long> sizes;
+  private long totalSize;
+
+  public BackupIndex(File directory) {
+    this.directory = directory;
+    this.indexFile = new File(directory, INDEX_FILE);
+  }
+
+  /**
+   * Adds a new backup file to the index.
+   *
+   * @param file
+   */
+  public void add(File file) {
+    load();
+    Long oldSize = sizes.remove(file.getName());
+    if (oldSize != null) {
+      totalSize -= oldSize;
+    }
+    sizes.put(file.getName(), file.length());
+    totalSize += file.length();
+    save();
+  }
+
+  /**
+   * Deletes the oldest backup files until the total size fits the limit.
+   *
+   * @param maxTotalSize
+   */
+  public void trim(long maxTotalSize) {
+    load();
+    boolean changed = false;
+    Iterator<Map.Entry<String, Long>> iterator = sizes.entrySet().iterator();
+    while (totalSize > maxTotalSize && iterator.hasNext()) {
+      Map.Entry<String, Long> entry = iterator.next();
+      LOG.info("Maximum backup size exceeded. Deleting old backup file: " + entry.getKey());
+      new File(directory, entry.getKey()).delete();
+      totalSize -= entry.getValue();
+      iterator.remove();
+      changed = true;
+    }
+    if (changed) {
+      save();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void load() {
+    if (sizes != null) {
+      return;
+    }
+    if (indexFile.exists()) {
+      try {
+        sizes = (LinkedHashMap<String, Long>) Serializer.fromFile(indexFile);
+      } catch (Exception e) {
+        LOG.warn("Could not read the backup index, rebuilding it", e);
+      }
+    }
+    if (sizes == null) {
+      rebuild();
+    }
+    totalSize = 0;
+    for (Long size : sizes.values()) {
+      totalSize += size;
+    }
+  }
+
+  private void rebuild() {
+    sizes = new LinkedHashMap<String, Long>();
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    // sort files by date
+    Arrays.sort(files, new Comparator<File>() {
+
+      @Override
+      public int compare(File o1, File o2) {
+        return Long.compare(o1.lastModified(), o2.lastModified());
+      }
+    });
+    for (File file : files) {
+      if (file.isFile() && !file.equals(indexFile)) {
+        sizes.put(file.getName(), file.length());
+      }
+    }
+    save();
+  }
+
+  private void save() {
+    try {
+      Serializer.toFile(indexFile, sizes);
+    } catch (Exception e) {
+      LOG.warn("Could not write the backup index", e);
+    }
+  }
+}
@@ -0,0 +1,428 @@
+/*
+ *
+ * DIY Layout Creator (DIYLC). Copyright (c) 2009-2018 held jointly by the individual authors.
+ *
+ * This file is part of DIYLC.
+ *
+ * DIYLC is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * DIYLC is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DIYLC. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.diylc.swing.plugins.autosave;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+import org.diylc.appframework.Serializer;
+import org.diylc.appframework.miscutils.IContentWriter;
+import org.diylc.appframework.miscutils.Utils;
+import org.diylc.core.IDIYComponent;
+import org.diylc.core.Project;
+
+/**
+ * Append-only log of project changes that is used to recover unsaved work after a crash.
+ *
+ * The journal consists of a checkpoint with the complete project and a log with one record per
+ * change made after the checkpoint. Each record only holds the components that were added or
+ * changed, along with the order of all components and the groups, both of which refer to
+ * components by number. When the log grows too large, a new checkpoint is written and the log
+ * starts over. Each checkpoint has a generation number that its records are tagged with, so records
+ * left over from an older checkpoint, e.g. after a crash just after a new one was written, are
+ * never applied to it.
+ *
+ * Projects passed to {@link #append(Project, Project, String)} must be snapshots that are never
+ * modified, as the ones dispatched with {@link org.diylc.common.EventType#PROJECT_MODIFIED}. Changed
+ * components are told apart from unchanged ones by identity, as consecutive snapshots share the
+ * copies of the components that did not change.
+ *
+ * Not thread safe, all the calls are expected to come from the same thread.
+ */
+class ProjectJournal {
+
+  private static final Logger LOG = Logger.getLogger(ProjectJournal.class);
+
+  private static final String CHECKPOINT_FILE = "checkpoint.bin";
+  private static final String LOG_FILE = "journal.bin";
+  private static final String LOCK_FILE = "lock";
+  // Present while the journal holds changes that could not be recovered yet.
+  private static final String PENDING_FILE = "pending";
+
+  // A new checkpoint is written when the log exceeds either of these.
+  private static final int MAX_RECORDS = 200;
+  private static final long MAX_LOG_SIZE = 4 * 1024 * 1024;
+
+  private final File directory;
+  private final FileChannel lockChannel;
+  private final FileLock lock;
+
+  private FileOutputStream logOut;
+  private DataOutputStream logData;
+  private int recordCount;
+
+  // Snapshot the last record was made from, and the numbers of its components.
+  private Project lastSnapshot;
+  private Map<IDIYComponent<?>, Integer> ids = new IdentityHashMap<IDIYComponent<?>, Integer>();
+  private int nextId;
+  // generation of the current checkpoint
+  private long generation;
+
+  private ProjectJournal(File directory, FileChannel lockChannel, FileLock lock) {
+    this.directory = directory;
+    this.lockChannel = lockChannel;
+    this.lock = lock;
+  }
+
+  /**
+   * Opens the journal stored in the specified directory, making sure that no other instance of
+   * the application uses it at the same time.
+   *
+   * @param directory
+   * @return the journal, or null if it's used by another instance.
+   * @throws IOException
+   */
+  public static ProjectJournal open(File directory) throws IOException {
+    directory.mkdirs();
+    FileChannel channel = new RandomAccessFile(new File(directory, LOCK_FILE), "rw").getChannel();
+    FileLock lock;
+    try {
+      lock = channel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      lock = null;
+    }
+    if (lock == null) {
+      channel.close();
+      return null;
+    }
+    return new ProjectJournal(directory, channel, lock);
+  }
+
+  /**
+   * Records the change between two snapshots of the project. If the first snapshot is not the one
+   * passed as the second parameter the last time, e.g. when a different project has been loaded, a
+   * checkpoint is written first.
+   *
+   * @param oldSnapshot project before the change
+   * @param newSnapshot project after the change
+   * @param fileName name of the file the project belongs to, may be null
+   * @throws IOException
+   */
+  public void append(Project oldSnapshot, Project newSnapshot, String fileName) throws IOException {
+    if (logData == null || oldSnapshot != lastSnapshot) {
+      // if the log is open, the old snapshot already has changes of its own, e.g. after an undo
+      checkpoint(oldSnapshot, fileName, logData != null);
+    }
+
+    Record record = createRecord(newSnapshot, false);
+    byte[] bytes = serialize(record);
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    logData.writeInt(bytes.length);
+    logData.write(bytes);
+    logData.writeLong(crc.getValue());
+    logData.flush();
+    logOut.getFD().sync();
+    recordCount++;
+    lastSnapshot = newSnapshot;
+
+    if (recordCount >= MAX_RECORDS || logOut.getChannel().size() > MAX_LOG_SIZE) {
+      checkpoint(newSnapshot, fileName, true);
+    }
+  }
+
+  /**
+   * Forgets all the changes, e.g. when the project has been saved.
+   */
+  public void clear() {
+    closeLog();
+    new File(directory, LOG_FILE).delete();
+    new File(directory, CHECKPOINT_FILE).delete();
+    new File(directory, PENDING_FILE).delete();
+    lastSnapshot = null;
+    ids.clear();
+  }
+
+  /**
+   * Marks the journal to be recovered on the next start even if the application exits normally,
+   * e.g. when recovering it failed this time. The journal must not be used afterwards.
+   *
+   * @throws IOException
+   */
+  public void keepForRecovery() throws IOException {
+    closeLog();
+    new File(directory, PENDING_FILE).createNewFile();
+  }
+
+  /**
+   * @return true if {@link #keepForRecovery()} has been called and the journal has not been cleared
+   *         since.
+   */
+  public boolean isRecoveryPending() {
+    return new File(directory, PENDING_FILE).exists();
+  }
+
+  /**
+   * Rebuilds the project from the checkpoint and all the complete records that follow it. A record
+   * that was only partly written when the application stopped is ignored. A checkpoint written after
+   * the project had been changed is recovered even if no records follow it.
+   *
+   * @return the recovered project, or null if there are no changes to recover.
+   * @throws IOException
+   */
+  public Recovery recover() throws IOException {
+    File checkpointFile = new File(directory, CHECKPOINT_FILE);
+    File logFile = new File(directory, LOG_FILE);
+    if (!checkpointFile.exists()) {
+      return null;
+    }
+    Record checkpoint;
+    BufferedInputStream checkpointIn = new BufferedInputStream(new FileInputStream(checkpointFile));
+    try {
+      checkpoint = (Record) Serializer.fromBinaryStream(checkpointIn);
+    } finally {
+      checkpointIn.close();
+    }
+    Map<Integer, IDIYComponent<?>> components = new HashMap<Integer, IDIYComponent<?>>(checkpoint.components);
+    Record last = checkpoint;
+    int count = 0;
+    DataInputStream in = new DataInputStream(new BufferedInputStream(logFile.exists() ? new FileInputStream(logFile)
+        : new ByteArrayInputStream(new byte[0])));
+    try {
+      while (true) {
+        byte[] bytes;
+        long checksum;
+        try {
+          int length = in.readInt();
+          if (length < 0 || length > logFile.length()) {
+            break;
+          }
+          bytes = new byte[length];
+          in.readFully(bytes);
+          checksum = in.readLong();
+        } catch (EOFException e) {
+          break;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        if (crc.getValue() != checksum) {
+          LOG.warn("Ignoring a damaged journal record and the ones after it");
+          break;
+        }
+        Record record = (Record) Serializer.fromBinaryStream(new ByteArrayInputStream(bytes));
+        if (record.generation != checkpoint.generation) {
+          LOG.info("Ignoring journal records written before the checkpoint");
+          break;
+        }
+        components.putAll(record.components);
+        last = record;
+        count++;
+      }
+    } finally {
+      in.close();
+    }
+    if (count == 0 && !checkpoint.hasChanges) {
+      return null;
+    }
+    LOG.info("Recovered " + count + " changes from the journal");
+    return new Recovery(buildProject(last, components), checkpoint.fileName);
+  }
+
+  /**
+   * Releases the journal so other instances may use it.
+   */
+  public void close() {
+    closeLog();
+    try {
+      lock.release();
+      lockChannel.close();
+    } catch (IOException e) {
+      LOG.warn("Could not release the journal lock", e);
+    }
+  }
+
+  /**
+   * @param hasChanges true if the snapshot contains changes that have not been saved
+   */
+  private void checkpoint(Project snapshot, String fileName, boolean hasChanges) throws IOException {
+    closeLog();
+    ids.clear();
+    nextId = 0;
+    // the time keeps generations unique across runs
+    generation = Math.max(generation + 1, System.currentTimeMillis());
+    final Record record = createRecord(snapshot, true);
+    record.fileName = fileName;
+    record.hasChanges = hasChanges;
+
+    Utils.writeFile(new File(directory, CHECKPOINT_FILE), new IContentWriter() {
+
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializer.toBinaryStream(out, record);
+      }
+    });
+
+    // the records that were written so far are included in the checkpoint, and if the application
+    // stops before the log is truncated, their generation tells them apart from the new ones
+    logOut = new FileOutputStream(new File(directory, LOG_FILE), false);
+    logData = new DataOutputStream(new BufferedOutputStream(logOut));
+    recordCount = 0;
+    lastSnapshot = snapshot;
+  }
+
+  private void closeLog() {
+    if (logOut != null) {
+      try {
+        logData.close();
+      } catch (IOException e) {
+        LOG.warn("Could not close the journal", e);
+      }
+      logOut = null;
+      logData = null;
+    }
+  }
+
+  /**
+   * @param snapshot
+   * @param full true to include all the components, false to include only the ones that were added
+   *        or changed since the last record
+   */
+  private Record createRecord(Project snapshot, boolean full) {
+    Record record = new Record();
+    record.generation = generation;
+    record.settings = copySettings(snapshot);
+    record.components = new HashMap<Integer, IDIYComponent<?>>();
+    Map<IDIYComponent<?>, Integer> newIds = new IdentityHashMap<IDIYComponent<?>, Integer>();
+    record.order = new int[snapshot.getComponents().size()];
+    int i = 0;
+    for (IDIYComponent<?> component : snapshot.getComponents()) {
+      Integer id = ids.get(component);
+      if (id == null || full) {
+        id = nextId++;
+        record.components.put(id, component);
+      }
+      newIds.put(component, id);
+      record.order[i++] = id;
+    }
+    record.groups = new int[snapshot.getGroups().size()][];
+    i = 0;
+    for (Set<IDIYComponent<?>> group : snapshot.getGroups()) {
+      int[] groupIds = new int[group.size()];
+      int j = 0;
+      for (IDIYComponent<?> component : group) {
+        groupIds[j++] = newIds.get(component);
+      }
+      record.groups[i++] = groupIds;
+    }
+    ids = newIds;
+    return record;
+  }
+
+  private static Project buildProject(Record record, Map<Integer, IDIYComponent<?>> components) {
+    Project project = copySettings(record.settings);
+    for (int id : record.order) {
+      project.getComponents().add(components.get(id));
+    }
+    for (int[] groupIds : record.groups) {
+      Set<IDIYComponent<?>> group = new HashSet<IDIYComponent<?>>();
+      for (int id : groupIds) {
+        group.add(components.get(id));
+      }
+      project.getGroups().add(group);
+    }
+    return project;
+  }
+
+  /**
+   * @return copy of the project without components and groups.
+   */
+  private static Project copySettings(Project project) {
+    Project copy = new Project();
+    copy.setTitle(project.getTitle());
+    copy.setAuthor(project.getAuthor());
+    copy.setDescription(project.getDescription());
+    copy.setFileVersion(project.getFileVersion());
+    copy.setGridSpacing(project.getGridSpacing());
+    copy.setHeight(project.getHeight());
+    copy.setWidth(project.getWidth());
+    copy.getLockedLayers().addAll(project.getLockedLayers());
+    copy.getHiddenLayers().addAll(project.getHiddenLayers());
+    copy.setFont(project.getFont());
+    return copy;
+  }
+
+  private static byte[] serialize(Record record) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializer.toBinaryStream(out, record);
+    return out.toByteArray();
+  }
+
+  /**
+   * State of the project after a change. Components are referred to by numbers that stay the same
+   * as long as the component does not change.
+   */
+  static class Record {
+
+    // generation of the checkpoint the record belongs to
+    private long generation;
+    // project without components
+    private Project settings;
+    // numbers of all the components in z-order
+    private int[] order;
+    private int[][] groups;
+    // components that were added or changed, or all of them in a checkpoint
+    private Map<Integer, IDIYComponent<?>> components;
+    // only stored in checkpoints
+    private String fileName;
+    private boolean hasChanges;
+  }
+
+  public static class Recovery {
+
+    private final Project project;
+    private final String fileName;
+
+    public Recovery(Project project, String fileName) {
+      this.project = project;
+      this.fileName = fileName;
+    }
+
+    public Project getProject() {
+      return project;
+    }
+
+    /**
+     * @return name of the file the project was loaded from or last saved to, or null if it was
+     *         never saved.
+     */
+    public String getFileName() {
+      return fileName;
+    }
+  }
+}
@@ -76,6 +76,12 @@ public class CanvasPanel extends JComponent implements Autoscroll {
   private Image bufferImage;
   private GraphicsConfiguration screenGraphicsConfiguration;
 
+  // When false, buffer image still holds the previous frame and only the regions that have changed
+  // since need to be redrawn.
+  private boolean fullRepaintNeeded = true;
+  private Rectangle lastVisibleRect;
+  private Set<DrawOption> lastDrawOptions;
+
   public boolean useHardwareAcceleration = ConfigurationManager.getInstance().readBoolean(IPlugInPort.HARDWARE_ACCELERATION, false);
 
   // static final EnumSet<DrawOption> DRAW_OPTIONS =
@@ -105,6 +111,20 @@ public class CanvasPanel extends JComponent implements Autoscroll {
     bufferImage = null;
   }
 
+  @Override
+  public void repaint() {
+    fullRepaintNeeded = true;
+    super.repaint();
+  }
+
+  /**
+   * Schedules a repaint that redraws only the parts of the buffer that have changed since the
+   * previous frame. Falls back to full repaint if the buffer cannot be reused.
+   */
+  public void repaintDirtyRegions() {
+    super.repaint();
+  }
+
   public HashMap<String, ComponentType> getComponentTypeCache() {
     if (componentTypeCache == null) {
       componentTypeCache = new HashMap<String, ComponentType>();
@@ -235,8 +255,11 @@ public class CanvasPanel extends JComponent implements Autoscroll {
     if (plugInPort == null) {
       return;
     }
-    if (bufferImage == null) {
+    boolean bufferValid = bufferImage != null;
+    if (!bufferValid) {
       createBufferImage();
+    } else if (useHardwareAcceleration) {
+      bufferValid = !((VolatileImage) bufferImage).contentsLost();
     }
     Graphics2D g2d = (Graphics2D) bufferImage.getGraphics();
     
@@ -265,6 +288,18 @@ public class CanvasPanel extends JComponent implements Autoscroll {
     }
     if (ConfigurationManager.getInstance().readBoolean(IPlugInPort.EXTRA_SPACE_KEY, true)) {
       drawOptions.add(DrawOption.EXTRA_SPACE);
+    }
+    if (ConfigurationManager.getInstance().readBoolean(IPlugInPort.CACHE_SPRITES_KEY, false)) {
+      drawOptions.add(DrawOption.SPRITE_CACHE);
+    }
+
+    boolean incremental =
+        bufferValid && !fullRepaintNeeded && visibleRect.equals(lastVisibleRect) && drawOptions.equals(lastDrawOptions);
+    fullRepaintNeeded = false;
+    lastVisibleRect = visibleRect;
+    lastDrawOptions = EnumSet.copyOf(drawOptions);
+    if (incremental) {
+      drawOptions.add(DrawOption.INCREMENTAL);
     }
     
     plugInPort.draw(g2d, drawOptions, null, null);
@@ -699,7 +699,11 @@ public class CanvasPlugin implements IPlugIn, ClipboardOwner {
         zoomLevel = (Double) params[0];
         break;
       case REPAINT:
-        canvasPanel.repaint();
+        if (params.length > 0 && Boolean.TRUE.equals(params[0])) {
+          canvasPanel.repaintDirtyRegions();
+        } else {
+          canvasPanel.repaint();
+        }
         // Refresh selection bounds after we're done with painting to ensure we have traced the
         // component areas
         SwingUtilities.invokeLater(new Runnable() {
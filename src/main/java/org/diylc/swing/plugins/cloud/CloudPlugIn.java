@@ -22,7 +22,12 @@
 package org.diylc.swing.plugins.cloud;
 
 import java.awt.event.ActionEvent;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
@@ -41,6 +46,7 @@ import org.diylc.images.IconLoader;
 import org.diylc.plugins.cloud.presenter.CloudException;
 import org.diylc.plugins.cloud.presenter.CloudPresenter;
 import org.diylc.presenter.Presenter;
+import org.diylc.presenter.ProjectContainer;
 import org.diylc.swing.ISwingUI;
 import org.diylc.swing.gui.DialogFactory;
 import org.diylc.swing.gui.DummyView;
@@ -440,14 +446,15 @@ public class CloudPlugIn implements IPlugIn {
               if (ButtonDialog.OK.equals(dialog.getSelectedButtonCaption())) {
                 try {
                   final File thumbnailFile = File.createTempFile("upload-thumbnail", ".png");
-                  if (ImageIO.write(dialog.getThumbnail(), "png", thumbnailFile)) {
+                  BufferedImage thumbnail = readStoredThumbnail(file);
+                  if (ImageIO.write(thumbnail == null ? dialog.getThumbnail() : thumbnail, "png", thumbnailFile)) {
                     swingUI.executeBackgroundTask(new ITask<Void>() {
 
                       @Override
                       public Void doInBackground() throws Exception {
                         CloudPresenter.Instance.uploadProject(dialog.getName(), dialog.getCategory(), dialog
                             .getDescription(), dialog.getKeywords(), plugInPort.getCurrentVersionNumber().toString(),
-                            thumbnailFile, file, null);
+                            thumbnailFile, getUploadFile(file), null);
                         return null;
                       }
 
@@ -492,6 +499,38 @@ public class CloudPlugIn implements IPlugIn {
         }
       }
     }
+
+    /**
+     * @return thumbnail saved along with the project, or null if the file doesn't have one.
+     */
+    private BufferedImage readStoredThumbnail(File file) {
+      if (ProjectContainer.isContainerFileName(file.getName())) {
+        try {
+          return ProjectContainer.readThumbnail(file);
+        } catch (Exception e) {
+          LOG.warn("Could not read thumbnail from " + file.getAbsolutePath(), e);
+        }
+      }
+      return null;
+    }
+
+    /**
+     * @return file in the plain XML format that the cloud expects.
+     */
+    private File getUploadFile(File file) throws IOException {
+      if (!ProjectContainer.isContainerFileName(file.getName())) {
+        return file;
+      }
+      File projectFile = File.createTempFile("upload-project", ".diy");
+      projectFile.deleteOnExit();
+      InputStream in = ProjectContainer.openProject(file);
+      try {
+        Files.copy(in, projectFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        in.close();
+      }
+      return projectFile;
+    }
   }
 
   class ManageProjectsAction extends AbstractAction {
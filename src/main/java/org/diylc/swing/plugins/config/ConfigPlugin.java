@@ -70,6 +70,9 @@ public class ConfigPlugin implements IPlugIn {
 	swingUI.injectMenuAction(
 				 ActionFactory.getInstance().createConfigAction(plugInPort, "Auto-Edit Mode", IPlugInPort.AUTO_EDIT_KEY, true),
 				 CONFIG_MENU);
+	swingUI.injectMenuAction(
+				 ActionFactory.getInstance().createConfigAction(plugInPort, "Cache Component Images",
+										IPlugInPort.CACHE_SPRITES_KEY, false), CONFIG_MENU);
 	swingUI.injectMenuAction(
 				 ActionFactory.getInstance().createConfigAction(plugInPort, "Continuous Creation",
 										IPlugInPort.CONTINUOUS_CREATION_KEY, false), CONFIG_MENU);
@@ -93,7 +93,8 @@ public class EditMenuPlugin implements IPlugIn, ClipboardOwner {
 
       @Override
       public void actionPerformed(Project currentState) {
-        plugInPort.loadProject(currentState, false, null);
+        // states share component copies with each other, so never edit them directly
+        plugInPort.loadProject(currentState.clone(), false, null);
       }
     });
     clipboard.addFlavorListener(new FlavorListener() {
@@ -27,9 +27,10 @@ import javax.swing.filechooser.FileFilter;
 
 public enum FileFilterEnum {
 
-  PNG("PNG Images (*.png)", "png"), PDF("PDF Files (*.pdf)", "pdf"), DIY("DIY Project Files (*.diy)", "diy"), EXCEL(
+  PNG("PNG Images (*.png)", "png"), PDF("PDF Files (*.pdf)", "pdf"), DIY("DIY Project Files (*.diy, *.diyb, *.diyz)", "diy", "diyb", "diyz"), EXCEL(
       "Excel Workbooks (*.xls)", "xls"), CSV("Comma Separated Files (*.csv)", "csv"), HTML("HTML Files (*.html)",
-      "html"), IMAGES("Image Files (*.png, *.jpg, *.gif)", "png", "jpg", "gif"), XML("XML Files (*.xml)", "xml");
+      "html"), IMAGES("Image Files (*.png, *.jpg, *.gif)", "png", "jpg", "gif"), XML("XML Files (*.xml)", "xml"), TXT(
+      "Text Files (*.txt)", "txt");
 
   FileFilter filter;
   String[] extensions;
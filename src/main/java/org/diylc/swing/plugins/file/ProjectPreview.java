@@ -24,6 +24,8 @@ import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
@@ -39,6 +41,7 @@ import org.diylc.common.DrawOption;
 import org.diylc.common.IPlugInPort;
 import org.diylc.core.Project;
 import org.diylc.presenter.Presenter;
+import org.diylc.presenter.ProjectContainer;
 import org.diylc.swing.gui.DummyView;
 import org.diylc.swingframework.IFileChooserAccessory;
 
@@ -60,6 +63,8 @@ public class ProjectPreview extends JPanel
     private Project emptyProject;
     private RenderComponent renderComponent;
     private JLabel nameLabel;
+    // pre-rendered image of the selected project, if it has one
+    private BufferedImage thumbnail;
 
     public ProjectPreview() {
 	super();
@@ -86,19 +91,34 @@ public class ProjectPreview extends JPanel
 	String prop = evt.getPropertyName();
 
 	Project selectedProject = emptyProject;
+	String title = null;
+	thumbnail = null;
 	if (JFileChooser.DIRECTORY_CHANGED_PROPERTY.equals(prop)) {
 	    update = true;
 	} else if (JFileChooser.SELECTED_FILE_CHANGED_PROPERTY.equals(prop)) {
 	    File selectedFile = (File) evt.getNewValue();
-	    try {
-		selectedProject = (Project) Serializer.fromFile(selectedFile);
-	    } catch (Exception e) {
-		// TODO: Log error from e !!!
+	    if (selectedFile != null && ProjectContainer.isContainerFileName(selectedFile.getName())) {
+		// only the header and the thumbnail are needed, don't read the project itself
+		try {
+		    thumbnail = ProjectContainer.readThumbnail(selectedFile);
+		    if (thumbnail != null) {
+			title = ProjectContainer.readMetadata(selectedFile).getTitle();
+		    }
+		} catch (Exception e) {
+		    thumbnail = null;
+		}
+	    }
+	    if (thumbnail == null) {
+		try {
+		    selectedProject = (Project) Serializer.fromFile(selectedFile);
+		} catch (Exception e) {
+		    // TODO: Log error from e !!!
+		}
 	    }
 	    update = true;
 	}
 
-	nameLabel.setText(selectedProject.getTitle());
+	nameLabel.setText(thumbnail == null ? selectedProject.getTitle() : title);
 	presenter.loadProject(selectedProject, true, null);
 
 	if (update) {
@@ -122,6 +142,17 @@ public class ProjectPreview extends JPanel
 	    super.paint(g);
 
 	    Graphics2D g2d = (Graphics2D) g;
+	    if (thumbnail != null) {
+		double scale = Math.min((double) getWidth() / thumbnail.getWidth(), (double) getHeight() / thumbnail.getHeight());
+		int width = (int) (thumbnail.getWidth() * scale);
+		int height = (int) (thumbnail.getHeight() * scale);
+		g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g2d.drawImage(thumbnail, 0, 0, width, height, null);
+		g2d.setColor(Color.black);
+		g2d.drawRect(0, 0, width - 1, height - 1);
+		return;
+	    }
+
 	    Dimension d = presenter.getCanvasDimensions(false, false);
 	    // System.out.println(d);
 	    Rectangle rect = getBounds();
@@ -73,6 +73,7 @@ public class HelpMenuPlugin implements IPlugIn {
     swingUI.injectMenuAction(new NavigateURLAction("Submit a Bug", IconLoader.Bug.getIcon(), BUG_URL), HELP_TITLE);
     swingUI.injectMenuAction(null, HELP_TITLE);
     swingUI.injectMenuAction(new RecentUpdatesAction(), HELP_TITLE);
+    swingUI.injectMenuAction(new PerformanceAction(), HELP_TITLE);
     swingUI.injectMenuAction(null, HELP_TITLE);
     swingUI.injectMenuAction(new NavigateURLAction("Donate", IconLoader.Donate.getIcon(), DONATE_URL), HELP_TITLE);    
     swingUI.injectMenuAction(new AboutAction(), HELP_TITLE);
@@ -152,6 +153,22 @@ public class HelpMenuPlugin implements IPlugIn {
     }
   }
 
+  class PerformanceAction extends AbstractAction {
+
+    private static final long serialVersionUID = 1L;
+
+    public PerformanceAction() {
+      super();
+      putValue(AbstractAction.NAME, "Performance");
+      putValue(AbstractAction.SMALL_ICON, IconLoader.Dashboard.getIcon());
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+      new PerformanceDialog(swingUI.getOwnerFrame(), plugInPort.getDispatchStatistics()).setVisible(true);
+    }
+  }
+
   class NavigateURLAction extends AbstractAction {
 
     private static final long serialVersionUID = 1L;
@@ -0,0 +1,175 @@
+/*
+ *
+ * DIY Layout Creator (DIYLC). Copyright (c) 2009-2018 held jointly by the individual authors.
+ *
+ * This file is part of DIYLC.
+ *
+ * DIYLC is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * DIYLC is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with DIYLC. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.diylc.swing.plugins.help;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import javax.swing.AbstractAction;
+import javax.swing.Action;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+
+import org.apache.log4j.Logger;
+import org.diylc.appframework.simplemq.DispatchStatistics;
+import org.diylc.common.EventType;
+import org.diylc.images.IconLoader;
+import org.diylc.swing.gui.DialogFactory;
+import org.diylc.swing.plugins.file.FileFilterEnum;
+import org.diylc.swingframework.objecttable.ObjectListTable;
+
+/**
+ * Shows how many times each event was dispatched and how long each listener took to process it,
+ * so slow plugins can be found and reported.
+ */
+public class PerformanceDialog extends JDialog {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final Logger LOG = Logger.getLogger(PerformanceDialog.class);
+
+  private DispatchStatistics<EventType> statistics;
+  private ObjectListTable<DispatchStatistics.Entry> table;
+  private JPanel toolbar;
+
+  public PerformanceDialog(JFrame parent, DispatchStatistics<EventType> statistics) {
+    super(parent, "Performance");
+    this.statistics = statistics;
+    setContentPane(createMainPanel());
+    refresh();
+    setPreferredSize(new Dimension(800, 400));
+    pack();
+    setLocationRelativeTo(parent);
+  }
+
+  private void refresh() {
+    getTable().setData(statistics.getEntries());
+  }
+
+  private JPanel createMainPanel() {
+    JPanel mainPanel = new JPanel();
+    mainPanel.setLayout(new BorderLayout());
+    mainPanel.add(getToolbar(), BorderLayout.NORTH);
+    mainPanel.add(new JScrollPane(getTable()), BorderLayout.CENTER);
+    return mainPanel;
+  }
+
+  private ObjectListTable<DispatchStatistics.Entry> getTable() {
+    if (table == null) {
+      try {
+        table =
+            new ObjectListTable<DispatchStatistics.Entry>(DispatchStatistics.Entry.class, new String[] {"getEventType",
+                "getListener", "getDispatched", "getProcessed", "getTotalMs", "getMeanMs", "getP99Ms", "getMaxMs"},
+                null);
+      } catch (SecurityException e) {
+        LOG.error("Could not create the table", e);
+      } catch (NoSuchMethodException e) {
+        LOG.error("Could not create the table", e);
+      }
+    }
+    return table;
+  }
+
+  private JPanel getToolbar() {
+    if (toolbar == null) {
+      toolbar = new JPanel();
+      toolbar.add(new JButton(new RefreshAction()));
+      toolbar.add(new JButton(new ResetAction()));
+      toolbar.add(new JButton(new SaveToFileAction()));
+    }
+    return toolbar;
+  }
+
+  class RefreshAction extends AbstractAction {
+
+    private static final long serialVersionUID = 1L;
+
+    public RefreshAction() {
+      super();
+      putValue(Action.NAME, "Refresh");
+      putValue(Action.SMALL_ICON, IconLoader.Dashboard.getIcon());
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+      refresh();
+    }
+  }
+
+  class ResetAction extends AbstractAction {
+
+    private static final long serialVersionUID = 1L;
+
+    public ResetAction() {
+      super();
+      putValue(Action.NAME, "Reset");
+      putValue(Action.SMALL_ICON, IconLoader.Delete.getIcon());
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+      statistics.reset();
+      refresh();
+    }
+  }
+
+  class SaveToFileAction extends AbstractAction {
+
+    private static final long serialVersionUID = 1L;
+
+    public SaveToFileAction() {
+      super();
+      putValue(Action.NAME, "Save to File");
+      putValue(Action.SMALL_ICON, IconLoader.SaveAs.getIcon());
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+      File file =
+          DialogFactory.getInstance().showSaveDialog(PerformanceDialog.this, FileFilterEnum.TXT.getFilter(),
+              new File("performance.txt"), FileFilterEnum.TXT.getExtensions()[0], null);
+      if (file != null) {
+        try {
+          Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+          try {
+            writer.write(String.format("Java %s, %s %s, %d processors%n%n", System.getProperty("java.version"),
+                System.getProperty("os.name"), System.getProperty("os.version"), Runtime.getRuntime()
+                    .availableProcessors()));
+            statistics.writeReport(writer);
+          } finally {
+            writer.close();
+          }
+        } catch (IOException e1) {
+          LOG.error("Could not save performance statistics", e1);
+          JOptionPane.showMessageDialog(PerformanceDialog.this, "Could not save file " + file.getName()
+              + ". Check the log for details.", "Error", JOptionPane.ERROR_MESSAGE);
+        }
+      }
+    }
+  }
+}
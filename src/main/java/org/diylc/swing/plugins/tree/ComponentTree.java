@@ -25,6 +25,7 @@ import java.awt.KeyEventDispatcher;
 import java.awt.KeyboardFocusManager;
 import java.awt.event.KeyEvent;
 import java.util.EnumSet;
+import java.util.List;
 
 import javax.swing.JComponent;
 import javax.swing.SwingConstants;
@@ -103,13 +104,22 @@ public class ComponentTree implements IPlugIn {
 
   @Override
   public EnumSet<EventType> getSubscribedEventTypes() {
-    // TODO Auto-generated method stub
-    return null;
+    return EnumSet.of(EventType.BLOCKS_CHANGED, EventType.VARIANTS_CHANGED);
   }
 
+  @SuppressWarnings("unchecked")
   @Override
   public void processMessage(EventType eventType, Object... params) {
-    // TODO Auto-generated method stub
-
+    switch (eventType) {
+      case BLOCKS_CHANGED:
+        getTreePanel().blocksChanged((List<String>) params[0]);
+        break;
+      case VARIANTS_CHANGED:
+        LOG.info("Detected variants change, repainting the tree");
+        getTreePanel().repaint();
+        break;
+      default:
+        break;
+    }
   }
 }
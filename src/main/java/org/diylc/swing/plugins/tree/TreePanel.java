@@ -153,34 +153,6 @@ public class TreePanel extends JPanel {
       }
     });
 
-    ConfigurationManager.getInstance().addConfigListener(IPlugInPort.BLOCKS_KEY, new IConfigListener() {
-
-      @SuppressWarnings("unchecked")
-      @Override
-      public void valueChanged(String key, Object value) {
-        Map<String, List<IDIYComponent<?>>> newBlocks = (Map<String, List<IDIYComponent<?>>>) value;
-        if (newBlocks != null) {
-          List<String> blockNames = new ArrayList<String>(newBlocks.keySet());
-          Collections.sort(blockNames);
-          if (!blockNames.equals(TreePanel.this.blocks)) {
-            LOG.info("Detected block change");
-            refreshBuildingBlocks(blockNames);
-          } else
-            LOG.info("Detected no block change");
-        } else
-          LOG.info("Detected no block change");
-      }
-    });
-    
-    ConfigurationManager.getInstance().addConfigListener(IPlugInPort.TEMPLATES_KEY, new IConfigListener() {
-      
-      @Override
-      public void valueChanged(String key, Object value) {
-        LOG.info("Detected variants change, repainting the tree");
-        repaint();
-      }
-    });
-    
     ConfigurationManager.getInstance().addConfigListener(IPlugInPort.FAVORITES_KEY, new IConfigListener() {
 
       @SuppressWarnings("unchecked")
@@ -237,20 +209,23 @@ public class TreePanel extends JPanel {
     if (this.blocksNode == null) {
       this.blocksNode = new DefaultMutableTreeNode(new Payload("(Building Blocks)", null), true);
       
-      @SuppressWarnings("unchecked")
-      Map<String, List<IDIYComponent<?>>> newBlocks =
-          (Map<String, List<IDIYComponent<?>>>) ConfigurationManager.getInstance().readObject(
-              IPlugInPort.BLOCKS_KEY, null);
-      if (newBlocks != null) {
-        List<String> blockNames = new ArrayList<String>(newBlocks.keySet());
-        Collections.sort(blockNames);
-        refreshBuildingBlocks(blockNames);
-      } else {
-        this.blocks = new ArrayList<String>();
-      }
+      refreshBuildingBlocks(plugInPort.getBlockNames());
     }
     return this.blocksNode;
   }
+
+  /**
+   * Called when building blocks are added or deleted.
+   *
+   * @param blockNames sorted names of all the blocks
+   */
+  void blocksChanged(List<String> blockNames) {
+    if (!blockNames.equals(this.blocks)) {
+      LOG.info("Detected block change");
+      refreshBuildingBlocks(blockNames);
+    } else
+      LOG.info("Detected no block change");
+  }
   
   public DefaultMutableTreeNode getFavoritesNode() {
     if (this.favoritesNode == null) {
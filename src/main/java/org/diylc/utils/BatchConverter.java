@@ -58,6 +58,8 @@ public class BatchConverter {
       presenter.loadProjectFromFile(file.getAbsolutePath());
       presenter.saveProjectToFile(file.getParentFile().getAbsolutePath() + "\\converted\\" + file.getName(), false);
     }
+    // saves are written in the background
+    presenter.dispose();
   }
 
 }
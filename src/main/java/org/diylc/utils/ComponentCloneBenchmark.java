@@ -0,0 +1,301 @@
+/*
+
+    DIY Layout Creator (DIYLC).
+    Copyright (c) 2009-2018 held jointly by the individual authors.
+
+    This file is part of DIYLC.
+
+    DIYLC is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DIYLC is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with DIYLC.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package org.diylc.utils;
+
+import java.awt.Point;
+import java.io.File;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.diylc.appframework.miscutils.Utils;
+import org.diylc.appframework.simplemq.MessageDispatcher;
+import org.diylc.common.EventType;
+import org.diylc.components.AbstractComponent;
+import org.diylc.core.IDIYComponent;
+import org.diylc.presenter.ProjectFileManager;
+
+/**
+ * Compares {@link AbstractComponent#clone()} and {@link AbstractComponent#equalsTo(IDIYComponent)},
+ * which use a field plan cached per class, with the reflective implementation they replaced. Each
+ * component is also checked to be cloned and compared the same way by both.
+ *
+ * Components are taken from the specified projects, or one of each component type when no
+ * projects are specified.
+ *
+ * Usage: ComponentCloneBenchmark [<file.diy or directory>...]
+ */
+public class ComponentCloneBenchmark {
+
+  private static final int RUNS = 5;
+  private static final int ITERATIONS = 10000;
+
+  public static void main(String[] args) throws Exception {
+    Map<String, List<AbstractComponent<?>>> components = new TreeMap<String, List<AbstractComponent<?>>>();
+    if (args.length == 0) {
+      collectTypes(components);
+    } else {
+      ProjectFileManager manager = new ProjectFileManager(new MessageDispatcher<EventType>(true));
+      for (String arg : args) {
+        collect(manager, new File(arg), components);
+      }
+    }
+    if (components.isEmpty()) {
+      System.err.println("No components found");
+      System.err.println("Usage: ComponentCloneBenchmark [<file.diy or directory>...]");
+      System.exit(1);
+    }
+
+    long reflectiveCloneTotal = 0;
+    long planCloneTotal = 0;
+    long reflectiveEqualsTotal = 0;
+    long planEqualsTotal = 0;
+    int failed = 0;
+    System.out.println(String.format("%-40s %6s %12s %12s %12s %12s", "Component", "Count", "Old clone",
+        "Plan clone", "Old equals", "Plan equals"));
+    for (Map.Entry<String, List<AbstractComponent<?>>> entry : components.entrySet()) {
+      List<AbstractComponent<?>> list = entry.getValue();
+      String name = entry.getKey().substring(entry.getKey().lastIndexOf('.') + 1);
+      try {
+        boolean same = check(list);
+        if (!same) {
+          failed++;
+        }
+        List<IDIYComponent<?>> copies = new ArrayList<IDIYComponent<?>>();
+        for (AbstractComponent<?> component : list) {
+          copies.add(component.clone());
+        }
+        long reflectiveClone = timeClone(list, true);
+        long planClone = timeClone(list, false);
+        long reflectiveEquals = timeEquals(list, copies, true);
+        long planEquals = timeEquals(list, copies, false);
+        reflectiveCloneTotal += reflectiveClone;
+        planCloneTotal += planClone;
+        reflectiveEqualsTotal += reflectiveEquals;
+        planEqualsTotal += planEquals;
+        int operations = ITERATIONS * list.size();
+        System.out.println(String.format("%-40s %6d %10.0fns %10.0fns %10.0fns %10.0fns%s", name, list.size(),
+            1.0 * reflectiveClone / operations, 1.0 * planClone / operations, 1.0 * reflectiveEquals / operations,
+            1.0 * planEquals / operations, same ? "" : "  MISMATCH"));
+      } catch (Exception e) {
+        failed++;
+        System.out.println(String.format("%-40s failed: %s", name, e));
+      }
+    }
+    System.out.println(String.format("Total clone %.1fms old, %.1fms plan (%.1fx), equals %.1fms old, %.1fms plan "
+        + "(%.1fx), %d of %d types failed", reflectiveCloneTotal / 1e6, planCloneTotal / 1e6,
+        planCloneTotal == 0 ? 0 : 1.0 * reflectiveCloneTotal / planCloneTotal, reflectiveEqualsTotal / 1e6,
+        planEqualsTotal / 1e6, planEqualsTotal == 0 ? 0 : 1.0 * reflectiveEqualsTotal / planEqualsTotal, failed,
+        components.size()));
+  }
+
+  private static void collect(ProjectFileManager manager, File file,
+      Map<String, List<AbstractComponent<?>>> components) {
+    if (file.isDirectory()) {
+      File[] children = file.listFiles();
+      if (children != null) {
+        for (File child : children) {
+          collect(manager, child, components);
+        }
+      }
+    } else if (file.getName().toLowerCase().endsWith(".diy")) {
+      try {
+        for (IDIYComponent<?> component : manager.deserializeProjectFromFile(file.getAbsolutePath(),
+            new ArrayList<String>()).getComponents()) {
+          add(component, components);
+        }
+      } catch (Exception e) {
+        System.out.println(String.format("%-40s failed: %s", file.getName(), e));
+      }
+    }
+  }
+
+  private static void collectTypes(Map<String, List<AbstractComponent<?>>> components) throws Exception {
+    for (Class<?> clazz : Utils.getClasses("org.diylc.components")) {
+      if (!AbstractComponent.class.isAssignableFrom(clazz) || Modifier.isAbstract(clazz.getModifiers())
+          || !Modifier.isPublic(clazz.getModifiers())) {
+        continue;
+      }
+      try {
+        add((IDIYComponent<?>) clazz.getConstructor().newInstance(), components);
+      } catch (Exception e) {
+        // not a component that can be created on its own
+      }
+    }
+  }
+
+  private static void add(IDIYComponent<?> component, Map<String, List<AbstractComponent<?>>> components) {
+    if (!(component instanceof AbstractComponent)) {
+      return;
+    }
+    List<AbstractComponent<?>> list = components.get(component.getClass().getName());
+    if (list == null) {
+      list = new ArrayList<AbstractComponent<?>>();
+      components.put(component.getClass().getName(), list);
+    }
+    list.add((AbstractComponent<?>) component);
+  }
+
+  /**
+   * @return true if both implementations agree that clones made by either of them are equal to the
+   *         original and don't share points with it.
+   */
+  private static boolean check(List<AbstractComponent<?>> components) throws Exception {
+    for (AbstractComponent<?> component : components) {
+      IDIYComponent<?> planCopy = component.clone();
+      IDIYComponent<?> reflectiveCopy = reflectiveClone(component);
+      if (!component.equalsTo(planCopy) || !component.equalsTo(reflectiveCopy)
+          || !reflectiveEquals(component, planCopy) || !reflectiveEquals(component, reflectiveCopy)) {
+        return false;
+      }
+      for (int i = 0; i < component.getControlPointCount(); i++) {
+        if (component.getControlPoint(i) == planCopy.getControlPoint(i)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the fastest of {@link #RUNS} runs in nanoseconds, each cloning every component
+   *         {@link #ITERATIONS} times
+   */
+  private static long timeClone(List<AbstractComponent<?>> components, boolean reflective) throws Exception {
+    long best = Long.MAX_VALUE;
+    for (int run = 0; run < RUNS; run++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+        for (AbstractComponent<?> component : components) {
+          if (reflective) {
+            reflectiveClone(component);
+          } else {
+            component.clone();
+          }
+        }
+      }
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best;
+  }
+
+  /**
+   * @return the fastest of {@link #RUNS} runs in nanoseconds, each comparing every component with
+   *         its copy {@link #ITERATIONS} times
+   */
+  private static long timeEquals(List<AbstractComponent<?>> components, List<IDIYComponent<?>> copies,
+      boolean reflective) {
+    long best = Long.MAX_VALUE;
+    for (int run = 0; run < RUNS; run++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+        for (int j = 0; j < components.size(); j++) {
+          if (reflective) {
+            reflectiveEquals(components.get(j), copies.get(j));
+          } else {
+            components.get(j).equalsTo(copies.get(j));
+          }
+        }
+      }
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best;
+  }
+
+  /**
+   * The implementation of {@link AbstractComponent#clone()} before field plans were introduced.
+   */
+  private static IDIYComponent<?> reflectiveClone(AbstractComponent<?> component) throws Exception {
+    AbstractComponent<?> newInstance = (AbstractComponent<?>) component.getClass().getConstructors()[0].newInstance();
+    Class<?> clazz = component.getClass();
+    while (AbstractComponent.class.isAssignableFrom(clazz)) {
+      Field[] fields = clazz.getDeclaredFields();
+      clazz = clazz.getSuperclass();
+      for (Field field : fields) {
+        if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isFinal(field.getModifiers())) {
+          field.setAccessible(true);
+          Object value = field.get(component);
+          if (value != null && value.getClass().isArray()
+              && value.getClass().getComponentType().isAssignableFrom(Point.class)) {
+            Object newArray = Array.newInstance(value.getClass().getComponentType(), Array.getLength(value));
+            for (int i = 0; i < Array.getLength(value); i++) {
+              Point p = (Point) Array.get(value, i);
+              Array.set(newArray, i, new Point(p));
+            }
+            value = newArray;
+          }
+          if (value != null && value instanceof Point) {
+            value = new Point((Point) value);
+          }
+          field.set(newInstance, value);
+        }
+      }
+    }
+    return newInstance;
+  }
+
+  /**
+   * The implementation of {@link AbstractComponent#equalsTo(IDIYComponent)} before field plans were
+   * introduced.
+   */
+  private static boolean reflectiveEquals(AbstractComponent<?> component, IDIYComponent<?> other) {
+    if (other == null)
+      return false;
+    if (!other.getClass().equals(component.getClass()))
+      return false;
+    Class<?> clazz = component.getClass();
+    while (AbstractComponent.class.isAssignableFrom(clazz)) {
+      Field[] fields = clazz.getDeclaredFields();
+      clazz = clazz.getSuperclass();
+      for (Field field : fields) {
+        if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isFinal(field.getModifiers())) {
+          field.setAccessible(true);
+          try {
+            if (!compareObjects(field.get(component), field.get(other)))
+              return false;
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  private static boolean compareObjects(Object o1, Object o2) {
+    if (o1 == null && o2 == null)
+      return true;
+    if (o1 == null || o2 == null)
+      return false;
+    if (o1.getClass().isArray()) {
+      if (o1.getClass().getComponentType() == byte.class)
+        return Arrays.equals((byte[]) o1, (byte[]) o2);
+      return Arrays.equals((Object[]) o1, (Object[]) o2);
+    }
+    return o1.equals(o2);
+  }
+}
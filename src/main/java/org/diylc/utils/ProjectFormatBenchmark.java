@@ -0,0 +1,157 @@
+/*
+
+    DIY Layout Creator (DIYLC).
+    Copyright (c) 2009-2018 held jointly by the individual authors.
+
+    This file is part of DIYLC.
+
+    DIYLC is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DIYLC is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with DIYLC.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+package org.diylc.utils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.diylc.appframework.simplemq.MessageDispatcher;
+import org.diylc.common.EventType;
+import org.diylc.core.Project;
+import org.diylc.presenter.BinaryProjectFormat;
+import org.diylc.presenter.ProjectFileManager;
+
+/**
+ * Compares load and save times and file sizes of the XML and binary project formats. Each project
+ * is converted to the binary format in a temporary directory, and the one read back is saved as
+ * XML again to make sure nothing was lost on the way. With -keep, the binary files are left in the
+ * directory.
+ *
+ * Usage: ProjectFormatBenchmark [-keep] <file.diy or directory>...
+ */
+public class ProjectFormatBenchmark {
+
+  private static final int RUNS = 5;
+
+  public static void main(String[] args) throws Exception {
+    boolean keep = false;
+    List<File> files = new ArrayList<File>();
+    for (String arg : args) {
+      if ("-keep".equals(arg)) {
+        keep = true;
+      } else {
+        collect(new File(arg), files);
+      }
+    }
+    if (files.isEmpty()) {
+      System.err.println("Usage: ProjectFormatBenchmark [-keep] <file.diy or directory>...");
+      System.exit(1);
+    }
+
+    File directory = Files.createTempDirectory("diylc-benchmark").toFile();
+    ProjectFileManager manager = new ProjectFileManager(new MessageDispatcher<EventType>(true));
+    long xmlTotal = 0;
+    long binaryTotal = 0;
+    int failed = 0;
+    System.out.println(String.format("%-40s %10s %10s %10s %10s %10s %10s", "File", "XML size", "Bin size",
+        "XML load", "Bin load", "XML save", "Bin save"));
+    for (int i = 0; i < files.size(); i++) {
+      File file = files.get(i);
+      // numbered, as files from different directories may have the same name
+      String baseName = (i + 1) + "-" + file.getName().replaceAll("(?i)\\.diy$", "");
+      File binaryFile = new File(directory, baseName + "." + BinaryProjectFormat.EXTENSION);
+      File xmlCopy = new File(directory, baseName + ".diy");
+      File roundTripCopy = new File(directory, baseName + ".roundtrip.diy");
+      try {
+        List<String> warnings = new ArrayList<String>();
+        Project project = manager.deserializeProjectFromFile(file.getAbsolutePath(), warnings);
+
+        // save both formats first so the loads below read files of the same origin
+        long xmlSave = timeSave(manager, project, xmlCopy);
+        long binarySave = timeSave(manager, project, binaryFile);
+        long xmlLoad = timeLoad(manager, xmlCopy);
+        long binaryLoad = timeLoad(manager, binaryFile);
+
+        Project loaded = manager.deserializeProjectFromFile(binaryFile.getAbsolutePath(), warnings);
+        manager.serializeProjectToFile(loaded, roundTripCopy.getAbsolutePath(), true);
+        boolean same = Arrays.equals(Files.readAllBytes(xmlCopy.toPath()), Files.readAllBytes(roundTripCopy.toPath()));
+        if (!same) {
+          failed++;
+        }
+
+        xmlTotal += xmlCopy.length();
+        binaryTotal += binaryFile.length();
+        System.out.println(String.format("%-40s %10d %10d %8.1fms %8.1fms %8.1fms %8.1fms%s", file.getName(),
+            xmlCopy.length(), binaryFile.length(), xmlLoad / 1e6, binaryLoad / 1e6, xmlSave / 1e6, binarySave / 1e6,
+            same ? "" : "  ROUND TRIP MISMATCH"));
+      } catch (Exception e) {
+        failed++;
+        System.out.println(String.format("%-40s failed: %s", file.getName(), e));
+      } finally {
+        xmlCopy.delete();
+        roundTripCopy.delete();
+        if (!keep) {
+          binaryFile.delete();
+        }
+      }
+    }
+    System.out.println(String.format("Total XML size %d, binary size %d (%.0f%%), %d of %d files failed", xmlTotal,
+        binaryTotal, xmlTotal == 0 ? 0 : 100.0 * binaryTotal / xmlTotal, failed, files.size()));
+    if (keep) {
+      System.out.println("Binary files are in " + directory);
+    } else {
+      directory.delete();
+    }
+  }
+
+  private static void collect(File file, List<File> files) {
+    if (file.isDirectory()) {
+      File[] children = file.listFiles();
+      if (children != null) {
+        for (File child : children) {
+          collect(child, files);
+        }
+      }
+    } else if (file.getName().toLowerCase().endsWith(".diy")) {
+      files.add(file);
+    }
+  }
+
+  /**
+   * @return the fastest of {@link #RUNS} saves in nanoseconds
+   */
+  private static long timeSave(ProjectFileManager manager, Project project, File file) throws Exception {
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < RUNS; i++) {
+      long start = System.nanoTime();
+      manager.serializeProjectToFile(project, file.getAbsolutePath(), true);
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best;
+  }
+
+  /**
+   * @return the fastest of {@link #RUNS} loads in nanoseconds
+   */
+  private static long timeLoad(ProjectFileManager manager, File file) throws Exception {
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < RUNS; i++) {
+      long start = System.nanoTime();
+      manager.deserializeProjectFromFile(file.getAbsolutePath(), new ArrayList<String>());
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best;
+  }
+}